@@ -0,0 +1,66 @@
+package com.anm.benchmark;
+
+// Database.java
+import com.anm.core.ConnectionPool;
+import com.anm.core.SessionManager;
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 进程内 H2（MySQL 模式）数据库，表结构与 demo 实体一致
+ */
+final class Database {
+    private Database() {
+    }
+
+    /**
+     * 新建一个独立的内存库并设为 SessionManager 的数据源
+     */
+    static ConnectionPool open(String name) throws SQLException {
+        ConnectionPool pool = new ConnectionPool("jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+        SessionManager.setDataSource(pool);
+        try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+            statement.execute("CREATE TABLE tb_role (id BIGINT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(50))");
+            statement.execute("CREATE TABLE tb_user (id BIGINT AUTO_INCREMENT PRIMARY KEY, username VARCHAR(50),"
+                    + " password VARCHAR(50), phone_number VARCHAR(20), name VARCHAR(50), age INT, role_id BIGINT,"
+                    + " city VARCHAR(50))");
+            statement.execute("INSERT INTO tb_role (name) VALUES ('admin')");
+        }
+        return pool;
+    }
+
+    static void clearUsers(ConnectionPool pool) throws SQLException {
+        try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("TRUNCATE TABLE tb_user RESTART IDENTITY");
+        }
+    }
+
+    /**
+     * 插入 count 个用户，主键从 1 开始连续
+     */
+    static void insertUsers(int count) throws SQLException {
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            users.add(newUser(i));
+        }
+        new UserRepository().insertBatch(users);
+    }
+
+    static User newUser(int i) {
+        User user = new User();
+        user.setUsername("user" + i);
+        user.setPassword("123456");
+        user.setPhoneNumber("138" + (10000000 + i));
+        user.setName("name" + i);
+        user.setAge(18 + i % 50);
+        user.setCity(i % 2 == 0 ? "北海市" : "上海市");
+        return user;
+    }
+}
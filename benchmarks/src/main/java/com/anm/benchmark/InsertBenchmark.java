@@ -0,0 +1,82 @@
+package com.anm.benchmark;
+
+// InsertBenchmark.java
+import com.anm.core.ConnectionPool;
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 插入：单条 insert、循环 insert 与 insertBatch 每行的耗时
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InsertBenchmark {
+    private static final int BATCH = 100;
+
+    private ConnectionPool pool;
+    private UserRepository repository;
+    private int sequence;
+
+    @Setup(Level.Trial)
+    public void open() throws Exception {
+        pool = Database.open("insert");
+        repository = new UserRepository();
+    }
+
+    @Setup(Level.Iteration)
+    public void clear() throws Exception {
+        Database.clearUsers(pool);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        pool.close();
+    }
+
+    @Benchmark
+    public User insert() throws Exception {
+        return repository.insert(Database.newUser(sequence++));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int insertLoop() throws Exception {
+        int inserted = 0;
+        for (int i = 0; i < BATCH; i++) {
+            repository.insert(Database.newUser(sequence++));
+            inserted++;
+        }
+        return inserted;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int insertBatch() throws Exception {
+        List<User> users = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            users.add(Database.newUser(sequence++));
+        }
+        return repository.insertBatch(users);
+    }
+}
@@ -0,0 +1,61 @@
+package com.anm.benchmark;
+
+// MappingBenchmark.java
+import com.anm.core.ConnectionPool;
+import com.anm.core.QueryWrapper;
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * selectList 读取并映射 rows 行的耗时
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappingBenchmark {
+    private static final int TABLE_ROWS = 10000;
+
+    @Param({"1", "100", "10000"})
+    public int rows;
+
+    private ConnectionPool pool;
+    private UserRepository repository;
+    private QueryWrapper<User> wrapper;
+
+    @Setup(Level.Trial)
+    public void open() throws Exception {
+        pool = Database.open("mapping");
+        Database.insertUsers(TABLE_ROWS);
+        repository = new UserRepository();
+        wrapper = new QueryWrapper<User>().lt("id", (long) rows + 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        pool.close();
+    }
+
+    @Benchmark
+    public List<User> selectList() throws Exception {
+        return repository.selectList(wrapper);
+    }
+}
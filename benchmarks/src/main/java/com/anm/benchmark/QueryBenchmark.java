@@ -0,0 +1,75 @@
+package com.anm.benchmark;
+
+// QueryBenchmark.java
+import com.anm.core.ConnectionPool;
+import com.anm.core.CountStrategy;
+import com.anm.core.Page;
+import com.anm.core.QueryWrapper;
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按主键查询和分页查询
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+    private static final int TABLE_ROWS = 10000;
+    private static final int PAGE_SIZE = 20;
+
+    private ConnectionPool pool;
+    private UserRepository repository;
+    private QueryWrapper<User> wrapper;
+    private long id;
+    private int page;
+
+    @Setup(Level.Trial)
+    public void open() throws Exception {
+        pool = Database.open("query");
+        Database.insertUsers(TABLE_ROWS);
+        repository = new UserRepository();
+        wrapper = new QueryWrapper<User>().eq("city", "北海市").orderBy("id", "desc");
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        pool.close();
+    }
+
+    @Benchmark
+    public Optional<User> selectById() throws Exception {
+        id = id % TABLE_ROWS + 1;
+        return repository.selectById(id);
+    }
+
+    @Benchmark
+    public Page<User> selectPage() throws Exception {
+        page = page % 50 + 1;
+        return repository.selectPage(page, PAGE_SIZE, wrapper);
+    }
+
+    @Benchmark
+    public Page<User> selectPageWithoutCount() throws Exception {
+        page = page % 50 + 1;
+        return repository.selectPage(page, PAGE_SIZE, wrapper, CountStrategy.NONE);
+    }
+}
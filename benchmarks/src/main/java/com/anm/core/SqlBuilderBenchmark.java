@@ -0,0 +1,67 @@
+package com.anm.core;
+
+// SqlBuilderBenchmark.java
+import com.anm.demo.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SQL 构建，不访问数据库
+ * 放在 com.anm.core 包中以便直接调用包内的 SqlBuilder 和 SqlTemplateCache
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SqlBuilderBenchmark {
+    private EntityMetadata metadata;
+    private SqlTemplateCache templates;
+
+    @Setup
+    public void setUp() {
+        metadata = EntityMetadata.of(User.class);
+        templates = SqlTemplateCache.of(metadata);
+    }
+
+    private static QueryWrapper<User> newWrapper() {
+        return new QueryWrapper<User>()
+                .eq("phoneNumber", "13800000")
+                .gt("age", 16)
+                .in("city", Arrays.asList("北海市", "上海市", "北京市"))
+                .like("name", "li")
+                .eq("role.name", "admin")
+                .orderBy("id", "desc");
+    }
+
+    /**
+     * 每次重新生成 SQL，对应模板缓存未命中
+     */
+    @Benchmark
+    public String build() {
+        return new SqlBuilder(metadata, newWrapper()).select(true);
+    }
+
+    /**
+     * 构造查询条件、查模板缓存并绑定参数，对应 Repository 每次查询的固定开销
+     */
+    @Benchmark
+    public List<Object> cachedTemplate() {
+        QueryWrapper<User> wrapper = newWrapper();
+        templates.select(wrapper, true);
+        return SqlTemplate.bind(wrapper);
+    }
+}
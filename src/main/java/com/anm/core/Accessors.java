@@ -0,0 +1,171 @@
+package com.anm.core;
+
+// Accessors.java
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 访问器生成
+ * 有公开的 getter/setter/无参构造时用 LambdaMetafactory 生成实现类，调用点可被 JIT 内联；
+ * 否则退回到预先绑定的 MethodHandle
+ */
+final class Accessors {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private Accessors() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static Function<Object, Object> getter(Field field) {
+        Method method = findAccessor(field, "get", 0);
+        if (method == null && (field.getType() == boolean.class)) {
+            method = findAccessor(field, "is", 0);
+        }
+        try {
+            if (method != null && method.getReturnType() == field.getType()) {
+                MethodHandle target = LOOKUP.unreflect(method);
+                CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply",
+                        MethodType.methodType(Function.class),
+                        MethodType.methodType(Object.class, Object.class),
+                        target,
+                        MethodType.methodType(wrap(field.getType()), field.getDeclaringClass()));
+                return (Function<Object, Object>) site.getTarget().invokeExact();
+            }
+            field.setAccessible(true);
+            MethodHandle handle = LOOKUP.unreflectGetter(field)
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            return entity -> {
+                try {
+                    return handle.invokeExact(entity);
+                } catch (Throwable e) {
+                    throw rethrow(e);
+                }
+            };
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to create getter for " + field, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static BiConsumer<Object, Object> setter(Field field) {
+        Method method = findAccessor(field, "set", 1);
+        try {
+            if (method != null && method.getParameterTypes()[0] == field.getType()) {
+                MethodHandle target = LOOKUP.unreflect(method);
+                CallSite site = LambdaMetafactory.metafactory(LOOKUP, "accept",
+                        MethodType.methodType(BiConsumer.class),
+                        MethodType.methodType(void.class, Object.class, Object.class),
+                        target,
+                        MethodType.methodType(void.class, field.getDeclaringClass(), wrap(field.getType())));
+                return (BiConsumer<Object, Object>) site.getTarget().invokeExact();
+            }
+            field.setAccessible(true);
+            MethodHandle handle = LOOKUP.unreflectSetter(field)
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+            return (entity, value) -> {
+                try {
+                    handle.invokeExact(entity, value);
+                } catch (Throwable e) {
+                    throw rethrow(e);
+                }
+            };
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to create setter for " + field, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Supplier<Object> constructor(Class<?> type) {
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor();
+            if (Modifier.isPublic(constructor.getModifiers()) && Modifier.isPublic(type.getModifiers())) {
+                MethodHandle target = LOOKUP.unreflectConstructor(constructor);
+                CallSite site = LambdaMetafactory.metafactory(LOOKUP, "get",
+                        MethodType.methodType(Supplier.class),
+                        MethodType.methodType(Object.class),
+                        target,
+                        MethodType.methodType(type));
+                return (Supplier<Object>) site.getTarget().invokeExact();
+            }
+            constructor.setAccessible(true);
+            MethodHandle handle = LOOKUP.unreflectConstructor(constructor)
+                    .asType(MethodType.methodType(Object.class));
+            return () -> {
+                try {
+                    return handle.invokeExact();
+                } catch (Throwable e) {
+                    throw rethrow(e);
+                }
+            };
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("No default constructor found in class " + type.getSimpleName(), e);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to create constructor for " + type, e);
+        }
+    }
+
+    private static Method findAccessor(Field field, String prefix, int parameterCount) {
+        Class<?> declaringClass = field.getDeclaringClass();
+        if (!Modifier.isPublic(declaringClass.getModifiers())) {
+            return null;
+        }
+        String name = prefix + Character.toUpperCase(field.getName().charAt(0)) + field.getName().substring(1);
+        for (Method method : declaringClass.getDeclaredMethods()) {
+            if (method.getName().equals(name)
+                    && method.getParameterCount() == parameterCount
+                    && Modifier.isPublic(method.getModifiers())
+                    && !Modifier.isStatic(method.getModifiers())) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private static Class<?> wrap(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        if (type == int.class) {
+            return Integer.class;
+        }
+        if (type == long.class) {
+            return Long.class;
+        }
+        if (type == boolean.class) {
+            return Boolean.class;
+        }
+        if (type == double.class) {
+            return Double.class;
+        }
+        if (type == float.class) {
+            return Float.class;
+        }
+        if (type == short.class) {
+            return Short.class;
+        }
+        if (type == byte.class) {
+            return Byte.class;
+        }
+        return Character.class;
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new IllegalStateException(e);
+    }
+}
@@ -0,0 +1,120 @@
+package com.anm.core;
+
+// AsyncRepository.java
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 异步 Repository
+ * 方法在 RepositoryExecutor 上执行，返回 CompletableFuture，异常原样作为失败原因
+ * 任务在其他线程上借用连接，不参与调用方当前的事务
+ * @param <T>
+ */
+public class AsyncRepository<T> {
+    private final BaseRepository<T> repository;
+
+    public AsyncRepository(BaseRepository<T> repository) {
+        this.repository = repository;
+    }
+
+    public CompletableFuture<T> insert(T entity) {
+        return supply(() -> repository.insert(entity));
+    }
+
+    public CompletableFuture<Integer> insertBatch(Collection<T> entities) {
+        return supply(() -> repository.insertBatch(entities));
+    }
+
+    public CompletableFuture<Void> deleteById(Long id) {
+        return supply(() -> {
+            repository.deleteById(id);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Integer> deleteByIds(Collection<Long> ids) {
+        return supply(() -> repository.deleteByIds(ids));
+    }
+
+    public CompletableFuture<Void> update(T entity) {
+        return supply(() -> {
+            repository.update(entity);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Integer> updateBatch(Collection<T> entities) {
+        return supply(() -> repository.updateBatch(entities));
+    }
+
+    public CompletableFuture<Optional<T>> selectById(Long id) {
+        return supply(() -> repository.selectById(id));
+    }
+
+    public CompletableFuture<List<T>> selectByIds(Collection<?> ids) {
+        return supply(() -> repository.selectByIds(ids));
+    }
+
+    public CompletableFuture<Optional<T>> selectOne(QueryWrapper<T> wrapper) {
+        return supply(() -> repository.selectOne(wrapper));
+    }
+
+    public CompletableFuture<List<T>> selectList(QueryWrapper<T> wrapper) {
+        return supply(() -> repository.selectList(wrapper));
+    }
+
+    public <R> CompletableFuture<List<R>> selectList(QueryWrapper<T> wrapper, Class<R> type) {
+        return supply(() -> repository.selectList(wrapper, type));
+    }
+
+    public CompletableFuture<Page<T>> selectPage(int current, int size, QueryWrapper<T> wrapper) {
+        return supply(() -> repository.selectPage(current, size, wrapper));
+    }
+
+    public CompletableFuture<Page<T>> selectPage(int current, int size, QueryWrapper<T> wrapper, CountStrategy strategy) {
+        return supply(() -> repository.selectPage(current, size, wrapper, strategy));
+    }
+
+    public CompletableFuture<KeysetPage<T>> selectKeysetPage(QueryWrapper<T> wrapper, int size, String cursor) {
+        return supply(() -> repository.selectKeysetPage(wrapper, size, cursor));
+    }
+
+    public CompletableFuture<Boolean> exists(QueryWrapper<T> wrapper) {
+        return supply(() -> repository.exists(wrapper));
+    }
+
+    /**
+     * 在 RepositoryExecutor 上执行任意查询
+     */
+    public static <V> CompletableFuture<V> supply(Callable<V> task) {
+        return RepositoryExecutor.submit(task);
+    }
+
+    /**
+     * 并行执行互不依赖的查询，结果顺序与 tasks 一致；任一失败时返回的 future 失败
+     */
+    public static <V> CompletableFuture<List<V>> parallel(List<? extends Callable<V>> tasks) {
+        List<CompletableFuture<V>> futures = new ArrayList<>(tasks.size());
+        for (Callable<V> task : tasks) {
+            futures.add(supply(task));
+        }
+        return all(futures);
+    }
+
+    /**
+     * 等待全部完成，结果顺序与 futures 一致
+     */
+    public static <V> CompletableFuture<List<V>> all(Collection<CompletableFuture<V>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            List<V> results = new ArrayList<>(futures.size());
+            for (CompletableFuture<V> future : futures) {
+                results.add(future.join());
+            }
+            return results;
+        });
+    }
+}
@@ -1,136 +1,779 @@
 package com.anm.core;
 
 // BaseRepository.java
-import java.lang.reflect.Field;
+import javax.sql.DataSource;
 import java.math.BigInteger;
 import java.sql.*;
 import java.util.*;
-import java.util.logging.Logger;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * 核心支持
  * @param <T>
  */
 public abstract class BaseRepository<T> {
-    private static final Logger LOGGER = Logger.getLogger(BaseRepository.class.getName());
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int DEFAULT_DELETE_CHUNK_SIZE = 500;
+    private static final int DEFAULT_IN_CHUNK_SIZE = 500;
+    private static final int BULK_LOAD_SHARD_CHUNK = 100000;
+    private static final ConcurrentMap<Class<?>, BaseRepository<?>> REPOSITORIES = new ConcurrentHashMap<>();
     private final Class<T> clazz;
+    private final EntityMetadata metadata;
+    private final SqlTemplateCache templates;
+    private final EntityCache cache;
 
     @SuppressWarnings("unchecked")
     protected BaseRepository() {
         this.clazz = (Class<T>) ((java.lang.reflect.ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0];
+        this.metadata = EntityMetadata.of(clazz);
+        this.templates = SqlTemplateCache.of(metadata);
+        this.cache = EntityCache.of(clazz);
     }
 
+    protected BaseRepository(Class<T> clazz) {
+        this.clazz = clazz;
+        this.metadata = EntityMetadata.of(clazz);
+        this.templates = SqlTemplateCache.of(metadata);
+        this.cache = EntityCache.of(clazz);
+    }
+
+    /**
+     * 分片表按分片键路由到单个分片，实体必须指定主键，按指定的主键插入
+     */
     public T insert(T entity) throws SQLException, IllegalAccessException {
-        String tableName = clazz.getAnnotation(Table.class).value();
-        StringBuilder sql = new StringBuilder("INSERT INTO " + tableName + " (");
-        StringBuilder values = new StringBuilder("VALUES (");
-        List<Object> params = new ArrayList<>();
-        Field idField = null;
-
-        for (Field field : clazz.getDeclaredFields()) {
-            field.setAccessible(true);
-            if (field.getAnnotation(Id.class) == null) {
-                String columnName = convertToSnakeCase(field.getName());
-                if (field.getType().isAnnotationPresent(Table.class)) {
-                    columnName += "_id";
-                    Field foreignKeyField = getIdField(field.getType());
-                    foreignKeyField.setAccessible(true);
-                    params.add(foreignKeyField.get(field.get(entity)));
-                } else {
-                    params.add(field.get(entity));
+        ShardingRule sharding = ShardingRule.of(clazz);
+        if (sharding != null) {
+            return SessionManager.onDataSource(insertShardOf(sharding, entity), () -> insertLocal(entity));
+        }
+        return insertLocal(entity);
+    }
+
+    private T insertLocal(T entity) throws SQLException {
+        boolean withId = hasAssignedId(entity);
+        String sql = withId ? templates.insertWithId() : templates.insert();
+
+        Connection connection = SessionManager.getConnection();
+        try (SqlMetrics.Timer timer = SqlMetrics.start(sql);
+             PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            setInsertParameters(statement, entity, withId);
+            timer.success(statement.executeUpdate());
+            ResultSet generatedKeys = statement.getGeneratedKeys();
+            if (generatedKeys.next()) {
+                setGeneratedId(entity, generatedKeys.getObject(1));
+            }
+            snapshot(entity);
+        } finally {
+            SessionManager.close();
+            changed();
+        }
+        remember(entity);
+        return entity;
+    }
+
+    public int insertBatch(Collection<T> entities) throws SQLException {
+        return insertBatch(entities, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * 批量插入，每 batchSize 条执行一次 executeBatch，生成的主键按顺序回填
+     * MySQL 需在连接串中开启 rewriteBatchedStatements=true 才会合并为多值 INSERT
+     * @return 插入的行数
+     */
+    public int insertBatch(Collection<T> entities, int batchSize) throws SQLException {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        if (entities.isEmpty()) {
+            return 0;
+        }
+        ShardingRule sharding = ShardingRule.of(clazz);
+        if (sharding != null) {
+            int inserted = 0;
+            for (Map.Entry<DataSource, List<T>> group : groupForInsert(sharding, entities).entrySet()) {
+                inserted += SessionManager.onDataSource(group.getKey(), () -> insertBatchLocal(group.getValue(), batchSize));
+            }
+            return inserted;
+        }
+        return insertBatchLocal(entities, batchSize);
+    }
+
+    private int insertBatchLocal(Collection<T> entities, int batchSize) throws SQLException {
+        boolean withId = hasAssignedId(entities.iterator().next());
+        String sql = withId ? templates.insertWithId() : templates.insert();
+
+        int inserted = 0;
+        Connection connection = SessionManager.getConnection();
+        try (SqlMetrics.Timer timer = SqlMetrics.start(sql);
+             PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            List<T> pending = new ArrayList<>(Math.min(batchSize, entities.size()));
+            for (T entity : entities) {
+                if (hasAssignedId(entity) != withId) {
+                    throw new RuntimeException("Either all or none of the entities in a batch must have an id");
                 }
-                sql.append(columnName).append(", ");
-                values.append("?, ");
-            } else {
-                idField = field;
+                setInsertParameters(statement, entity, withId);
+                statement.addBatch();
+                pending.add(entity);
+                if (pending.size() == batchSize) {
+                    inserted += executeInsertBatch(statement, pending);
+                }
+            }
+            if (!pending.isEmpty()) {
+                inserted += executeInsertBatch(statement, pending);
             }
+            timer.success(inserted);
+            for (T entity : entities) {
+                snapshot(entity);
+            }
+        } finally {
+            SessionManager.close();
+            changed();
         }
+        rememberAll(entities);
+        return inserted;
+    }
 
-        sql.delete(sql.length() - 2, sql.length()).append(") ");
-        values.delete(values.length() - 2, values.length()).append(")");
-        sql.append(values);
+    private int executeInsertBatch(PreparedStatement statement, List<T> pending) throws SQLException {
+        int[] counts = statement.executeBatch();
+        try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+            for (T entity : pending) {
+                if (!generatedKeys.next()) {
+                    break;
+                }
+                setGeneratedId(entity, generatedKeys.getObject(1));
+            }
+        }
+        pending.clear();
+        return affectedRows(counts);
+    }
+
+    /**
+     * 插入或更新，一条语句完成，没有先查询再写入的竞争：与已有的行冲突时只更新 updateProperties 列出的属性
+     * 冲突按 MySQL 表上的任一唯一键判断，其他数据库按 @Table 的 uniqueKey（默认主键）判断；插入或更新的行的主键回填到实体
+     * 按主键判断冲突而实体没有主键时直接插入
+     */
+    public T upsert(T entity, String... updateProperties) throws SQLException {
+        BitSet updates = updateColumns(updateProperties);
+        List<T> entities = Collections.singletonList(entity);
+        ShardingRule sharding = ShardingRule.of(clazz);
+        if (sharding != null) {
+            SessionManager.onDataSource(insertShardOf(sharding, entity), () -> upsertLocal(entities, updates, 1));
+        } else {
+            upsertLocal(entities, updates, 1);
+        }
+        return entity;
+    }
 
-        LOGGER.info("Executing SQL: " + sql.toString());
+    public int upsertBatch(Collection<T> entities, String... updateProperties) throws SQLException {
+        return upsertBatch(entities, DEFAULT_BATCH_SIZE, updateProperties);
+    }
 
-        try (Connection connection = SessionManager.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS)) {
-            for (int i = 0; i < params.size(); i++) {
-                statement.setObject(i + 1, params.get(i));
+    /**
+     * 批量插入或更新，每 batchSize 条执行一次 executeBatch，冲突的判断同 upsert
+     * MySQL 开启 rewriteBatchedStatements=true 时驱动按第一行的主键递推其余行的主键，回填的主键不可靠
+     * @return 驱动返回的影响行数，MySQL 更新的行计为 2
+     */
+    public int upsertBatch(Collection<T> entities, int batchSize, String... updateProperties) throws SQLException {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        if (entities.isEmpty()) {
+            return 0;
+        }
+        BitSet updates = updateColumns(updateProperties);
+        ShardingRule sharding = ShardingRule.of(clazz);
+        if (sharding != null) {
+            int affected = 0;
+            for (Map.Entry<DataSource, List<T>> group : groupForInsert(sharding, entities).entrySet()) {
+                affected += SessionManager.onDataSource(group.getKey(), () -> upsertLocal(group.getValue(), updates, batchSize));
             }
-            statement.executeUpdate();
-            ResultSet generatedKeys = statement.getGeneratedKeys();
-            if (generatedKeys.next() && idField != null) {
-                idField.setAccessible(true);
-                Object generatedKey = generatedKeys.getObject(1);
-                if (generatedKey instanceof BigInteger) {
-                    idField.set(entity, ((BigInteger) generatedKey).longValue());
-                } else if (generatedKey instanceof Number) {
-                    idField.set(entity, ((Number) generatedKey).longValue());
-                } else {
-                    idField.set(entity, generatedKey);
+            return affected;
+        }
+        return upsertLocal(entities, updates, batchSize);
+    }
+
+    /**
+     * 大批量导入，按列映射（包括关联的外键列）逐行编码后交给数据库；不回填主键，不记录快照，导入后清空二级缓存
+     * MySQL 用 LOAD DATA LOCAL INFILE，见 Dialect.MYSQL；其他数据库退回多值 INSERT
+     * 两者处理主键或唯一键冲突的方式不同：LOAD DATA 跳过冲突的行，多值 INSERT 整条语句失败；需要覆盖已有行时用 upsertBatch
+     * 实体在导入过程中才从 entities 读取，可传入按需生成实体的 Iterable；分片表每 10 万条按分片分组导入一次
+     * @return 导入的行数
+     */
+    public long bulkLoad(Iterable<T> entities) throws SQLException {
+        ShardingRule sharding = ShardingRule.of(clazz);
+        if (sharding == null) {
+            return bulkLoadLocal(entities.iterator());
+        }
+        long loaded = 0;
+        Iterator<T> iterator = entities.iterator();
+        List<T> chunk = new ArrayList<>();
+        while (iterator.hasNext()) {
+            chunk.clear();
+            while (iterator.hasNext() && chunk.size() < BULK_LOAD_SHARD_CHUNK) {
+                chunk.add(iterator.next());
+            }
+            for (Map.Entry<DataSource, List<T>> group : groupForInsert(sharding, chunk).entrySet()) {
+                loaded += SessionManager.onDataSource(group.getKey(), () -> bulkLoadLocal(group.getValue().iterator()));
+            }
+        }
+        return loaded;
+    }
+
+    private long bulkLoadLocal(Iterator<T> entities) throws SQLException {
+        PropertyMetadata idProperty = metadata.getIdProperty();
+        List<PropertyMetadata> properties = metadata.getColumnProperties();
+        List<String> columns = new ArrayList<>(properties.size() + 1);
+        columns.add(idProperty.getColumnName());
+        for (PropertyMetadata property : properties) {
+            columns.add(property.getColumnName());
+        }
+        Iterator<Object[]> rows = new Iterator<Object[]>() {
+            @Override
+            public boolean hasNext() {
+                return entities.hasNext();
+            }
+
+            @Override
+            public Object[] next() {
+                T entity = entities.next();
+                Object[] row = new Object[columns.size()];
+                row[0] = idProperty.get(entity);
+                for (int i = 0; i < properties.size(); i++) {
+                    row[i + 1] = properties.get(i).getColumnValue(entity);
                 }
+                return row;
             }
+        };
+        Connection connection = SessionManager.getConnection();
+        try {
+            return SessionManager.getDialect(connection).bulkLoad(connection, metadata.getTableName(), columns, rows);
         } finally {
             SessionManager.close();
+            if (cache != null) {
+                cache.clear();
+                SessionManager.afterCompletion(cache::clear);
+            }
+            changed();
         }
-        return entity;
     }
 
+    private BitSet updateColumns(String[] updateProperties) {
+        List<PropertyMetadata> properties = metadata.getColumnProperties();
+        BitSet updates = new BitSet(properties.size());
+        for (String name : updateProperties) {
+            PropertyMetadata property = metadata.getProperty(name);
+            if (property == null) {
+                throw new RuntimeException("No such field: " + name);
+            }
+            int index = properties.indexOf(property);
+            if (index < 0) {
+                throw new RuntimeException("Cannot update the id column: " + name);
+            }
+            updates.set(index);
+        }
+        return updates;
+    }
+
+    private int upsertLocal(Collection<T> entities, BitSet updates, int batchSize) throws SQLException {
+        boolean keyedById = metadata.getUniqueKey().contains(metadata.getIdProperty());
+        List<T> inserts = new ArrayList<>();
+        List<T> withId = new ArrayList<>();
+        List<T> withoutId = new ArrayList<>();
+        for (T entity : entities) {
+            if (metadata.getIdProperty().get(entity) != null) {
+                withId.add(entity);
+            } else if (keyedById) {
+                inserts.add(entity);
+            } else {
+                withoutId.add(entity);
+            }
+        }
+        int affected = inserts.isEmpty() ? 0 : insertBatchLocal(inserts, batchSize);
+        affected += executeUpsert(withId, true, updates, batchSize);
+        affected += executeUpsert(withoutId, false, updates, batchSize);
+        return affected;
+    }
+
+    private int executeUpsert(List<T> entities, boolean withId, BitSet updates, int batchSize) throws SQLException {
+        if (entities.isEmpty()) {
+            return 0;
+        }
+        int affected = 0;
+        Connection connection = SessionManager.getConnection();
+        try {
+            String sql = templates.upsert(SessionManager.getDialect(connection), withId, updates);
+            try (SqlMetrics.Timer timer = SqlMetrics.start(sql);
+                 PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                List<T> pending = new ArrayList<>(Math.min(batchSize, entities.size()));
+                for (T entity : entities) {
+                    setInsertParameters(statement, entity, withId);
+                    statement.addBatch();
+                    pending.add(entity);
+                    if (pending.size() == batchSize) {
+                        affected += executeInsertBatch(statement, pending);
+                    }
+                }
+                if (!pending.isEmpty()) {
+                    affected += executeInsertBatch(statement, pending);
+                }
+                timer.success(affected);
+            }
+        } finally {
+            SessionManager.close();
+            // 更新的行中没有列出的列保留数据库中的值，与实体不一定相同，之后的 update 写入全部列
+            for (T entity : entities) {
+                Snapshots.remove(entity);
+                evict(metadata.getIdProperty().get(entity));
+            }
+            changed();
+        }
+        return affected;
+    }
+
+    private void setInsertParameters(PreparedStatement statement, T entity, boolean withId) throws SQLException {
+        int index = 1;
+        if (withId) {
+            statement.setObject(index++, metadata.getIdProperty().get(entity));
+        }
+        for (PropertyMetadata property : metadata.getColumnProperties()) {
+            statement.setObject(index++, property.getColumnValue(entity));
+        }
+    }
+
+    private void setGeneratedId(T entity, Object generatedKey) {
+        PropertyMetadata idProperty = metadata.getIdProperty();
+        if (generatedKey instanceof BigInteger) {
+            idProperty.set(entity, ((BigInteger) generatedKey).longValue());
+        } else if (generatedKey instanceof Number) {
+            idProperty.set(entity, ((Number) generatedKey).longValue());
+        } else {
+            idProperty.set(entity, generatedKey);
+        }
+    }
+
+    /**
+     * 写操作后移出缓存；事务中的写在事务结束时再移出一次，避免其他线程在提交前读入旧值
+     */
+    private void evict(Object id) {
+        if (id == null) {
+            return;
+        }
+        Map<Object, Object> identities = SessionManager.identityMap(clazz);
+        if (identities != null) {
+            identities.remove(id);
+        }
+        if (cache != null) {
+            cache.invalidate(id);
+            SessionManager.afterCompletion(() -> cache.invalidate(id));
+        }
+    }
+
+    /**
+     * 表被写入后使 QueryCache 中涉及该表的条目失效；事务中的写在事务结束时再失效一次
+     */
+    private void changed() {
+        String table = metadata.getTableName();
+        QueryCache.invalidate(table);
+        SessionManager.afterCompletion(() -> QueryCache.invalidate(table));
+    }
+
+    /**
+     * 写入的实体成为当前事务中该主键对应的实例
+     */
+    private void remember(T entity) {
+        Object id = metadata.getIdProperty().get(entity);
+        evict(id);
+        Map<Object, Object> identities = SessionManager.identityMap(clazz);
+        if (identities != null && id != null) {
+            identities.put(id, entity);
+        }
+    }
+
+    private void rememberAll(Collection<T> entities) {
+        for (T entity : entities) {
+            remember(entity);
+        }
+    }
+
+    private static int affectedRows(int[] counts) {
+        int total = 0;
+        for (int count : counts) {
+            // 驱动合并批量语句时可能返回 SUCCESS_NO_INFO
+            total += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+        }
+        return total;
+    }
+
+    /**
+     * 分片表按主键分片时路由到单个分片，否则在每个分片上执行
+     */
     public void deleteById(Long id) throws SQLException {
-        String tableName = clazz.getAnnotation(Table.class).value();
-        String idColumn = getIdColumn();
-        String sql = "DELETE FROM " + tableName + " WHERE " + idColumn + " = ?";
+        ShardingRule sharding = ShardingRule.of(clazz);
+        if (sharding != null) {
+            for (DataSource shard : groupIdsByShard(sharding, Collections.singletonList(id)).keySet()) {
+                SessionManager.onDataSource(shard, () -> {
+                    deleteByIdLocal(id);
+                    return null;
+                });
+            }
+            return;
+        }
+        deleteByIdLocal(id);
+    }
 
-        LOGGER.info("Executing SQL: " + sql);
+    private void deleteByIdLocal(Long id) throws SQLException {
+        String sql = templates.deleteById();
 
-        try (Connection connection = SessionManager.getConnection();
+        Connection connection = SessionManager.getConnection();
+        try (SqlMetrics.Timer timer = SqlMetrics.start(sql);
              PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setLong(1, id);
-            statement.executeUpdate();
+            timer.success(statement.executeUpdate());
+        } finally {
+            SessionManager.close();
+            evict(id);
+            changed();
+        }
+    }
+
+    public int deleteByIds(Collection<Long> ids) throws SQLException {
+        return deleteByIds(ids, DEFAULT_DELETE_CHUNK_SIZE);
+    }
+
+    /**
+     * 按主键批量删除，每 chunkSize 个主键发送一条 DELETE ... IN (...)，全部在同一连接上执行
+     * @return 删除的行数
+     */
+    public int deleteByIds(Collection<Long> ids, int chunkSize) throws SQLException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        ShardingRule sharding = ShardingRule.of(clazz);
+        if (sharding != null) {
+            int deleted = 0;
+            for (Map.Entry<DataSource, List<Long>> group : groupIdsByShard(sharding, ids).entrySet()) {
+                deleted += SessionManager.onDataSource(group.getKey(), () -> deleteByIdsLocal(group.getValue(), chunkSize));
+            }
+            return deleted;
+        }
+        return deleteByIdsLocal(ids, chunkSize);
+    }
+
+    private int deleteByIdsLocal(Collection<Long> ids, int chunkSize) throws SQLException {
+        int deleted = 0;
+        Connection connection = SessionManager.getConnection();
+        try {
+            List<Long> chunk = new ArrayList<>(Math.min(chunkSize, ids.size()));
+            for (Long id : ids) {
+                chunk.add(id);
+                if (chunk.size() == chunkSize) {
+                    deleted += executeDeleteChunk(connection, chunk);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                deleted += executeDeleteChunk(connection, chunk);
+            }
         } finally {
             SessionManager.close();
+            for (Long id : ids) {
+                evict(id);
+            }
+            changed();
         }
+        return deleted;
     }
 
+    private int executeDeleteChunk(Connection connection, List<Long> chunk) throws SQLException {
+        // 末尾不足一块时补齐占位符，重复的主键不影响结果，SQL 文本的种类保持很少
+        String sql = templates.deleteByIds(chunk.size());
+        int placeholders = SqlTemplate.padPlaceholders(chunk.size());
+
+        try (SqlMetrics.Timer timer = SqlMetrics.start(sql);
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < placeholders; i++) {
+                statement.setObject(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+            }
+            int deleted = statement.executeUpdate();
+            timer.success(deleted);
+            chunk.clear();
+            return deleted;
+        }
+    }
+
+    /**
+     * 在同一事务中从 Repository 加载的实体只更新修改过的列，没有修改时不执行语句；其他实体更新全部列
+     * 分片表按分片键路由，分片键的值不能修改
+     */
     public void update(T entity) throws SQLException, IllegalAccessException {
-        String tableName = clazz.getAnnotation(Table.class).value();
-        StringBuilder sql = new StringBuilder("UPDATE " + tableName + " SET ");
-        List<Object> params = new ArrayList<>();
-        Object idValue = null;
-
-        for (Field field : clazz.getDeclaredFields()) {
-            field.setAccessible(true);
-            if (field.getAnnotation(Id.class) == null) {
-                sql.append(field.getName()).append(" = ?, ");
-                params.add(field.get(entity));
-            } else {
-                idValue = field.get(entity);
+        ShardingRule sharding = ShardingRule.of(clazz);
+        if (sharding != null) {
+            SessionManager.onDataSource(shardOf(sharding, entity), () -> {
+                updateLocal(entity);
+                return null;
+            });
+            return;
+        }
+        updateLocal(entity);
+    }
+
+    private void updateLocal(T entity) throws SQLException {
+        BitSet dirty = dirtyColumns(entity);
+        if (dirty.isEmpty()) {
+            return;
+        }
+        String sql = templates.update(dirty);
+
+        Connection connection = SessionManager.getConnection();
+        try (SqlMetrics.Timer timer = SqlMetrics.start(sql);
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            setUpdateParameters(statement, entity, dirty);
+            timer.success(statement.executeUpdate());
+            snapshot(entity);
+        } finally {
+            SessionManager.close();
+            remember(entity);
+            changed();
+        }
+    }
+
+    public int updateBatch(Collection<T> entities) throws SQLException {
+        return updateBatch(entities, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * 批量按主键更新，按修改的列分组，每组每 batchSize 条执行一次 executeBatch，全部在同一连接上执行
+     * 没有修改的实体跳过
+     * @return 更新的行数
+     */
+    public int updateBatch(Collection<T> entities, int batchSize) throws SQLException {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        ShardingRule sharding = ShardingRule.of(clazz);
+        if (sharding != null) {
+            int updated = 0;
+            for (Map.Entry<DataSource, List<T>> group : groupByShard(sharding, entities).entrySet()) {
+                updated += SessionManager.onDataSource(group.getKey(), () -> updateBatchLocal(group.getValue(), batchSize));
             }
+            return updated;
         }
+        return updateBatchLocal(entities, batchSize);
+    }
 
-        sql.delete(sql.length() - 2, sql.length());
-        sql.append(" WHERE ").append(getIdColumn()).append(" = ?");
-        params.add(idValue);
+    private int updateBatchLocal(Collection<T> entities, int batchSize) throws SQLException {
+        Map<BitSet, List<T>> groups = new LinkedHashMap<>();
+        for (T entity : entities) {
+            BitSet dirty = dirtyColumns(entity);
+            if (!dirty.isEmpty()) {
+                groups.computeIfAbsent(dirty, k -> new ArrayList<>()).add(entity);
+            }
+        }
+        if (groups.isEmpty()) {
+            return 0;
+        }
 
-        LOGGER.info("Executing SQL: " + sql.toString());
+        int updated = 0;
+        Connection connection = SessionManager.getConnection();
+        try {
+            for (Map.Entry<BitSet, List<T>> group : groups.entrySet()) {
+                String sql = templates.update(group.getKey());
 
-        try (Connection connection = SessionManager.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql.toString())) {
-            for (int i = 0; params != null && i < params.size(); i++) {
-                statement.setObject(i + 1, params.get(i));
+                try (SqlMetrics.Timer timer = SqlMetrics.start(sql);
+                     PreparedStatement statement = connection.prepareStatement(sql)) {
+                    int before = updated;
+                    int pending = 0;
+                    for (T entity : group.getValue()) {
+                        setUpdateParameters(statement, entity, group.getKey());
+                        statement.addBatch();
+                        if (++pending == batchSize) {
+                            updated += affectedRows(statement.executeBatch());
+                            pending = 0;
+                        }
+                    }
+                    if (pending > 0) {
+                        updated += affectedRows(statement.executeBatch());
+                    }
+                    timer.success(updated - before);
+                }
+            }
+            for (List<T> group : groups.values()) {
+                for (T entity : group) {
+                    snapshot(entity);
+                }
             }
-            statement.executeUpdate();
         } finally {
             SessionManager.close();
+            rememberAll(entities);
+            changed();
+        }
+        return updated;
+    }
+
+    private DataSource shardOf(ShardingRule sharding, T entity) {
+        return sharding.shardOf(metadata.getPathValue(entity, sharding.getProperty()));
+    }
+
+    /**
+     * 插入分片表的实体所在的分片；各分片的自增主键互相重复，主键必须由调用方指定
+     */
+    private DataSource insertShardOf(ShardingRule sharding, T entity) {
+        if (metadata.getIdProperty().get(entity) == null) {
+            throw new RuntimeException("Entities inserted into sharded table " + metadata.getTableName() + " must have an id");
+        }
+        return shardOf(sharding, entity);
+    }
+
+    private Map<DataSource, List<T>> groupForInsert(ShardingRule sharding, Collection<T> entities) {
+        Map<DataSource, List<T>> groups = new LinkedHashMap<>();
+        for (T entity : entities) {
+            groups.computeIfAbsent(insertShardOf(sharding, entity), k -> new ArrayList<>()).add(entity);
         }
+        return groups;
     }
 
+    private Map<DataSource, List<T>> groupByShard(ShardingRule sharding, Collection<T> entities) {
+        Map<DataSource, List<T>> groups = new LinkedHashMap<>();
+        for (T entity : entities) {
+            groups.computeIfAbsent(shardOf(sharding, entity), k -> new ArrayList<>()).add(entity);
+        }
+        return groups;
+    }
+
+    /**
+     * 按主键分片时每个分片只分到自己的主键，否则每个分片都是全部主键
+     */
+    private Map<DataSource, List<Long>> groupIdsByShard(ShardingRule sharding, Collection<Long> ids) {
+        Map<DataSource, List<Long>> groups = new LinkedHashMap<>();
+        if (sharding.getProperty().equals(metadata.getIdProperty().getName())) {
+            for (Long id : ids) {
+                groups.computeIfAbsent(sharding.shardOf(id), k -> new ArrayList<>()).add(id);
+            }
+        } else {
+            for (DataSource shard : sharding.getShards()) {
+                groups.put(shard, new ArrayList<>(ids));
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * 分片表的主键由调用方指定（见 ShardingRule），按指定的主键插入
+     */
+    private boolean hasAssignedId(T entity) {
+        return ShardingRule.of(clazz) != null && metadata.getIdProperty().get(entity) != null;
+    }
+
+    /**
+     * 与快照相比修改过的列；没有快照（事务外，或实体不是在当前事务中加载的）时为全部列
+     */
+    private BitSet dirtyColumns(T entity) {
+        BitSet dirty = Snapshots.dirty(metadata, entity);
+        if (dirty == null) {
+            dirty = new BitSet();
+            dirty.set(0, metadata.getColumnProperties().size());
+        }
+        return dirty;
+    }
+
+    /**
+     * 写入成功后记录快照；快照在事务的会话中，回滚时一起丢弃
+     */
+    private void snapshot(T entity) {
+        Snapshots.take(metadata, entity);
+    }
+
+    private void setUpdateParameters(PreparedStatement statement, T entity, BitSet dirty) throws SQLException {
+        List<PropertyMetadata> properties = metadata.getColumnProperties();
+        int index = 1;
+        for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+            statement.setObject(index++, properties.get(i).getColumnValue(entity));
+        }
+        statement.setObject(index, metadata.getIdProperty().get(entity));
+    }
+
+    /**
+     * 事务中同一主键多次查询返回同一个实例，不再访问数据库
+     */
+    @SuppressWarnings("unchecked")
     public Optional<T> selectById(Long id) throws SQLException, InstantiationException, IllegalAccessException {
-        QueryWrapper<T> wrapper = new QueryWrapper<>();
-        wrapper.eq("id", id);
-        List<T> result = selectList(wrapper);
+        Map<Object, Object> identities = SessionManager.identityMap(clazz);
+        if (identities != null) {
+            Object known = identities.get(id);
+            if (known != null) {
+                return Optional.of((T) known);
+            }
+        }
+        T entity = null;
+        if (cache != null) {
+            entity = (T) cache.get(id);
+        }
+        if (entity == null) {
+            long version = cache != null ? cache.version() : 0;
+            QueryWrapper<T> wrapper = new QueryWrapper<>();
+            wrapper.eq(metadata.getIdProperty().getName(), id);
+            List<T> result = selectList(wrapper);
+            if (result.isEmpty()) {
+                return Optional.empty();
+            }
+            entity = result.get(0);
+            // 事务中读到的可能是未提交的数据，不放入缓存
+            if (cache != null && identities == null) {
+                cache.put(entity, version);
+            }
+        }
+        if (identities != null) {
+            identities.put(id, entity);
+        }
+        return Optional.of(entity);
+    }
 
-        return result.isEmpty() ? Optional.empty() : Optional.of(result.get(0));
+    /**
+     * 按主键批量查询，分块用 IN 查询；先查事务中已加载的实例和二级缓存，结果顺序不保证
+     * 主键的类型与实体的主键属性一致，不限于 Long
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> selectByIds(Collection<?> ids) throws SQLException {
+        Map<Object, Object> identities = SessionManager.identityMap(clazz);
+        List<T> result = new ArrayList<>(ids.size());
+        List<Object> missing = new ArrayList<>();
+        for (Object id : new LinkedHashSet<>(ids)) {
+            T entity = identities != null ? (T) identities.get(id) : null;
+            if (entity == null && cache != null) {
+                entity = (T) cache.get(id);
+                if (entity != null && identities != null) {
+                    identities.put(id, entity);
+                }
+            }
+            if (entity != null) {
+                result.add(entity);
+            } else {
+                missing.add(id);
+            }
+        }
+        PropertyMetadata idProperty = metadata.getIdProperty();
+        long version = cache != null ? cache.version() : 0;
+        for (int from = 0; from < missing.size(); from += DEFAULT_IN_CHUNK_SIZE) {
+            List<Object> chunk = missing.subList(from, Math.min(from + DEFAULT_IN_CHUNK_SIZE, missing.size()));
+            for (T entity : executeRange(new QueryWrapper<T>().in(idProperty.getName(), chunk), 0, -1)) {
+                if (identities != null) {
+                    identities.put(idProperty.get(entity), entity);
+                } else if (cache != null) {
+                    cache.put(entity, version);
+                }
+                result.add(entity);
+            }
+        }
+        return result;
     }
 
     public Optional<T> selectOne(QueryWrapper<T> wrapper) throws SQLException, InstantiationException, IllegalAccessException {
@@ -142,300 +785,623 @@ public abstract class BaseRepository<T> {
     }
 
     public List<T> selectList(QueryWrapper<T> wrapper) throws SQLException, InstantiationException, IllegalAccessException {
-        return executeQuery(wrapper, -1, -1);
+        return executeRange(wrapper, 0, -1);
+    }
+
+    /**
+     * 投影到 DTO，只查询 DTO 用到的列；wrapper 未调用 select() 时按 DTO 的字段名推断，
+     * 关联属性的字段名为 关系名 + 属性名，如 roleName 对应 role.name
+     */
+    public <R> List<R> selectList(QueryWrapper<T> wrapper, Class<R> type) throws SQLException {
+        Projection<R> projection = Projection.of(metadata, type, wrapper.getSelection());
+        QueryWrapper<T> query = wrapper.getSelection().isEmpty() ? wrapper.withSelection(projection.getPaths()) : wrapper;
+        List<T> entities = executeRange(query, 0, -1);
+        List<R> result = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            result.add(projection.map(entity));
+        }
+        return result;
     }
 
     public Page<T> selectPage(int current, int size, QueryWrapper<T> wrapper) throws SQLException, InstantiationException, IllegalAccessException {
-        List<T> records = executeQuery(wrapper, current, size);
+        return selectPage(current, size, wrapper, CountStrategy.EXACT);
+    }
+
+    public Page<T> selectPage(int current, int size, QueryWrapper<T> wrapper, CountStrategy strategy) throws SQLException, InstantiationException, IllegalAccessException {
+        switch (strategy) {
+            case NONE: {
+                current = Math.max(current, 1);
+                // 多取一条判断是否有下一页
+                List<T> records = executeRange(wrapper, (long) (current - 1) * size, size + 1);
+                boolean hasNext = records.size() > size;
+                if (hasNext) {
+                    records.remove(size);
+                }
+                return new Page<>(records, -1, current, size, hasNext);
+            }
+            case CONCURRENT:
+                if (!SessionManager.isTransactionActive()) {
+                    // 工作线程按调用线程的路由选择主库、副本或分片
+                    Future<Long> total = RepositoryExecutor.submit(SessionManager.inheritRouting(() -> count(wrapper)));
+                    List<T> records;
+                    try {
+                        records = executePage(wrapper, current, size);
+                    } catch (SQLException | RuntimeException e) {
+                        total.cancel(true);
+                        throw e;
+                    }
+                    return new Page<>(records, await(total), current, size);
+                }
+                break;
+            case CACHED: {
+                List<T> records = executePage(wrapper, current, size);
+                List<Object> params = SqlTemplate.bind(wrapper);
+                Long total = CountCache.get(clazz, wrapper.getShape(), params);
+                if (total == null) {
+                    total = count(wrapper);
+                    CountCache.put(clazz, wrapper.getShape(), params, total);
+                }
+                return new Page<>(records, total, current, size);
+            }
+            case ESTIMATED: {
+                List<T> records = executePage(wrapper, current, size);
+                long total = estimateCount(wrapper);
+                return new Page<>(records, total >= 0 ? total : count(wrapper), current, size);
+            }
+            default:
+                break;
+        }
+        List<T> records = executePage(wrapper, current, size);
         long total = count(wrapper);
 
         return new Page<>(records, total, current, size);
     }
 
-    private long count(QueryWrapper<T> wrapper) throws SQLException {
-        String tableName = clazz.getAnnotation(Table.class).value();
-        String alias = "t0";
-        StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM " + tableName + " " + alias + " ");
-
-        Map<String, String> joinAliases = new HashMap<>();
-        final int[] aliasIndex = {1}; // 使用数组来解决 lambda 表达式引用的问题
-
-        for (String condition : wrapper.getConditions().keySet()) {
-            if (condition.contains(".")) {
-                String[] parts = condition.split("\\.");
-                String joinProperty = parts[0];
-                String joinField = parts[1];
-
-                Field joinFieldObj = Arrays.stream(clazz.getDeclaredFields())
-                        .filter(f -> f.getName().equals(joinProperty) && f.getType().isAnnotationPresent(Table.class))
-                        .findFirst()
-                        .orElseThrow(() -> new RuntimeException("No such field: " + joinProperty));
-
-                String joinTable = joinFieldObj.getType().getAnnotation(Table.class).value();
-                String joinAlias = joinAliases.computeIfAbsent(joinProperty, k -> "t" + aliasIndex[0]++);
-                String joinColumn = convertToSnakeCase(joinProperty) + "_id";
-
-                sql.append("LEFT JOIN ").append(joinTable).append(" ").append(joinAlias)
-                        .append(" ON ").append(alias).append(".").append(joinColumn)
-                        .append(" = ").append(joinAlias).append(".id ");
-            }
-        }
-
-        sql.append("WHERE ");
-        List<Object> params = new ArrayList<>();
-        wrapper.getConditions().forEach((condition, value) -> {
-            String columnName;
-            if (condition.contains(".")) {
-                String[] parts = condition.split("\\.");
-                String joinAlias = joinAliases.get(parts[0]);
-                String joinField = parts[1];
-                columnName = joinAlias + "." + convertToSnakeCase(joinField);
-            } else {
-                columnName = alias + "." + convertToSnakeCase(condition);
+    private static <V> V await(Future<V> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for query", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
             }
-            sql.append(columnName).append(" = ? AND ");
-            params.add(value);
-        });
-        sql.delete(sql.length() - 5, sql.length());
-
-        LOGGER.info("Executing SQL: " + sql.toString());
-
-        try (Connection connection = SessionManager.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql.toString())) {
-            for (int i = 0; i < params.size(); i++) {
-                statement.setObject(i + 1, params.get(i));
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
-            ResultSet resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                return resultSet.getLong(1);
+            throw new SQLException(cause);
+        }
+    }
+
+    /**
+     * 分片表为各分片估算之和，任一分片无法估算时返回 -1
+     */
+    private long estimateCount(QueryWrapper<T> wrapper) throws SQLException {
+        ShardingRule sharding = ShardingRule.of(clazz);
+        if (sharding != null) {
+            long total = 0;
+            for (long rows : onShards(sharding.route(wrapper), () -> estimateCountLocal(wrapper))) {
+                if (rows < 0) {
+                    return -1;
+                }
+                total += rows;
             }
-            return 0;
+            return total;
         }
+        return estimateCountLocal(wrapper);
     }
 
-    public boolean exists(QueryWrapper<T> wrapper) throws SQLException {
-        String tableName = clazz.getAnnotation(Table.class).value();
-        StringBuilder sql = new StringBuilder("SELECT 1 FROM " + tableName + " ");
-        List<Object> params = new ArrayList<>();
-        buildJoins(wrapper, sql);
-        buildConditions(wrapper, sql, params);
-        sql.append(" LIMIT 1");
+    private long estimateCountLocal(QueryWrapper<T> wrapper) throws SQLException {
+        String sql = templates.estimate(wrapper).getSql();
+        Connection connection = SessionManager.getReadConnection();
+        try {
+            return SessionManager.getDialect(connection).estimateRows(connection, sql, SqlTemplate.bind(wrapper));
+        } finally {
+            SessionManager.close(connection);
+        }
+    }
 
-        LOGGER.info("Executing SQL: " + sql.toString());
+    /**
+     * 游标分页，按 wrapper 的 orderBy 加主键排序，用上一页返回的游标定位，不扫描之前的记录
+     * 排序列不应为 NULL
+     * @param cursor 上一页的 KeysetPage.getNextCursor()，第一页传 null
+     */
+    @SuppressWarnings("unchecked")
+    public KeysetPage<T> selectKeysetPage(QueryWrapper<T> wrapper, int size, String cursor) throws SQLException {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+        SqlTemplate template = templates.keyset(wrapper, cursor != null);
+        List<Order> orders = template.getKeysetOrders();
+        List<Object> params = SqlTemplate.bind(wrapper);
+        if (cursor != null) {
+            SqlBuilder.bindKeyset(orders, KeysetCursor.decode(cursor, orders.size()), params);
+        }
+        // 多取一条用于判断是否还有下一页
+        params.add(size + 1);
 
-        try (Connection connection = SessionManager.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql.toString())) {
-            for (int i = 0; params != null && i < params.size(); i++) {
-                statement.setObject(i + 1, params.get(i));
+        RowMapper<T> mapper = (RowMapper<T>) template.getMapper();
+        ShardingRule sharding = ShardingRule.of(clazz);
+        List<T> records = sharding == null ? query(template.getSql(), params, mapper)
+                : merge(onShards(sharding.route(wrapper), () -> query(template.getSql(), params, mapper)), orders, size + 1);
+        String nextCursor = null;
+        if (records.size() > size) {
+            records.remove(size);
+            T last = records.get(size - 1);
+            List<Object> values = new ArrayList<>(orders.size());
+            for (Order order : orders) {
+                values.add(metadata.getPathValue(last, order.getProperty()));
             }
-            ResultSet resultSet = statement.executeQuery();
-            return resultSet.next();
-        } finally {
-            SessionManager.close();
+            nextCursor = KeysetCursor.encode(values);
         }
+        loadManyToOneRelations(records, wrapper.getFetches(), mapper);
+        return new KeysetPage<>(records, size, nextCursor);
     }
 
-    private List<T> executeQuery(QueryWrapper<T> wrapper, int current, int size) throws SQLException, InstantiationException, IllegalAccessException {
-        String tableName = clazz.getAnnotation(Table.class).value();
-        String alias = "t0";
-        StringBuilder sql = new StringBuilder("SELECT " + alias + ".*, ");
+    private long count(QueryWrapper<T> wrapper) throws SQLException {
+        if (!useCache(wrapper)) {
+            return countAll(wrapper);
+        }
+        QueryCache.Key key = QueryCache.key(clazz, templates.count(wrapper).getSql(), SqlTemplate.bind(wrapper), tablesOf(wrapper));
+        Long total = (Long) QueryCache.get(key);
+        if (total == null) {
+            total = countAll(wrapper);
+            QueryCache.put(key, total, 16);
+        }
+        return total;
+    }
 
-        Map<String, String> joinAliases = new HashMap<>();
-        final int[] aliasIndex = {1}; // 使用数组来解决 lambda 表达式引用的问题
+    private long countAll(QueryWrapper<T> wrapper) throws SQLException {
+        ShardingRule sharding = ShardingRule.of(clazz);
+        if (sharding != null) {
+            long total = 0;
+            for (long count : onShards(sharding.route(wrapper), () -> countLocal(wrapper))) {
+                total += count;
+            }
+            return total;
+        }
+        return countLocal(wrapper);
+    }
 
-        for (String condition : wrapper.getConditions().keySet()) {
-            if (condition.contains(".")) {
-                String[] parts = condition.split("\\.");
-                String joinProperty = parts[0];
-                String joinField = parts[1];
+    private long countLocal(QueryWrapper<T> wrapper) throws SQLException {
+        String sql = templates.count(wrapper).getSql();
+        List<Object> params = SqlTemplate.bind(wrapper);
 
-                Field joinFieldObj = Arrays.stream(clazz.getDeclaredFields())
-                        .filter(f -> f.getName().equals(joinProperty) && f.getType().isAnnotationPresent(Table.class))
-                        .findFirst()
-                        .orElseThrow(() -> new RuntimeException("No such field: " + joinProperty));
+        Connection connection = SessionManager.getReadConnection();
+        try (SqlMetrics.Timer timer = SqlMetrics.start(sql);
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            setParameters(statement, params);
+            ResultSet resultSet = statement.executeQuery();
+            long count = resultSet.next() ? resultSet.getLong(1) : 0;
+            timer.success(1);
+            return count;
+        } finally {
+            SessionManager.close(connection);
+        }
+    }
 
-                String joinTable = joinFieldObj.getType().getAnnotation(Table.class).value();
-                String joinAlias = joinAliases.computeIfAbsent(joinProperty, k -> "t" + aliasIndex[0]++);
-                String joinColumn = convertToSnakeCase(joinProperty) + "_id";
+    public boolean exists(QueryWrapper<T> wrapper) throws SQLException {
+        ShardingRule sharding = ShardingRule.of(clazz);
+        if (sharding != null) {
+            return onShards(sharding.route(wrapper), () -> existsLocal(wrapper)).contains(Boolean.TRUE);
+        }
+        return existsLocal(wrapper);
+    }
 
-                sql.append(joinAlias).append(".*, ");
-                sql.append("LEFT JOIN ").append(joinTable).append(" ").append(joinAlias)
-                        .append(" ON ").append(alias).append(".").append(joinColumn)
-                        .append(" = ").append(joinAlias).append(".id ");
-            }
+    private boolean existsLocal(QueryWrapper<T> wrapper) throws SQLException {
+        String sql = templates.exists(wrapper).getSql();
+        List<Object> params = SqlTemplate.bind(wrapper);
+
+        Connection connection = SessionManager.getReadConnection();
+        try (SqlMetrics.Timer timer = SqlMetrics.start(sql);
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            setParameters(statement, params);
+            ResultSet resultSet = statement.executeQuery();
+            boolean found = resultSet.next();
+            timer.success(found ? 1 : 0);
+            return found;
+        } finally {
+            SessionManager.close(connection);
         }
+    }
 
-        sql.setLength(sql.length() - 2); // 移除最后一个逗号和空格
-        sql.append(" FROM ").append(tableName).append(" ").append(alias).append(" WHERE ");
+    /**
+     * 流式查询，按方言的默认 fetchSize 逐批读取，内存占用与结果行数无关
+     * 返回的 Stream 必须关闭（try-with-resources），读完时也会自动释放连接
+     * 事务外使用独立的连接（配置了副本时取自副本），处理每一行时可以继续调用其他 Repository 方法；
+     * 事务内复用事务连接，MySQL 在游标读完前不能在同一连接上执行其他语句
+     * 读出的实体不记录快照，事务中 update 它们时写入全部列
+     * 分片表依次读取各分片，不保证跨分片的排序
+     */
+    public Stream<T> selectStream(QueryWrapper<T> wrapper) throws SQLException {
+        return selectStream(wrapper, 0);
+    }
 
-        List<Object> params = new ArrayList<>();
-        wrapper.getConditions().forEach((condition, value) -> {
-            String columnName;
-            if (condition.contains(".")) {
-                String[] parts = condition.split("\\.");
-                String joinAlias = joinAliases.get(parts[0]);
-                String joinField = parts[1];
-                columnName = joinAlias + "." + convertToSnakeCase(joinField);
-            } else {
-                columnName = alias + "." + convertToSnakeCase(condition);
+    /**
+     * @param fetchSize 每次从数据库读取的行数，0 表示使用方言的默认值
+     */
+    public Stream<T> selectStream(QueryWrapper<T> wrapper, int fetchSize) throws SQLException {
+        ShardingRule sharding = ShardingRule.of(clazz);
+        if (sharding == null) {
+            return selectStreamLocal(wrapper, fetchSize);
+        }
+        if (SessionManager.isTransactionActive()) {
+            throw new IllegalStateException("Sharded tables do not support transactions");
+        }
+        // 读到某个分片时才借用它的连接
+        return sharding.route(wrapper).stream().flatMap(shard -> {
+            try {
+                return SessionManager.onDataSource(shard, () -> selectStreamLocal(wrapper, fetchSize));
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
             }
-            sql.append(columnName).append(" = ? AND ");
-            params.add(value);
         });
-        sql.delete(sql.length() - 5, sql.length());
+    }
 
-        if (!wrapper.getOrderBy().isEmpty()) {
-            sql.append(" ORDER BY ").append(String.join(", ", wrapper.getOrderBy()));
-        }
+    @SuppressWarnings("unchecked")
+    private Stream<T> selectStreamLocal(QueryWrapper<T> wrapper, int fetchSize) throws SQLException {
+        SqlTemplate template = templates.select(wrapper, false);
+        RowMapper<T> mapper = (RowMapper<T>) template.getMapper();
+        String sql = template.getSql();
 
-        if (current > 0 && size > 0) {
-            int offset = (current - 1) * size;
-            sql.append(" LIMIT ").append(size).append(" OFFSET ").append(offset);
+        boolean sessionBound = SessionManager.isTransactionActive();
+        Connection connection = sessionBound ? SessionManager.getConnection() : SessionManager.openReadConnection();
+        PreparedStatement statement = null;
+        try {
+            statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize != 0 ? fetchSize : SessionManager.getDialect(connection).streamingFetchSize());
+            setParameters(statement, SqlTemplate.bind(wrapper));
+            ResultSet resultSet;
+            // 只统计到拿到结果集，逐行读取的耗时由调用方决定
+            try (SqlMetrics.Timer timer = SqlMetrics.start(sql)) {
+                resultSet = statement.executeQuery();
+                timer.success(-1);
+            }
+            ResultSetCursor<T> cursor = new ResultSetCursor<>(connection, sessionBound, statement, resultSet, mapper);
+            return StreamSupport.stream(cursor, false).onClose(cursor::close);
+        } catch (SQLException | RuntimeException e) {
+            if (statement != null) {
+                statement.close();
+            }
+            if (sessionBound) {
+                SessionManager.close();
+            } else {
+                connection.close();
+            }
+            throw e;
         }
+    }
 
-        LOGGER.info("Executing SQL: " + sql.toString());
-
-        try (Connection connection = SessionManager.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql.toString())) {
-            for (int i = 0; i < params.size(); i++) {
-                statement.setObject(i + 1, params.get(i));
+    /**
+     * 逐行回调，回调返回后即可回收该行
+     */
+    public void forEach(QueryWrapper<T> wrapper, Consumer<? super T> action) throws SQLException {
+        try (Stream<T> stream = selectStream(wrapper)) {
+            stream.forEach(action);
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
             }
-            ResultSet resultSet = statement.executeQuery();
-            return mapResultSetToList(resultSet, alias, joinAliases);
+            throw e;
         }
     }
 
-    private void buildConditions(QueryWrapper<T> wrapper, StringBuilder sql, List<Object> params) {
-        wrapper.getConditions().forEach((key, value) -> {
-            sql.append(key).append(" = ? AND ");
-            params.add(value);
-        });
-        sql.delete(sql.length() - 5, sql.length());
-        if (!wrapper.getOrderBy().isEmpty()) {
-            sql.append(" ORDER BY ").append(String.join(", ", wrapper.getOrderBy()));
+    /**
+     * 按页码查询，current 从 1 开始；current 或 size 不为正数时不分页
+     */
+    private List<T> executePage(QueryWrapper<T> wrapper, int current, int size) throws SQLException {
+        if (current > 0 && size > 0) {
+            return executeRange(wrapper, (long) (current - 1) * size, size);
+        }
+        return executeRange(wrapper, 0, -1);
+    }
+
+    /**
+     * 按偏移量查询
+     * @param limit 小于 0 表示不分页
+     */
+    @SuppressWarnings("unchecked")
+    private List<T> executeRange(QueryWrapper<T> wrapper, long offset, int limit) throws SQLException {
+        if (!useCache(wrapper)) {
+            return loadRecords(wrapper, offset, limit);
         }
+        boolean paged = limit >= 0;
+        List<Object> params = SqlTemplate.bind(wrapper);
+        if (paged) {
+            params.add(limit);
+            params.add(offset);
+        }
+        QueryCache.Key key = QueryCache.key(clazz, templates.select(wrapper, paged).getSql(), params, tablesOf(wrapper));
+        List<T> cached = (List<T>) QueryCache.get(key);
+        if (cached != null) {
+            return copyAll(cached);
+        }
+        List<T> records = loadRecords(wrapper, offset, limit);
+        List<T> copies = copyAll(records);
+        QueryCache.put(key, copies, QueryCache.sizeOf(metadata, copies));
+        return records;
     }
 
-    private void buildJoins(QueryWrapper<T> wrapper, StringBuilder sql) {
-        wrapper.getJoins().forEach(join -> sql.append(join).append(" "));
+    /**
+     * 事务中可能读到未提交的数据，不读也不写 QueryCache
+     */
+    private static boolean useCache(QueryWrapper<?> wrapper) {
+        return wrapper.isCached() && !SessionManager.isTransactionActive();
     }
 
-    private String getIdColumn() {
-        for (Field field : clazz.getDeclaredFields()) {
-            if (field.getAnnotation(Id.class) != null) {
-                return field.getName();
+    /**
+     * 查询涉及的表：实体的表和条件、排序、查询列、fetch 中经过的关联表
+     */
+    private Set<String> tablesOf(QueryWrapper<T> wrapper) {
+        List<String> paths = new ArrayList<>(wrapper.getSelection());
+        for (Condition condition : wrapper.getConditionList()) {
+            paths.add(condition.getProperty());
+        }
+        for (Order order : wrapper.getOrderByList()) {
+            paths.add(order.getProperty());
+        }
+        paths.addAll(wrapper.getFetches());
+        Set<String> tables = new TreeSet<>();
+        tables.add(metadata.getTableName());
+        for (String path : paths) {
+            EntityMetadata owner = metadata;
+            for (String name : path.split("\\.")) {
+                PropertyMetadata property = owner.getProperty(name);
+                if (property == null || !property.isRelation()) {
+                    break;
+                }
+                owner = property.getRelationMetadata();
+                tables.add(owner.getTableName());
             }
         }
-        throw new RuntimeException("No @Id field found in class " + clazz.getSimpleName());
+        return tables;
     }
 
-    private Field getIdField(Class<?> clazz) {
-        for (Field field : clazz.getDeclaredFields()) {
-            if (field.isAnnotationPresent(Id.class)) {
-                return field;
-            }
+    /**
+     * 缓存中存取的都是副本；事务中不使用缓存，副本不需要快照
+     */
+    @SuppressWarnings("unchecked")
+    private List<T> copyAll(List<T> entities) {
+        List<T> copies = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            copies.add((T) metadata.copy(entity));
         }
-        throw new RuntimeException("No @Id field found in class " + clazz.getSimpleName());
+        return copies;
     }
 
-    private String convertToSnakeCase(String camelCase) {
-        StringBuilder result = new StringBuilder();
-        result.append(Character.toLowerCase(camelCase.charAt(0)));
-        for (int i = 1; i < camelCase.length(); i++) {
-            char c = camelCase.charAt(i);
-            if (Character.isUpperCase(c)) {
-                result.append('_').append(Character.toLowerCase(c));
-            } else {
-                result.append(c);
+    @SuppressWarnings("unchecked")
+    private List<T> loadRecords(QueryWrapper<T> wrapper, long offset, int limit) throws SQLException {
+        boolean paged = limit >= 0;
+        ShardingRule sharding = ShardingRule.of(clazz);
+        QueryWrapper<T> query = sharding != null ? withOrderColumns(wrapper) : wrapper;
+        SqlTemplate template = templates.select(query, paged);
+        RowMapper<T> mapper = (RowMapper<T>) template.getMapper();
+        String sql = template.getSql();
+
+        List<Object> params = SqlTemplate.bind(query);
+        List<DataSource> shards = sharding != null ? sharding.route(query) : null;
+        List<T> records;
+        if (shards == null || shards.size() == 1) {
+            if (paged) {
+                params.add(limit);
+                params.add(offset);
+            }
+            records = shards == null ? query(sql, params, mapper)
+                    : SessionManager.onDataSource(shards.get(0), () -> query(sql, params, mapper));
+        } else {
+            // 每个分片取前 offset + limit 条，归并后再跳过 offset 条
+            long end = offset + limit;
+            if (paged) {
+                params.add((int) Math.min(end, Integer.MAX_VALUE));
+                params.add(0L);
+            }
+            records = merge(onShards(shards, () -> query(sql, params, mapper)), query.getOrderByList(), paged ? end : -1);
+            if (paged) {
+                records = new ArrayList<>(records.subList((int) Math.min(offset, records.size()), records.size()));
             }
         }
-        return result.toString();
+        loadManyToOneRelations(records, wrapper.getFetches(), mapper);
+        return records;
     }
 
-    private List<T> mapResultSetToList(ResultSet resultSet, String alias, Map<String, String> joinAliases) throws SQLException, InstantiationException, IllegalAccessException {
-        List<T> list = new ArrayList<>();
-        while (resultSet.next()) {
-            list.add(mapResultSetToEntity(resultSet, alias, joinAliases));
+    /**
+     * 在 shards 上并行执行 task，结果顺序与 shards 一致；分片表不支持事务
+     */
+    private static <V> List<V> onShards(List<DataSource> shards, Callable<V> task) throws SQLException {
+        if (SessionManager.isTransactionActive()) {
+            throw new IllegalStateException("Sharded tables do not support transactions");
+        }
+        if (shards.size() == 1) {
+            return Collections.singletonList(SessionManager.onDataSource(shards.get(0), task));
         }
-        return list;
+        List<CompletableFuture<V>> futures = new ArrayList<>(shards.size());
+        for (DataSource shard : shards) {
+            futures.add(RepositoryExecutor.submit(() -> SessionManager.onDataSource(shard, task)));
+        }
+        List<V> results = new ArrayList<>(shards.size());
+        try {
+            for (CompletableFuture<V> future : futures) {
+                results.add(await(future));
+            }
+        } catch (SQLException | RuntimeException e) {
+            for (CompletableFuture<V> future : futures) {
+                future.cancel(false);
+            }
+            throw e;
+        }
+        return results;
     }
-    private T mapResultSetToEntity(ResultSet resultSet, String alias, Map<String, String> joinAliases) throws SQLException, InstantiationException, IllegalAccessException {
-        T entity = clazz.newInstance();
-        for (Field field : clazz.getDeclaredFields()) {
-            field.setAccessible(true);
-            String columnName = convertToSnakeCase(field.getName());
-            if (field.getType().isAnnotationPresent(Table.class)) {
-                // 处理多对一关系
-                String joinAlias = joinAliases.get(field.getName());
-                if (joinAlias != null) {
-                    Object foreignEntity = field.getType().newInstance();
-                    mapResultSetToForeignEntity(resultSet, foreignEntity, joinAlias);
-                    field.set(entity, foreignEntity);
+
+    /**
+     * 按 orders 归并各分片已排好序的结果，最多取 max 条（小于 0 表示不限）；没有排序时按分片顺序拼接
+     */
+    private List<T> merge(List<List<T>> lists, List<Order> orders, long max) {
+        List<T> merged = new ArrayList<>();
+        if (orders.isEmpty()) {
+            for (List<T> list : lists) {
+                for (T entity : list) {
+                    if (max >= 0 && merged.size() >= max) {
+                        return merged;
+                    }
+                    merged.add(entity);
                 }
-            } else {
-                field.set(entity, convertValue(resultSet.getObject(alias + "." + columnName), field.getType()));
             }
+            return merged;
         }
-        return entity;
+        Comparator<T> comparator = comparator(orders);
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, lists.size()),
+                (a, b) -> comparator.compare(lists.get(a[0]).get(a[1]), lists.get(b[0]).get(b[1])));
+        for (int i = 0; i < lists.size(); i++) {
+            if (!lists.get(i).isEmpty()) {
+                heads.add(new int[]{i, 0});
+            }
+        }
+        while (!heads.isEmpty() && (max < 0 || merged.size() < max)) {
+            int[] head = heads.poll();
+            List<T> list = lists.get(head[0]);
+            merged.add(list.get(head[1]));
+            if (++head[1] < list.size()) {
+                heads.add(head);
+            }
+        }
+        return merged;
     }
 
+    /**
+     * 与 ORDER BY 一致的比较：NULL 最小（同 MySQL），字符串按 compareTo，不考虑数据库的排序规则
+     */
+    private Comparator<T> comparator(List<Order> orders) {
+        Comparator<T> comparator = null;
+        for (Order order : orders) {
+            String path = order.getProperty();
+            Comparator<T> next = (a, b) -> compareValues(metadata.getPathValue(a, path), metadata.getPathValue(b, path));
+            if (!order.isAscending()) {
+                next = next.reversed();
+            }
+            comparator = comparator == null ? next : comparator.thenComparing(next);
+        }
+        return comparator;
+    }
 
-    private void mapResultSetToForeignEntity(ResultSet resultSet, Object foreignEntity, String joinAlias) throws SQLException, IllegalAccessException {
-        Class<?> foreignClass = foreignEntity.getClass();
-        for (Field field : foreignClass.getDeclaredFields()) {
-            field.setAccessible(true);
-            String columnName = joinAlias + "." + convertToSnakeCase(field.getName());
-            field.set(foreignEntity, convertValue(resultSet.getObject(columnName), field.getType()));
+    @SuppressWarnings("unchecked")
+    private static int compareValues(Object a, Object b) {
+        if (a == b) {
+            return 0;
+        }
+        if (a == null) {
+            return -1;
         }
+        if (b == null) {
+            return 1;
+        }
+        return ((Comparable<Object>) a).compareTo(b);
     }
 
-    private Object convertValue(Object value, Class<?> targetType) {
-        if (value == null) {
-            return null;
+    /**
+     * 归并时按排序列比较，只查询部分列时补上排序列
+     */
+    private QueryWrapper<T> withOrderColumns(QueryWrapper<T> wrapper) {
+        List<String> selection = wrapper.getSelection();
+        if (selection.isEmpty()) {
+            return wrapper;
         }
-        if (targetType.isAssignableFrom(value.getClass())) {
-            return value;
+        List<String> columns = new ArrayList<>(selection);
+        for (Order order : wrapper.getOrderByList()) {
+            if (!columns.contains(order.getProperty())) {
+                columns.add(order.getProperty());
+            }
         }
-        if (targetType == Long.class || targetType == long.class) {
-            return ((Number) value).longValue();
+        return columns.size() == selection.size() ? wrapper : wrapper.withSelection(columns);
+    }
+
+    private List<T> query(String sql, List<Object> params, RowMapper<T> mapper) throws SQLException {
+        Connection connection = SessionManager.getReadConnection();
+        try (SqlMetrics.Timer timer = SqlMetrics.start(sql);
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            setParameters(statement, params);
+            ResultSet resultSet = statement.executeQuery();
+            List<T> records = mapper.mapAll(resultSet);
+            timer.success(records.size());
+            return records;
+        } finally {
+            SessionManager.close(connection);
         }
-        if (targetType == Integer.class || targetType == int.class) {
-            return ((Number) value).intValue();
+    }
+
+    private void setParameters(PreparedStatement statement, List<Object> params) throws SQLException {
+        for (int i = 0; i < params.size(); i++) {
+            statement.setObject(i + 1, params.get(i));
         }
-        // Add other type conversions as needed
-        throw new IllegalArgumentException("Cannot convert value of type " + value.getClass() + " to " + targetType);
     }
 
-    private void loadManyToOneRelations(T entity) throws SQLException, IllegalAccessException, InstantiationException {
-        for (Field field : clazz.getDeclaredFields()) {
-            if (field.getType().isAnnotationPresent(Table.class)) {
-                field.setAccessible(true);
-                Object foreignEntity = field.get(entity);
-                if (foreignEntity != null) {
-                    Field foreignKeyField = getIdField(foreignEntity.getClass());
-                    foreignKeyField.setAccessible(true);
-                    Long foreignKeyId = (Long) foreignKeyField.get(foreignEntity);
-                    BaseRepository<?> foreignRepository = getRepositoryInstance(foreignEntity.getClass());
-                    Optional<?> loadedForeignEntity = foreignRepository.selectById(foreignKeyId);
-                    loadedForeignEntity.ifPresent(foreign -> {
-                        try {
-                            field.set(entity, foreign);
-                        } catch (IllegalAccessException e) {
-                            throw new RuntimeException(e);
-                        }
-                    });
+    /**
+     * 批量加载多对一关系：每个关系收集不重复的外键，分块用 IN 查询后回填，外键指向的记录不存在时置为 null
+     */
+    private void loadManyToOneRelations(List<T> entities, List<String> relations, RowMapper<T> mapper) throws SQLException {
+        if (entities.isEmpty()) {
+            return;
+        }
+        for (String name : relations) {
+            if (mapper.isJoined(name)) {
+                continue;
+            }
+            PropertyMetadata relation = metadata.getRelation(name);
+            EntityMetadata foreignMetadata = relation.getRelationMetadata();
+            PropertyMetadata foreignId = foreignMetadata.getIdProperty();
+            Set<Object> foreignKeyIds = new LinkedHashSet<>();
+            for (T entity : entities) {
+                Object foreignKeyId = relation.getColumnValue(entity);
+                if (foreignKeyId != null) {
+                    foreignKeyIds.add(foreignKeyId);
+                }
+            }
+            if (foreignKeyIds.isEmpty()) {
+                continue;
+            }
+            Map<Object, Object> loaded = new HashMap<>();
+            for (Object foreignEntity : getRepositoryInstance(foreignMetadata.getEntityClass()).selectByIds(foreignKeyIds)) {
+                loaded.put(foreignId.get(foreignEntity), foreignEntity);
+            }
+            for (T entity : entities) {
+                Object foreignKeyId = relation.getColumnValue(entity);
+                if (foreignKeyId != null) {
+                    relation.set(entity, loaded.get(foreignKeyId));
                 }
             }
         }
     }
 
-    private BaseRepository<?> getRepositoryInstance(Class<?> clazz) {
+    /**
+     * 实体类的 Repository：优先使用同一包中名为“实体类名 + Repository”的子类，如 RoleRepository；没有时使用通用的实例
+     */
+    @SuppressWarnings("unchecked")
+    static BaseRepository<?> getRepositoryInstance(Class<?> clazz) {
+        BaseRepository<?> repository = REPOSITORIES.get(clazz);
+        if (repository != null) {
+            return repository;
+        }
+        String repositoryClassName = clazz.getPackage().getName() + "." + clazz.getSimpleName() + "Repository";
+        Class<?> repositoryClass;
         try {
-            String repositoryClassName = clazz.getPackage().getName() + "." + clazz.getSimpleName() + "Repository";
-            return (BaseRepository<?>) Class.forName(repositoryClassName).newInstance();
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to create repository instance for " + clazz.getSimpleName(), e);
+            repositoryClass = Class.forName(repositoryClassName, true, clazz.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            repositoryClass = null;
+        }
+        if (repositoryClass != null && BaseRepository.class.isAssignableFrom(repositoryClass)) {
+            try {
+                repository = (BaseRepository<?>) repositoryClass.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException("Failed to create repository instance for " + clazz.getSimpleName(), e);
+            }
+        } else {
+            repository = new BaseRepository<Object>((Class<Object>) clazz) {
+            };
         }
+        BaseRepository<?> existing = REPOSITORIES.putIfAbsent(clazz, repository);
+        return existing != null ? existing : repository;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,23 @@
+package com.anm.core;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 按主键缓存实体，适用于读多写少的小表
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Cacheable {
+    /**
+     * 最多缓存的实体个数，超出时淘汰最久未使用的
+     */
+    int maxSize() default 1000;
+
+    /**
+     * 过期时间，秒
+     */
+    long timeToLive() default 300;
+}
@@ -0,0 +1,46 @@
+package com.anm.core;
+
+// Condition.java
+import java.util.Collection;
+
+/**
+ * 查询条件
+ * property 为实体属性名，关联实体的属性用 role.id 的形式，多级关联如 dept.company.name
+ */
+public final class Condition {
+    private final String property;
+    private final ConditionType type;
+    private final Object value;
+
+    Condition(String property, ConditionType type, Object value) {
+        this.property = property;
+        this.type = type;
+        this.value = value;
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    public ConditionType getType() {
+        return type;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    boolean isNullCheck() {
+        return type == ConditionType.EQ && value == null;
+    }
+
+    /**
+     * IN 列表的占位符个数；补齐到 2 的幂，使不同长度的列表共用少量 SQL 形状
+     */
+    int getPlaceholderCount() {
+        if (type != ConditionType.IN) {
+            return isNullCheck() ? 0 : 1;
+        }
+        return SqlTemplate.padPlaceholders(((Collection<?>) value).size());
+    }
+}
@@ -0,0 +1,456 @@
+package com.anm.core;
+
+// ConnectionPool.java
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 连接池
+ * 有界大小，借出时校验，空闲超时回收，池满时等待超时
+ */
+public class ConnectionPool implements DataSource {
+    private static final Logger LOGGER = Logger.getLogger(ConnectionPool.class.getName());
+
+    private final String url;
+    private final String user;
+    private final String password;
+
+    private volatile int maxSize = 10;
+    private volatile long idleTimeoutMillis = TimeUnit.MINUTES.toMillis(10);
+    private volatile long borrowTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+    // 空闲超过该时长的连接在借出前做一次 isValid 校验
+    private volatile long validationIntervalMillis = 500;
+    private volatile int validationTimeoutSeconds = 3;
+    private volatile int statementCacheSize = 64;
+    private final StatementCache.Counters statementCounters = new StatementCache.Counters();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private int total;
+    private boolean closed;
+    private ScheduledExecutorService evictor;
+
+    public ConnectionPool(String url, String user, String password) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+    }
+
+    public ConnectionPool maxSize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    public ConnectionPool idleTimeout(long millis) {
+        this.idleTimeoutMillis = millis;
+        return this;
+    }
+
+    public ConnectionPool borrowTimeout(long millis) {
+        this.borrowTimeoutMillis = millis;
+        return this;
+    }
+
+    public ConnectionPool validationInterval(long millis) {
+        this.validationIntervalMillis = millis;
+        return this;
+    }
+
+    public ConnectionPool validationTimeout(int seconds) {
+        this.validationTimeoutSeconds = seconds;
+        return this;
+    }
+
+    /**
+     * 每个连接缓存的 PreparedStatement 个数，0 表示不缓存；只影响之后新建的连接
+     */
+    public ConnectionPool statementCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("statementCacheSize must not be negative: " + size);
+        }
+        this.statementCacheSize = size;
+        return this;
+    }
+
+    public long getStatementCacheHits() {
+        return statementCounters.hits.get();
+    }
+
+    public long getStatementCacheMisses() {
+        return statementCounters.misses.get();
+    }
+
+    public long getStatementCacheEvictions() {
+        return statementCounters.evictions.get();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getTotalConnections() {
+        lock.lock();
+        try {
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getIdleConnections() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+        while (true) {
+            PooledConnection pooled = acquire(deadline);
+            if (pooled == null) {
+                // 已占用一个名额，在锁外建立物理连接
+                try {
+                    pooled = new PooledConnection(DriverManager.getConnection(url, user, password));
+                } catch (SQLException | RuntimeException e) {
+                    releaseSlot();
+                    throw e;
+                }
+                LOGGER.fine("Connection established: " + pooled.physical);
+                SqlMetrics.recordPoolWait(System.nanoTime() - start);
+                return pooled.lease();
+            }
+            if (validate(pooled)) {
+                SqlMetrics.recordPoolWait(System.nanoTime() - start);
+                return pooled.lease();
+            }
+            discard(pooled);
+        }
+    }
+
+    private PooledConnection acquire(long deadline) throws SQLException {
+        lock.lock();
+        try {
+            startEvictor();
+            while (true) {
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+                PooledConnection pooled = idle.pollFirst();
+                if (pooled != null) {
+                    return pooled;
+                }
+                if (total < maxSize) {
+                    total++;
+                    return null;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new SQLTimeoutException("Timed out after " + borrowTimeoutMillis
+                            + "ms waiting for a connection, pool size " + maxSize);
+                }
+                try {
+                    available.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a connection", e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean validate(PooledConnection pooled) {
+        if (System.currentTimeMillis() - pooled.lastUsed < validationIntervalMillis) {
+            return true;
+        }
+        try {
+            return pooled.physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        try {
+            if (pooled.physical.isClosed()) {
+                discard(pooled);
+                return;
+            }
+            // 归还前恢复默认状态，避免把未结束的事务带给下一个使用者
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to reset connection, discarding it", e);
+            discard(pooled);
+            return;
+        }
+        lock.lock();
+        try {
+            if (!closed) {
+                pooled.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(pooled);
+                available.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        discard(pooled);
+    }
+
+    private void discard(PooledConnection pooled) {
+        closeQuietly(pooled.physical);
+        releaseSlot();
+    }
+
+    private void releaseSlot() {
+        lock.lock();
+        try {
+            total--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void startEvictor() {
+        if (evictor != null || idleTimeoutMillis <= 0) {
+            return;
+        }
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "connection-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    void evictIdle() {
+        List<PooledConnection> expired = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            // 队尾是最久未使用的连接
+            Iterator<PooledConnection> iterator = idle.descendingIterator();
+            while (iterator.hasNext()) {
+                PooledConnection pooled = iterator.next();
+                if (now - pooled.lastUsed < idleTimeoutMillis) {
+                    break;
+                }
+                iterator.remove();
+                expired.add(pooled);
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (PooledConnection pooled : expired) {
+            LOGGER.fine("Evicting idle connection: " + pooled.physical);
+            discard(pooled);
+        }
+    }
+
+    public void close() {
+        List<PooledConnection> remaining;
+        lock.lock();
+        try {
+            closed = true;
+            remaining = new ArrayList<>(idle);
+            idle.clear();
+            if (evictor != null) {
+                evictor.shutdownNow();
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (PooledConnection pooled : remaining) {
+            discard(pooled);
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOGGER.log(Level.FINE, "Failed to close connection", e);
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("ConnectionPool uses the credentials it was created with");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return DriverManager.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        DriverManager.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        DriverManager.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return DriverManager.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() {
+        return LOGGER;
+    }
+
+    @Override
+    public <W> W unwrap(Class<W> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("ConnectionPool does not wrap " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * 池中的物理连接，每次借出生成一个新的代理，close() 即归还
+     */
+    private final class PooledConnection {
+        private final Connection physical;
+        private final StatementCache statements;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+            int cacheSize = statementCacheSize;
+            this.statements = cacheSize > 0 ? new StatementCache(physical, cacheSize, statementCounters) : null;
+        }
+
+        private Connection lease() {
+            return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new LeaseHandler(this));
+        }
+    }
+
+    private final class LeaseHandler implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean returned;
+
+        private LeaseHandler(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        if (pooled.statements != null) {
+                            pooled.statements.releaseAll();
+                        }
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + pooled.physical + "]";
+                default:
+                    break;
+            }
+            if (returned) {
+                throw new SQLException("Connection has been returned to the pool");
+            }
+            if (pooled.statements != null && "prepareStatement".equals(method.getName())) {
+                PreparedStatement statement = pooled.statements.prepare((Connection) proxy, method, args);
+                if (statement != null) {
+                    return statement;
+                }
+            }
+            Object result;
+            try {
+                result = method.invoke(pooled.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+            if (result instanceof Statement) {
+                // 不经过语句缓存的语句，getConnection() 也返回代理而不是物理连接
+                return ownedBy((Statement) result, (Connection) proxy, method.getReturnType());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 包装直接取自物理连接的语句，只替换 getConnection()
+     * @param type Statement、PreparedStatement 或 CallableStatement
+     */
+    private static Statement ownedBy(Statement statement, Connection owner, Class<?> type) {
+        return (Statement) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getConnection":
+                            return owner;
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            break;
+                    }
+                    try {
+                        return method.invoke(statement, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                });
+    }
+}
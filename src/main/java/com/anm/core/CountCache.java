@@ -0,0 +1,104 @@
+package com.anm.core;
+
+// CountCache.java
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分页总数缓存
+ * 键为实体、查询形状和参数值，条目在过期后失效
+ */
+public final class CountCache {
+    private static final int MAX_ENTRIES = 10000;
+    private static final ConcurrentMap<Key, CacheEntry> ENTRIES = new ConcurrentHashMap<>();
+    private static volatile long timeToLiveNanos = TimeUnit.SECONDS.toNanos(60);
+
+    private CountCache() {
+    }
+
+    public static void setTimeToLive(long duration, TimeUnit unit) {
+        timeToLiveNanos = unit.toNanos(duration);
+    }
+
+    public static void clear() {
+        ENTRIES.clear();
+    }
+
+    static Long get(Class<?> entityClass, String shape, List<Object> params) {
+        Key key = new Key(entityClass, shape, params);
+        CacheEntry entry = ENTRIES.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt > 0) {
+            ENTRIES.remove(key, entry);
+            return null;
+        }
+        return entry.count;
+    }
+
+    static void put(Class<?> entityClass, String shape, List<Object> params, long count) {
+        if (ENTRIES.size() >= MAX_ENTRIES) {
+            evictExpired();
+            if (ENTRIES.size() >= MAX_ENTRIES) {
+                return;
+            }
+        }
+        ENTRIES.put(new Key(entityClass, shape, params), new CacheEntry(count, System.nanoTime() + timeToLiveNanos));
+    }
+
+    private static void evictExpired() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Key, CacheEntry>> iterator = ENTRIES.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().getValue().expiresAt > 0) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static final class Key {
+        private final Class<?> entityClass;
+        private final String shape;
+        private final List<Object> params;
+        private final int hash;
+
+        private Key(Class<?> entityClass, String shape, List<Object> params) {
+            this.entityClass = entityClass;
+            this.shape = shape;
+            this.params = params;
+            this.hash = 31 * (31 * entityClass.hashCode() + shape.hashCode()) + params.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return entityClass == other.entityClass && shape.equals(other.shape) && params.equals(other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class CacheEntry {
+        private final long count;
+        private final long expiresAt;
+
+        private CacheEntry(long count, long expiresAt) {
+            this.count = count;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
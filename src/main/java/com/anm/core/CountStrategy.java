@@ -0,0 +1,27 @@
+package com.anm.core;
+
+/**
+ * 分页查询的总数策略
+ */
+public enum CountStrategy {
+    /**
+     * 每次执行 COUNT(*)
+     */
+    EXACT,
+    /**
+     * 不统计总数，多取一条判断是否有下一页，Page.getTotal() 返回 -1；页码小于 1 时按第 1 页查询
+     */
+    NONE,
+    /**
+     * 按查询形状和参数缓存 COUNT(*) 的结果，过期时间见 CountCache
+     */
+    CACHED,
+    /**
+     * 用执行计划估算的行数代替 COUNT(*)，仅 MySQL 支持，其他数据库退回 EXACT
+     */
+    ESTIMATED,
+    /**
+     * 在另一个连接上与记录查询并行执行 COUNT(*)，连接按调用线程的主库固定、写后读主库和分片路由选择；事务中退回 EXACT
+     */
+    CONCURRENT
+}
@@ -0,0 +1,272 @@
+package com.anm.core;
+
+// Dialect.java
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 数据库方言
+ */
+public enum Dialect {
+    MYSQL {
+        @Override
+        public int streamingFetchSize() {
+            // Connector/J 只有在 fetchSize 为 Integer.MIN_VALUE 时逐行读取；连接串开启 useCursorFetch=true 时可改用正数
+            return Integer.MIN_VALUE;
+        }
+
+        @Override
+        public long estimateRows(Connection connection, String selectSql, List<Object> params) throws SQLException {
+            String sql = "EXPLAIN " + selectSql;
+            try (SqlMetrics.Timer timer = SqlMetrics.start(sql);
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < params.size(); i++) {
+                    statement.setObject(i + 1, params.get(i));
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    timer.success(-1);
+                    int rowsIndex = resultSet.findColumn("rows");
+                    int filteredIndex = resultSet.findColumn("filtered");
+                    double estimate = 1;
+                    boolean found = false;
+                    // 每张表的 rows * filtered% 相乘即优化器对结果行数的估计
+                    while (resultSet.next()) {
+                        long rows = resultSet.getLong(rowsIndex);
+                        if (resultSet.wasNull()) {
+                            continue;
+                        }
+                        double filtered = resultSet.getDouble(filteredIndex);
+                        estimate *= rows * (resultSet.wasNull() ? 100 : filtered) / 100;
+                        found = true;
+                    }
+                    return found ? Math.round(estimate) : -1;
+                }
+            }
+        }
+
+        /**
+         * 用行别名 new 引用要插入的值（MySQL 8.0.19 起支持），代替 8.0.20 起弃用的 VALUES(col)；MariaDB 不支持行别名
+         */
+        @Override
+        public String upsert(String table, String idColumn, List<String> columns, List<String> keyColumns, List<String> updateColumns) {
+            // LAST_INSERT_ID(id) 让更新的行也通过 getGeneratedKeys 返回主键
+            StringBuilder sql = new StringBuilder(insert(table, columns)).append(" AS new ON DUPLICATE KEY UPDATE ")
+                    .append(idColumn).append(" = LAST_INSERT_ID(").append(idColumn).append(')');
+            for (String column : updateColumns) {
+                sql.append(", ").append(column).append(" = new.").append(column);
+            }
+            return sql.toString();
+        }
+
+        /**
+         * LOAD DATA LOCAL INFILE，数据通过 Connector/J 的 setLocalInfileInputStream 从内存流读取，不写临时文件
+         * 连接串需开启 allowLoadLocalInfile=true；驱动没有该方法时（如 MariaDB 驱动）退回多值 INSERT
+         * 与已有行主键或唯一键冲突的行被跳过（LOCAL 导入的规则，服务端只产生警告），不计入返回的行数；
+         * 多值 INSERT 遇到冲突时语句失败，两者不同
+         * 读取 rows 中途失败时连接的协议状态不确定，中止物理连接，由连接池丢弃
+         */
+        @Override
+        public long bulkLoad(Connection connection, String table, List<String> columns, Iterator<Object[]> rows) throws SQLException {
+            String sql = "LOAD DATA LOCAL INFILE 'stream' INTO TABLE " + table + " CHARACTER SET utf8mb4"
+                    + " FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n' (" + String.join(", ", columns) + ")";
+            try (Statement statement = connection.createStatement()) {
+                Statement target = statement.unwrap(Statement.class);
+                Method setInput = localInfileSetter(target);
+                if (setInput == null) {
+                    return super.bulkLoad(connection, table, columns, rows);
+                }
+                LoadDataStream stream = new LoadDataStream(rows);
+                try (SqlMetrics.Timer timer = SqlMetrics.start(sql)) {
+                    setInput.invoke(target, stream);
+                    long loaded = statement.executeLargeUpdate(sql);
+                    timer.success((int) Math.min(loaded, Integer.MAX_VALUE));
+                    return loaded;
+                } catch (SQLException | RuntimeException e) {
+                    if (!stream.isExhausted()) {
+                        abort(connection);
+                    }
+                    throw e;
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    throw new SQLException("Failed to set the LOAD DATA input stream", e);
+                }
+            }
+        }
+    },
+    H2,
+    POSTGRESQL {
+        @Override
+        public String upsert(String table, String idColumn, List<String> columns, List<String> keyColumns, List<String> updateColumns) {
+            StringBuilder sql = new StringBuilder(insert(table, columns)).append(" ON CONFLICT (")
+                    .append(String.join(", ", keyColumns)).append(") DO UPDATE SET ");
+            List<String> assigned = updateColumns.isEmpty() ? keyColumns.subList(0, 1) : updateColumns;
+            for (int i = 0; i < assigned.size(); i++) {
+                String column = assigned.get(i);
+                sql.append(i == 0 ? "" : ", ").append(column).append(" = EXCLUDED.").append(column);
+            }
+            return sql.toString();
+        }
+    },
+    GENERIC;
+
+    private static final Logger LOGGER = Logger.getLogger(Dialect.class.getName());
+    private static final int DEFAULT_STREAMING_FETCH_SIZE = 1000;
+    private static final int MAX_BULK_ROWS = 1000;
+    // 多值 INSERT 每条语句的参数个数上限，PostgreSQL 的协议限制为 65535
+    private static final int MAX_BULK_PARAMETERS = 30000;
+
+    /**
+     * 流式查询默认的 fetchSize
+     */
+    public int streamingFetchSize() {
+        return DEFAULT_STREAMING_FETCH_SIZE;
+    }
+
+    /**
+     * 用执行计划估算查询的结果行数，不支持时返回 -1
+     */
+    public long estimateRows(Connection connection, String selectSql, List<Object> params) throws SQLException {
+        return -1;
+    }
+
+    /**
+     * 插入一行，与 keyColumns 冲突时只更新 updateColumns；参数依次为 columns 的值，getGeneratedKeys 返回插入或更新的行的主键
+     * 默认使用标准 SQL 的 MERGE
+     * @param keyColumns 判断冲突的列，MySQL 不使用
+     * @param updateColumns 冲突时更新的列，可为空
+     */
+    public String upsert(String table, String idColumn, List<String> columns, List<String> keyColumns, List<String> updateColumns) {
+        StringBuilder sql = new StringBuilder("MERGE INTO ").append(table).append(" USING (VALUES (");
+        for (int i = 0; i < columns.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(")) AS s (").append(String.join(", ", columns)).append(") ON ");
+        for (int i = 0; i < keyColumns.size(); i++) {
+            String column = keyColumns.get(i);
+            sql.append(i == 0 ? "" : " AND ").append(table).append('.').append(column).append(" = s.").append(column);
+        }
+        // 没有要更新的列时仍然更新，否则匹配的行不返回主键
+        List<String> assigned = updateColumns.isEmpty() ? keyColumns.subList(0, 1) : updateColumns;
+        sql.append(" WHEN MATCHED THEN UPDATE SET ");
+        for (int i = 0; i < assigned.size(); i++) {
+            String column = assigned.get(i);
+            sql.append(i == 0 ? "" : ", ").append(column).append(" = s.").append(column);
+        }
+        sql.append(" WHEN NOT MATCHED THEN INSERT (").append(String.join(", ", columns)).append(") VALUES (");
+        for (int i = 0; i < columns.size(); i++) {
+            sql.append(i == 0 ? "s." : ", s.").append(columns.get(i));
+        }
+        return sql.append(')').toString();
+    }
+
+    /**
+     * 大批量导入，rows 的每个元素依次为 columns 的值，第一列为主键，为 null 时由数据库生成
+     * 默认用多值 INSERT，每条语句最多 1000 行；与已有行冲突时语句失败，事务外之前的语句已提交
+     * @return 导入的行数
+     */
+    public long bulkLoad(Connection connection, String table, List<String> columns, Iterator<Object[]> rows) throws SQLException {
+        int rowsPerStatement = Math.max(1, Math.min(MAX_BULK_ROWS, MAX_BULK_PARAMETERS / columns.size()));
+        List<Object[]> pending = new ArrayList<>(rowsPerStatement);
+        boolean withId = false;
+        long loaded = 0;
+        while (rows.hasNext()) {
+            Object[] row = rows.next();
+            boolean hasId = row[0] != null;
+            if (!pending.isEmpty() && (hasId != withId || pending.size() == rowsPerStatement)) {
+                loaded += insertRows(connection, table, columns, pending, withId);
+                pending.clear();
+            }
+            withId = hasId;
+            pending.add(row);
+        }
+        if (!pending.isEmpty()) {
+            loaded += insertRows(connection, table, columns, pending, withId);
+        }
+        return loaded;
+    }
+
+    /**
+     * 一条多值 INSERT，没有主键时不写主键列
+     */
+    private static int insertRows(Connection connection, String table, List<String> columns, List<Object[]> rows, boolean withId) throws SQLException {
+        int from = withId ? 0 : 1;
+        StringBuilder sql = new StringBuilder(insert(table, columns.subList(from, columns.size())));
+        String tuple = sql.substring(sql.lastIndexOf("("));
+        for (int i = 1; i < rows.size(); i++) {
+            sql.append(", ").append(tuple);
+        }
+        String text = sql.toString();
+        try (SqlMetrics.Timer timer = SqlMetrics.start(text);
+             PreparedStatement statement = connection.prepareStatement(text)) {
+            int index = 1;
+            for (Object[] row : rows) {
+                for (int i = from; i < row.length; i++) {
+                    statement.setObject(index++, row[i]);
+                }
+            }
+            int inserted = statement.executeUpdate();
+            timer.success(inserted);
+            return inserted;
+        }
+    }
+
+    /**
+     * 驱动语句上的 setLocalInfileInputStream(InputStream)，按名称查找，不依赖 MySQL 驱动的类；没有时返回 null
+     */
+    private static Method localInfileSetter(Statement statement) {
+        try {
+            return statement.getClass().getMethod("setLocalInfileInputStream", InputStream.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 中止并关闭物理连接（有的驱动 abort 后不立即关闭）；借自 ConnectionPool 的连接归还时发现已关闭即丢弃
+     */
+    private static void abort(Connection connection) {
+        try {
+            Connection physical = connection.unwrap(Connection.class);
+            physical.abort(Runnable::run);
+            physical.close();
+        } catch (SQLException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to abort connection after a failed LOAD DATA", e);
+        }
+    }
+
+    private static String insert(String table, List<String> columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (")
+                .append(String.join(", ", columns)).append(") VALUES (");
+        for (int i = 0; i < columns.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(')').toString();
+    }
+
+    public static Dialect of(Connection connection) throws SQLException {
+        String url = connection.getMetaData().getURL();
+        if (url == null) {
+            return GENERIC;
+        }
+        if (url.startsWith("jdbc:mysql:") || url.startsWith("jdbc:mariadb:")) {
+            return MYSQL;
+        }
+        if (url.startsWith("jdbc:h2:")) {
+            return H2;
+        }
+        if (url.startsWith("jdbc:postgresql:")) {
+            return POSTGRESQL;
+        }
+        return GENERIC;
+    }
+}
@@ -0,0 +1,129 @@
+package com.anm.core;
+
+// EntityCache.java
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 二级缓存
+ * 标注 @Cacheable 的实体按主键缓存，存取的都是副本，调用方修改返回的对象不影响缓存
+ * 每次失效使版本号加一，查询前读取版本号，放入时版本号已变说明查询期间有写入，结果可能已过期，不放入
+ */
+public final class EntityCache {
+    private static final ConcurrentMap<Class<?>, EntityCache> CACHES = new ConcurrentHashMap<>();
+
+    private final EntityMetadata metadata;
+    private final int maxSize;
+    private final long timeToLiveNanos;
+    private final LinkedHashMap<Object, CacheEntry> entries;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long version;
+
+    private EntityCache(EntityMetadata metadata, Cacheable cacheable) {
+        this.metadata = metadata;
+        this.maxSize = cacheable.maxSize();
+        this.timeToLiveNanos = TimeUnit.SECONDS.toNanos(cacheable.timeToLive());
+        // 按访问顺序排列，最久未使用的在前
+        this.entries = new LinkedHashMap<Object, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, CacheEntry> eldest) {
+                if (size() > EntityCache.this.maxSize) {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 实体类的缓存，未标注 @Cacheable 时返回 null
+     */
+    public static EntityCache of(Class<?> entityClass) {
+        Cacheable cacheable = entityClass.getAnnotation(Cacheable.class);
+        if (cacheable == null) {
+            return null;
+        }
+        EntityCache cache = CACHES.get(entityClass);
+        return cache != null ? cache
+                : CACHES.computeIfAbsent(entityClass, type -> new EntityCache(EntityMetadata.of(type), cacheable));
+    }
+
+    synchronized Object get(Object id) {
+        CacheEntry entry = entries.get(id);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt > 0) {
+            entries.remove(id);
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        Object copy = metadata.copy(entry.entity);
+        Snapshots.take(metadata, copy);
+        return copy;
+    }
+
+    synchronized long version() {
+        return version;
+    }
+
+    /**
+     * @param version 查询前 version() 的值
+     */
+    void put(Object entity, long version) {
+        Object id = metadata.getIdProperty().get(entity);
+        if (id == null) {
+            return;
+        }
+        CacheEntry entry = new CacheEntry(metadata.copy(entity), System.nanoTime() + timeToLiveNanos);
+        synchronized (this) {
+            if (this.version == version) {
+                entries.put(id, entry);
+            }
+        }
+    }
+
+    public synchronized void invalidate(Object id) {
+        entries.remove(id);
+        version++;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        version++;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    private static final class CacheEntry {
+        private final Object entity;
+        private final long expiresAt;
+
+        private CacheEntry(Object entity, long expiresAt) {
+            this.entity = entity;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.anm.core;
+
+// EntityMetadata.java
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * 实体元数据
+ * 每个实体类只解析一次，所有 Repository 共享，构建后不可变
+ */
+public final class EntityMetadata {
+    private static final ConcurrentMap<Class<?>, EntityMetadata> CACHE = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, String> COLUMN_NAMES = new ConcurrentHashMap<>();
+
+    private final Class<?> entityClass;
+    private final String tableName;
+    private final PropertyMetadata idProperty;
+    private final List<PropertyMetadata> properties;
+    private final List<PropertyMetadata> columnProperties;
+    private final List<PropertyMetadata> relations;
+    private final List<PropertyMetadata> uniqueKey;
+    private final Map<String, PropertyMetadata> propertyMap;
+    private final Supplier<Object> constructor;
+
+    private EntityMetadata(Class<?> entityClass) {
+        Table table = entityClass.getAnnotation(Table.class);
+        if (table == null) {
+            throw new IllegalArgumentException("No @Table annotation found in class " + entityClass.getSimpleName());
+        }
+        this.entityClass = entityClass;
+        this.tableName = table.value();
+
+        PropertyMetadata id = null;
+        List<PropertyMetadata> all = new ArrayList<>();
+        List<PropertyMetadata> columns = new ArrayList<>();
+        List<PropertyMetadata> foreign = new ArrayList<>();
+        Map<String, PropertyMetadata> byName = new LinkedHashMap<>();
+        for (Field field : entityClass.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) {
+                continue;
+            }
+            PropertyMetadata property = new PropertyMetadata(field);
+            all.add(property);
+            byName.put(property.getName(), property);
+            if (property.isId()) {
+                id = property;
+            } else {
+                columns.add(property);
+            }
+            if (property.isRelation()) {
+                foreign.add(property);
+            }
+        }
+        if (id == null) {
+            throw new RuntimeException("No @Id field found in class " + entityClass.getSimpleName());
+        }
+        this.idProperty = id;
+        this.properties = Collections.unmodifiableList(all);
+        this.columnProperties = Collections.unmodifiableList(columns);
+        this.relations = Collections.unmodifiableList(foreign);
+        this.propertyMap = Collections.unmodifiableMap(byName);
+        List<PropertyMetadata> key = new ArrayList<>();
+        for (String name : table.uniqueKey()) {
+            PropertyMetadata property = byName.get(name);
+            if (property == null) {
+                throw new RuntimeException("No such field: " + name);
+            }
+            key.add(property);
+        }
+        this.uniqueKey = key.isEmpty() ? Collections.singletonList(id) : Collections.unmodifiableList(key);
+        this.constructor = Accessors.constructor(entityClass);
+    }
+
+    public static EntityMetadata of(Class<?> entityClass) {
+        EntityMetadata metadata = CACHE.get(entityClass);
+        return metadata != null ? metadata : CACHE.computeIfAbsent(entityClass, EntityMetadata::new);
+    }
+
+    /**
+     * 驼峰转下划线，结果按属性名缓存
+     */
+    public static String toColumnName(String camelCase) {
+        String columnName = COLUMN_NAMES.get(camelCase);
+        return columnName != null ? columnName : COLUMN_NAMES.computeIfAbsent(camelCase, EntityMetadata::convertToSnakeCase);
+    }
+
+    private static String convertToSnakeCase(String camelCase) {
+        StringBuilder result = new StringBuilder();
+        result.append(Character.toLowerCase(camelCase.charAt(0)));
+        for (int i = 1; i < camelCase.length(); i++) {
+            char c = camelCase.charAt(i);
+            if (Character.isUpperCase(c)) {
+                result.append('_').append(Character.toLowerCase(c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    public Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public Object newInstance() {
+        return constructor.get();
+    }
+
+    /**
+     * 复制实体，关联实体一并复制
+     */
+    public Object copy(Object entity) {
+        Object copy = constructor.get();
+        for (PropertyMetadata property : properties) {
+            Object value = property.get(entity);
+            if (property.isRelation() && value != null) {
+                value = property.copyRelation(value);
+            }
+            property.set(copy, value);
+        }
+        return copy;
+    }
+
+    public PropertyMetadata getIdProperty() {
+        return idProperty;
+    }
+
+    /**
+     * 全部属性，按声明顺序
+     */
+    public List<PropertyMetadata> getProperties() {
+        return properties;
+    }
+
+    /**
+     * 除主键外的列属性，包括外键列
+     */
+    public List<PropertyMetadata> getColumnProperties() {
+        return columnProperties;
+    }
+
+    public List<PropertyMetadata> getRelations() {
+        return relations;
+    }
+
+    /**
+     * upsert 判断冲突的属性，见 Table.uniqueKey
+     */
+    public List<PropertyMetadata> getUniqueKey() {
+        return uniqueKey;
+    }
+
+    public PropertyMetadata getProperty(String name) {
+        return propertyMap.get(name);
+    }
+
+    /**
+     * 按属性路径取列值，如 role.name；中间的关联为 null 时返回 null
+     */
+    public Object getPathValue(Object entity, String path) {
+        int dot = path.indexOf('.');
+        if (dot < 0) {
+            PropertyMetadata property = propertyMap.get(path);
+            if (property == null) {
+                throw new RuntimeException("No such field: " + path);
+            }
+            return property.getColumnValue(entity);
+        }
+        PropertyMetadata relation = getRelation(path.substring(0, dot));
+        Object related = relation.getRelated(entity);
+        return related == null ? null : relation.getRelationMetadata().getPathValue(related, path.substring(dot + 1));
+    }
+
+    public PropertyMetadata getRelation(String name) {
+        PropertyMetadata property = propertyMap.get(name);
+        if (property == null || !property.isRelation()) {
+            throw new RuntimeException("No such field: " + name);
+        }
+        return property;
+    }
+}
@@ -0,0 +1,138 @@
+package com.anm.core;
+
+// KeysetCursor.java
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 游标分页的排序键编码
+ * 按类型标记写入二进制再做 URL 安全的 Base64，不使用 Java 序列化
+ */
+final class KeysetCursor {
+    private static final byte NULL = 0;
+    private static final byte LONG = 1;
+    private static final byte INTEGER = 2;
+    private static final byte STRING = 3;
+    private static final byte DECIMAL = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte BOOLEAN = 6;
+    private static final byte TIMESTAMP = 7;
+    private static final byte LOCAL_DATE_TIME = 8;
+    private static final byte LOCAL_DATE = 9;
+
+    private KeysetCursor() {
+    }
+
+    static String encode(List<Object> values) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(values.size());
+            for (Object value : values) {
+                write(out, value);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    static Object[] decode(String cursor, int expectedSize) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(cursor)))) {
+            int size = in.readUnsignedByte();
+            if (size != expectedSize) {
+                throw new IllegalArgumentException("Cursor does not match the query order: " + cursor);
+            }
+            Object[] values = new Object[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = read(in);
+            }
+            return values;
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+
+    private static void write(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(INTEGER);
+            out.writeInt(((Number) value).intValue());
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            out.writeUTF((String) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(DECIMAL);
+            out.writeUTF(value.toString());
+        } else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Timestamp) {
+            out.writeByte(TIMESTAMP);
+            out.writeLong(((Timestamp) value).getTime());
+            out.writeInt(((Timestamp) value).getNanos());
+        } else if (value instanceof Date) {
+            out.writeByte(TIMESTAMP);
+            out.writeLong(((Date) value).getTime());
+            out.writeInt(-1);
+        } else if (value instanceof LocalDateTime) {
+            out.writeByte(LOCAL_DATE_TIME);
+            out.writeUTF(value.toString());
+        } else if (value instanceof LocalDate) {
+            out.writeByte(LOCAL_DATE);
+            out.writeUTF(value.toString());
+        } else {
+            throw new IllegalArgumentException("Unsupported keyset value type: " + value.getClass());
+        }
+    }
+
+    private static Object read(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case LONG:
+                return in.readLong();
+            case INTEGER:
+                return in.readInt();
+            case STRING:
+                return in.readUTF();
+            case DECIMAL:
+                return new BigDecimal(in.readUTF());
+            case DOUBLE:
+                return in.readDouble();
+            case BOOLEAN:
+                return in.readBoolean();
+            case TIMESTAMP:
+                long time = in.readLong();
+                int nanos = in.readInt();
+                Timestamp timestamp = new Timestamp(time);
+                if (nanos >= 0) {
+                    timestamp.setNanos(nanos);
+                }
+                return timestamp;
+            case LOCAL_DATE_TIME:
+                return LocalDateTime.parse(in.readUTF());
+            case LOCAL_DATE:
+                return LocalDate.parse(in.readUTF());
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.anm.core;
+
+import java.util.List;
+
+/**
+ * 游标分页结果
+ * nextCursor 为最后一条记录的排序键，传给下一次 selectKeysetPage 取后续记录
+ */
+public class KeysetPage<T> {
+    private final List<T> records;
+    private final int size;
+    private final String nextCursor;
+
+    public KeysetPage(List<T> records, int size, String nextCursor) {
+        this.records = records;
+        this.size = size;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getRecords() {
+        return records;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * 没有后续记录时为 null
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
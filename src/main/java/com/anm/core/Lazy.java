@@ -0,0 +1,121 @@
+package com.anm.core;
+
+// Lazy.java
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 延迟加载的多对一关系，声明为 Lazy&lt;Role&gt; role 即可
+ * 查询时只取外键，第一次 get() 时才加载；同一次查询得到的引用在第一次 get() 时一起用 IN 批量加载
+ * @param <T>
+ */
+public final class Lazy<T> {
+    private final Object id;
+    private final Group group;
+    private T value;
+    private boolean loaded;
+
+    private Lazy(Object id, T value, boolean loaded, Group group) {
+        this.id = id;
+        this.value = value;
+        this.loaded = loaded;
+        this.group = group;
+    }
+
+    /**
+     * 已加载的引用
+     */
+    public static <T> Lazy<T> of(T entity) {
+        return loaded(EntityMetadata.of(entity.getClass()).getIdProperty().get(entity), entity);
+    }
+
+    /**
+     * 只有主键的引用，用于设置外键而不加载关联实体
+     */
+    public static <T> Lazy<T> ofId(Class<T> type, Object id) {
+        return pending(id, new Group(EntityMetadata.of(type)));
+    }
+
+    static <T> Lazy<T> loaded(Object id, T entity) {
+        return new Lazy<>(id, entity, true, null);
+    }
+
+    static <T> Lazy<T> pending(Object id, Group group) {
+        Lazy<T> lazy = new Lazy<>(id, null, false, group);
+        group.pending.add(lazy);
+        return lazy;
+    }
+
+    public Object getId() {
+        return id;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * 关联实体，外键指向的记录不存在时返回 null
+     * @throws RuntimeException 加载失败，cause 为 SQLException
+     */
+    public T get() {
+        if (!loaded) {
+            try {
+                group.load();
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to load " + id, e);
+            }
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resolve(Object entity) {
+        this.value = (T) entity;
+        this.loaded = true;
+    }
+
+    @Override
+    public String toString() {
+        return loaded ? "Lazy[" + value + "]" : "Lazy[id=" + id + "]";
+    }
+
+    /**
+     * 一起加载的引用，通常是同一次查询中同一个关系的全部引用
+     */
+    static final class Group {
+        private final EntityMetadata metadata;
+        private final List<Lazy<?>> pending = new ArrayList<>();
+
+        Group(EntityMetadata metadata) {
+            this.metadata = metadata;
+        }
+
+        private synchronized void load() throws SQLException {
+            Set<Object> ids = new LinkedHashSet<>();
+            for (Lazy<?> lazy : pending) {
+                if (!lazy.loaded) {
+                    ids.add(lazy.id);
+                }
+            }
+            Map<Object, Object> loaded = new HashMap<>();
+            if (!ids.isEmpty()) {
+                PropertyMetadata idProperty = metadata.getIdProperty();
+                for (Object entity : BaseRepository.getRepositoryInstance(metadata.getEntityClass()).selectByIds(ids)) {
+                    loaded.put(idProperty.get(entity), entity);
+                }
+            }
+            for (Lazy<?> lazy : pending) {
+                if (!lazy.loaded) {
+                    lazy.resolve(loaded.get(lazy.id));
+                }
+            }
+            pending.clear();
+        }
+    }
+}
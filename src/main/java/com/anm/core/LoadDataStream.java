@@ -0,0 +1,127 @@
+package com.anm.core;
+
+// LoadDataStream.java
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Iterator;
+
+/**
+ * 把行按 LOAD DATA 的默认格式编码为 UTF-8 文本：字段以制表符分隔、行以换行结束、NULL 为 \N，特殊字符用反斜杠转义
+ * 读取时才从 rows 取下一批行编码，内存中只保留一个缓冲区
+ */
+final class LoadDataStream extends InputStream {
+    private static final int BUFFER_CHARS = 64 * 1024;
+
+    private final Iterator<Object[]> rows;
+    private final StringBuilder text = new StringBuilder(BUFFER_CHARS + 1024);
+    private byte[] buffer = new byte[0];
+    private int position;
+    private long rowCount;
+    private boolean exhausted;
+
+    LoadDataStream(Iterator<Object[]> rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * 已编码的行数
+     */
+    long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * 已读到流的末尾，全部行都已交给数据库
+     */
+    boolean isExhausted() {
+        return exhausted;
+    }
+
+    @Override
+    public int read() {
+        if (position >= buffer.length && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= buffer.length && !fill()) {
+            return -1;
+        }
+        int count = Math.min(len, buffer.length - position);
+        System.arraycopy(buffer, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    private boolean fill() {
+        while (text.length() < BUFFER_CHARS && rows.hasNext()) {
+            Object[] row = rows.next();
+            for (int i = 0; i < row.length; i++) {
+                if (i > 0) {
+                    text.append('\t');
+                }
+                append(row[i]);
+            }
+            text.append('\n');
+            rowCount++;
+        }
+        buffer = text.toString().getBytes(StandardCharsets.UTF_8);
+        text.setLength(0);
+        position = 0;
+        if (buffer.length == 0) {
+            exhausted = true;
+            return false;
+        }
+        return true;
+    }
+
+    private void append(Object value) {
+        if (value == null) {
+            text.append("\\N");
+            return;
+        }
+        String string;
+        if (value instanceof Boolean) {
+            string = (Boolean) value ? "1" : "0";
+        } else if (value instanceof BigDecimal) {
+            string = ((BigDecimal) value).toPlainString();
+        } else if (value instanceof java.util.Date && !(value instanceof java.sql.Date || value instanceof java.sql.Time
+                || value instanceof Timestamp)) {
+            string = new Timestamp(((java.util.Date) value).getTime()).toString();
+        } else if (value instanceof byte[]) {
+            throw new RuntimeException("Binary columns are not supported by LOAD DATA streaming");
+        } else {
+            string = value.toString();
+        }
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            switch (c) {
+                case '\\':
+                    text.append("\\\\");
+                    break;
+                case '\t':
+                    text.append("\\t");
+                    break;
+                case '\n':
+                    text.append("\\n");
+                    break;
+                case '\r':
+                    text.append("\\r");
+                    break;
+                case '\0':
+                    text.append("\\0");
+                    break;
+                default:
+                    text.append(c);
+            }
+        }
+    }
+}
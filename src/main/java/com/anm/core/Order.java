@@ -0,0 +1,33 @@
+package com.anm.core;
+
+// Order.java
+
+/**
+ * 排序
+ */
+public final class Order {
+    private final String property;
+    private final boolean ascending;
+
+    Order(String property, boolean ascending) {
+        this.property = property;
+        this.ascending = ascending;
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    public String getDirection() {
+        return ascending ? "ASC" : "DESC";
+    }
+
+    @Override
+    public String toString() {
+        return property + " " + getDirection();
+    }
+}
@@ -7,12 +7,21 @@ public class Page<T> {
     private final long total;
     private final int current;
     private final int size;
+    private final boolean hasNext;
 
     public Page(List<T> records, long total, int current, int size) {
+        this(records, total, current, size, (long) current * size < total);
+    }
+
+    /**
+     * @param total 总数，未统计时为 -1
+     */
+    public Page(List<T> records, long total, int current, int size, boolean hasNext) {
         this.records = records;
         this.total = total;
         this.current = current;
         this.size = size;
+        this.hasNext = hasNext;
     }
 
     public List<T> getRecords() {
@@ -30,4 +39,8 @@ public class Page<T> {
     public int getSize() {
         return size;
     }
+
+    public boolean hasNext() {
+        return hasNext;
+    }
 }
@@ -0,0 +1,131 @@
+package com.anm.core;
+
+// Projection.java
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * DTO 投影
+ * DTO 的字段按名称对应实体的属性路径，关联属性拼成驼峰，如 role.name 对应 roleName，dept.company.name 对应 deptCompanyName
+ * @param <R>
+ */
+final class Projection<R> {
+    private static final ConcurrentMap<String, Projection<?>> CACHE = new ConcurrentHashMap<>();
+
+    private final EntityMetadata metadata;
+    private final Supplier<Object> constructor;
+    private final List<String> paths;
+    private final List<BiConsumer<Object, Object>> setters;
+    private final List<Function<Object, Object>> converters;
+
+    private Projection(EntityMetadata metadata, Class<R> type, List<String> selection) {
+        this.metadata = metadata;
+        this.constructor = Accessors.constructor(type);
+        Map<String, Field> fields = new LinkedHashMap<>();
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    fields.putIfAbsent(field.getName(), field);
+                }
+            }
+        }
+        List<String> resolved = new ArrayList<>();
+        if (selection.isEmpty()) {
+            for (String name : fields.keySet()) {
+                String path = pathOf(metadata, name);
+                if (path != null) {
+                    resolved.add(path);
+                }
+            }
+        } else {
+            resolved.addAll(selection);
+        }
+        this.paths = Collections.unmodifiableList(resolved);
+        this.setters = new ArrayList<>(resolved.size());
+        this.converters = new ArrayList<>(resolved.size());
+        for (String path : resolved) {
+            Field field = fields.get(fieldName(path));
+            if (field == null) {
+                throw new RuntimeException("No such field: " + fieldName(path) + " in " + type.getSimpleName());
+            }
+            setters.add(Accessors.setter(field));
+            converters.add(PropertyMetadata.converterFor(field.getType()));
+        }
+    }
+
+    /**
+     * @param selection QueryWrapper.select() 指定的属性；为空时按 DTO 的字段名推断
+     */
+    @SuppressWarnings("unchecked")
+    static <R> Projection<R> of(EntityMetadata metadata, Class<R> type, List<String> selection) {
+        String key = metadata.getEntityClass().getName() + '>' + type.getName() + selection;
+        Projection<?> projection = CACHE.get(key);
+        return (Projection<R>) (projection != null ? projection
+                : CACHE.computeIfAbsent(key, k -> new Projection<>(metadata, type, selection)));
+    }
+
+    /**
+     * 需要查询的属性路径
+     */
+    List<String> getPaths() {
+        return paths;
+    }
+
+    @SuppressWarnings("unchecked")
+    R map(Object entity) {
+        Object target = constructor.get();
+        for (int i = 0; i < paths.size(); i++) {
+            Object value = metadata.getPathValue(entity, paths.get(i));
+            if (value != null) {
+                setters.get(i).accept(target, converters.get(i).apply(value));
+            }
+        }
+        return (R) target;
+    }
+
+    /**
+     * DTO 字段名对应的属性路径：先找同名属性，再找 关系名 + 关联属性名
+     */
+    private static String pathOf(EntityMetadata metadata, String fieldName) {
+        if (metadata.getProperty(fieldName) != null) {
+            return fieldName;
+        }
+        for (PropertyMetadata relation : metadata.getRelations()) {
+            String prefix = relation.getName();
+            if (fieldName.length() > prefix.length() && fieldName.startsWith(prefix)) {
+                String rest = fieldName.substring(prefix.length());
+                rest = Character.toLowerCase(rest.charAt(0)) + rest.substring(1);
+                String path = pathOf(relation.getRelationMetadata(), rest);
+                if (path != null) {
+                    return prefix + "." + path;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String fieldName(String path) {
+        StringBuilder name = new StringBuilder(path.length());
+        boolean upper = false;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '.') {
+                upper = true;
+            } else {
+                name.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            }
+        }
+        return name.toString();
+    }
+}
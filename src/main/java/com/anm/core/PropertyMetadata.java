@@ -0,0 +1,190 @@
+package com.anm.core;
+
+// PropertyMetadata.java
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * 实体属性元数据
+ * 对应一个列；@Table 类型或 Lazy<@Table 类型> 的属性对应外键列 xxx_id
+ */
+public final class PropertyMetadata {
+    private final Field field;
+    private final String name;
+    private final String columnName;
+    private final boolean id;
+    private final boolean relation;
+    private final boolean lazy;
+    private final Class<?> targetType;
+    private final Function<Object, Object> converter;
+    private final Function<Object, Object> getter;
+    private final BiConsumer<Object, Object> setter;
+
+    PropertyMetadata(Field field) {
+        this.field = field;
+        this.name = field.getName();
+        this.id = field.isAnnotationPresent(Id.class);
+        this.lazy = field.getType() == Lazy.class;
+        this.targetType = lazy ? lazyTarget(field) : field.getType();
+        this.relation = targetType.isAnnotationPresent(Table.class);
+        this.columnName = relation
+                ? EntityMetadata.toColumnName(name) + "_id"
+                : EntityMetadata.toColumnName(name);
+        this.converter = relation ? null : converterFor(field.getType());
+        this.getter = Accessors.getter(field);
+        this.setter = Accessors.setter(field);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getColumnName() {
+        return columnName;
+    }
+
+    public Class<?> getType() {
+        return field.getType();
+    }
+
+    public boolean isId() {
+        return id;
+    }
+
+    /**
+     * 多对一关系
+     */
+    public boolean isRelation() {
+        return relation;
+    }
+
+    /**
+     * 声明为 Lazy 的多对一关系
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * 关系属性指向的实体元数据；延迟解析以支持相互引用的实体
+     */
+    public EntityMetadata getRelationMetadata() {
+        if (!relation) {
+            throw new IllegalStateException(name + " is not a relation");
+        }
+        return EntityMetadata.of(targetType);
+    }
+
+    public Object get(Object entity) {
+        return getter.apply(entity);
+    }
+
+    /**
+     * Lazy 属性可以直接传入关联实体
+     */
+    public void set(Object entity, Object value) {
+        if (value == null && field.getType().isPrimitive()) {
+            return;
+        }
+        if (lazy && value != null && !(value instanceof Lazy)) {
+            value = Lazy.of(value);
+        }
+        setter.accept(entity, value);
+    }
+
+    /**
+     * 列值，关系属性取关联实体的主键
+     */
+    public Object getColumnValue(Object entity) {
+        Object value = getter.apply(entity);
+        if (relation && value != null) {
+            return lazy ? ((Lazy<?>) value).getId() : getRelationMetadata().getIdProperty().get(value);
+        }
+        return value;
+    }
+
+    /**
+     * 关系属性指向的实体，Lazy 属性在此时加载
+     */
+    public Object getRelated(Object entity) {
+        Object value = getter.apply(entity);
+        return lazy && value != null ? ((Lazy<?>) value).get() : value;
+    }
+
+    /**
+     * 复制关系属性的值；未加载的 Lazy 复制为只有主键的引用
+     */
+    Object copyRelation(Object value) {
+        if (!lazy) {
+            return getRelationMetadata().copy(value);
+        }
+        Lazy<?> reference = (Lazy<?>) value;
+        if (!reference.isLoaded()) {
+            return Lazy.ofId(targetType, reference.getId());
+        }
+        Object related = reference.get();
+        return related == null ? Lazy.loaded(reference.getId(), null) : Lazy.of(getRelationMetadata().copy(related));
+    }
+
+    /**
+     * 把 JDBC 返回的值转换为属性类型
+     */
+    public Object convert(Object value) {
+        if (value == null) {
+            return null;
+        }
+        return converter.apply(value);
+    }
+
+    private static Class<?> lazyTarget(Field field) {
+        Type type = field.getGenericType();
+        if (type instanceof ParameterizedType) {
+            Type argument = ((ParameterizedType) type).getActualTypeArguments()[0];
+            if (argument instanceof Class && ((Class<?>) argument).isAnnotationPresent(Table.class)) {
+                return (Class<?>) argument;
+            }
+        }
+        throw new RuntimeException("Lazy field " + field.getName() + " must declare an @Table entity type");
+    }
+
+    static Function<Object, Object> converterFor(Class<?> targetType) {
+        if (targetType == Long.class || targetType == long.class) {
+            return value -> value instanceof Long ? value : ((Number) value).longValue();
+        }
+        if (targetType == Integer.class || targetType == int.class) {
+            return value -> value instanceof Integer ? value : ((Number) value).intValue();
+        }
+        if (targetType == Short.class || targetType == short.class) {
+            return value -> value instanceof Short ? value : ((Number) value).shortValue();
+        }
+        if (targetType == Double.class || targetType == double.class) {
+            return value -> value instanceof Double ? value : ((Number) value).doubleValue();
+        }
+        if (targetType == Float.class || targetType == float.class) {
+            return value -> value instanceof Float ? value : ((Number) value).floatValue();
+        }
+        if (targetType == Boolean.class || targetType == boolean.class) {
+            return value -> value instanceof Boolean ? value : ((Number) value).intValue() != 0;
+        }
+        if (targetType == BigDecimal.class) {
+            return value -> value instanceof BigDecimal ? value
+                    : value instanceof BigInteger ? new BigDecimal((BigInteger) value)
+                    : new BigDecimal(value.toString());
+        }
+        if (targetType == String.class) {
+            return value -> value instanceof String ? value : value.toString();
+        }
+        return value -> {
+            if (targetType.isInstance(value)) {
+                return value;
+            }
+            // Add other type conversions as needed
+            throw new IllegalArgumentException("Cannot convert value of type " + value.getClass() + " to " + targetType);
+        };
+    }
+}
@@ -0,0 +1,241 @@
+package com.anm.core;
+
+// QueryCache.java
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 查询结果缓存，只缓存调用了 QueryWrapper.cached() 的 selectList、selectPage 和总数
+ * 键为实体、生成的 SQL 和参数值；按估算的内存占用限制总量，超出时淘汰最久未使用的条目
+ * 每张表有一个版本号，通过 Repository 写入时加一，条目记录查询涉及的表（包括关联的表）的版本，任一版本变化即失效
+ * 不经过 Repository 修改数据时需调用 invalidate
+ */
+public final class QueryCache {
+    private static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+    private static final ConcurrentMap<String, AtomicLong> VERSIONS = new ConcurrentHashMap<>();
+    // 按访问顺序排列，最久未使用的在前
+    private static final LinkedHashMap<Key, CacheEntry> ENTRIES = new LinkedHashMap<>(16, 0.75f, true);
+    private static long maxBytes = DEFAULT_MAX_BYTES;
+    private static long bytes;
+    private static long hitCount;
+    private static long missCount;
+    private static long evictionCount;
+
+    private QueryCache() {
+    }
+
+    /**
+     * 缓存占用的上限，字节，默认 32MB；0 表示不缓存
+     */
+    public static synchronized void setMaxBytes(long max) {
+        if (max < 0) {
+            throw new IllegalArgumentException("max must not be negative: " + max);
+        }
+        maxBytes = max;
+        evict();
+    }
+
+    public static synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * 当前条目估算的内存占用，字节
+     */
+    public static synchronized long getBytes() {
+        return bytes;
+    }
+
+    public static synchronized int size() {
+        return ENTRIES.size();
+    }
+
+    public static synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public static synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public static synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * 使涉及该表的条目失效，表名不区分大小写
+     */
+    public static void invalidate(String table) {
+        version(table).incrementAndGet();
+    }
+
+    public static synchronized void clear() {
+        ENTRIES.clear();
+        bytes = 0;
+    }
+
+    /**
+     * 创建查询的键，同时记下涉及的表当前的版本，在查询数据库之前调用
+     */
+    static Key key(Class<?> entityClass, String sql, List<Object> params, Set<String> tables) {
+        String[] names = tables.toArray(new String[0]);
+        long[] versions = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            versions[i] = version(names[i]).get();
+        }
+        return new Key(entityClass, sql, params, names, versions);
+    }
+
+    static synchronized Object get(Key key) {
+        CacheEntry entry = ENTRIES.get(key);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        if (!isCurrent(entry.key)) {
+            remove(key);
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.value;
+    }
+
+    /**
+     * 查询期间表被写入过时不放入，避免缓存旧结果
+     * @param size 估算的 value 占用，见 sizeOf
+     */
+    static synchronized void put(Key key, Object value, long size) {
+        long total = size + key.size();
+        if (total > maxBytes || !isCurrent(key)) {
+            return;
+        }
+        remove(key);
+        ENTRIES.put(key, new CacheEntry(key, value, total));
+        bytes += total;
+        evict();
+    }
+
+    /**
+     * 粗略估算实体列表的内存占用：对象头、引用和列值，关联实体一并计入
+     */
+    static long sizeOf(EntityMetadata metadata, List<?> entities) {
+        long size = 16 + 8L * entities.size();
+        for (Object entity : entities) {
+            size += sizeOf(metadata, entity);
+        }
+        return size;
+    }
+
+    private static long sizeOf(EntityMetadata metadata, Object entity) {
+        List<PropertyMetadata> properties = metadata.getProperties();
+        long size = 16 + 8L * properties.size();
+        for (PropertyMetadata property : properties) {
+            Object value = property.get(entity);
+            if (value == null) {
+                continue;
+            }
+            if (property.isRelation()) {
+                // 不触发 Lazy 的加载
+                Object related = value;
+                if (value instanceof Lazy) {
+                    Lazy<?> reference = (Lazy<?>) value;
+                    related = reference.isLoaded() ? reference.get() : null;
+                }
+                size += related != null ? sizeOf(property.getRelationMetadata(), related) : 16;
+            } else if (value instanceof CharSequence) {
+                size += 40 + 2L * ((CharSequence) value).length();
+            } else {
+                size += 24;
+            }
+        }
+        return size;
+    }
+
+    private static AtomicLong version(String table) {
+        String name = table.toLowerCase();
+        AtomicLong version = VERSIONS.get(name);
+        return version != null ? version : VERSIONS.computeIfAbsent(name, t -> new AtomicLong());
+    }
+
+    private static boolean isCurrent(Key key) {
+        for (int i = 0; i < key.tables.length; i++) {
+            if (version(key.tables[i]).get() != key.versions[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void remove(Key key) {
+        CacheEntry removed = ENTRIES.remove(key);
+        if (removed != null) {
+            bytes -= removed.size;
+        }
+    }
+
+    private static void evict() {
+        Iterator<CacheEntry> iterator = ENTRIES.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().size;
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    static final class Key {
+        private final Class<?> entityClass;
+        private final String sql;
+        private final List<Object> params;
+        private final String[] tables;
+        private final long[] versions;
+        private final int hash;
+
+        private Key(Class<?> entityClass, String sql, List<Object> params, String[] tables, long[] versions) {
+            this.entityClass = entityClass;
+            this.sql = sql;
+            this.params = params;
+            this.tables = tables;
+            this.versions = versions;
+            this.hash = 31 * (31 * entityClass.hashCode() + sql.hashCode()) + params.hashCode();
+        }
+
+        private long size() {
+            return 64 + 2L * sql.length() + 24L * params.size() + 8L * tables.length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return entityClass == other.entityClass && sql.equals(other.sql) && params.equals(other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class CacheEntry {
+        private final Key key;
+        private final Object value;
+        private final long size;
+
+        private CacheEntry(Key key, Object value, long size) {
+            this.key = key;
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
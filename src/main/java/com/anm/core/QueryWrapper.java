@@ -8,49 +8,201 @@ import java.util.*;
  * @param <T>
  */
 public class QueryWrapper<T> {
-    private final Map<String, Object> conditions = new HashMap<>();
-    private final List<String> orderBy = new ArrayList<>();
-    private final List<String> joins = new ArrayList<>();
+    private final List<Condition> conditions = new ArrayList<>();
+    private final List<Order> orderBy = new ArrayList<>();
+    private final List<String> fetches = new ArrayList<>();
+    private final List<String> selection = new ArrayList<>();
+    private final List<Condition> conditionsView = Collections.unmodifiableList(conditions);
+    private final List<Order> orderByView = Collections.unmodifiableList(orderBy);
+    private String shape;
+    private boolean cached;
 
     public QueryWrapper<T> eq(String column, Object value) {
-        conditions.put(column, value);
-        return this;
+        return add(new Condition(column, ConditionType.EQ, value));
     }
 
     public QueryWrapper<T> like(String column, String value) {
-        conditions.put(column + " LIKE", "%" + value + "%");
-        return this;
+        return add(new Condition(column, ConditionType.LIKE, "%" + value + "%"));
     }
 
     public QueryWrapper<T> in(String column, List<?> values) {
-        conditions.put(column + " IN", values);
-        return this;
+        return add(new Condition(column, ConditionType.IN, values));
     }
 
     public QueryWrapper<T> gt(String column, Object value) {
-        conditions.put(column + " >", value);
-        return this;
+        return add(new Condition(column, ConditionType.GT, value));
     }
 
     public QueryWrapper<T> lt(String column, Object value) {
-        conditions.put(column + " <", value);
-        return this;
+        return add(new Condition(column, ConditionType.LT, value));
     }
 
     public QueryWrapper<T> orderBy(String column, String direction) {
-        orderBy.add(column + " " + direction);
+        boolean ascending;
+        if ("ASC".equalsIgnoreCase(direction)) {
+            ascending = true;
+        } else if ("DESC".equalsIgnoreCase(direction)) {
+            ascending = false;
+        } else {
+            throw new IllegalArgumentException("Unknown order direction: " + direction);
+        }
+        orderBy.add(new Order(column, ascending));
+        shape = null;
+        return this;
+    }
+
+    /**
+     * 只查询列出的属性，可包含关联属性如 role.name、dept.company.name；主键总是查询，未列出的属性保持默认值
+     */
+    public QueryWrapper<T> select(String... properties) {
+        for (String property : properties) {
+            if (!selection.contains(property)) {
+                selection.add(property);
+            }
+        }
+        shape = null;
         return this;
     }
 
+    /**
+     * 查询后批量加载多对一关系，每个关系按外键执行一次 IN 查询，不影响生成的 SQL
+     */
+    public QueryWrapper<T> fetch(String... relations) {
+        for (String relation : relations) {
+            if (!fetches.contains(relation)) {
+                fetches.add(relation);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 结果放入 QueryCache，涉及的表被写入前相同的查询直接返回缓存的副本；事务中不使用缓存
+     */
+    public QueryWrapper<T> cached() {
+        cached = true;
+        return this;
+    }
+
+    private QueryWrapper<T> add(Condition condition) {
+        conditions.add(condition);
+        shape = null;
+        return this;
+    }
+
+    public List<Condition> getConditionList() {
+        return conditionsView;
+    }
+
+    public List<Order> getOrderByList() {
+        return orderByView;
+    }
+
+    /**
+     * 旧版的条件表：等值条件以属性为键，其他以“属性 操作符”为键，如 name LIKE、age >；同一个键只保留最后一个条件
+     * @deprecated 不能表示同一属性上的多个条件，使用 getConditionList()
+     */
+    @Deprecated
     public Map<String, Object> getConditions() {
-        return conditions;
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (Condition condition : conditions) {
+            String key = condition.getProperty();
+            switch (condition.getType()) {
+                case LIKE:
+                    key += " LIKE";
+                    break;
+                case IN:
+                    key += " IN";
+                    break;
+                case GT:
+                    key += " >";
+                    break;
+                case LT:
+                    key += " <";
+                    break;
+                default:
+                    break;
+            }
+            map.put(key, condition.getValue());
+        }
+        return Collections.unmodifiableMap(map);
     }
 
+    /**
+     * 旧版的排序列表，每项为“属性 ASC”或“属性 DESC”
+     * @deprecated 使用 getOrderByList()
+     */
+    @Deprecated
     public List<String> getOrderBy() {
-        return orderBy;
+        List<String> list = new ArrayList<>(orderBy.size());
+        for (Order order : orderBy) {
+            list.add(order.toString());
+        }
+        return Collections.unmodifiableList(list);
     }
 
+    /**
+     * 关联表由条件、排序和查询的属性路径推断，不再单独记录；与旧版一样总是返回空列表
+     * @deprecated 没有替代
+     */
+    @Deprecated
     public List<String> getJoins() {
-        return joins;
+        return Collections.emptyList();
+    }
+
+    public List<String> getSelection() {
+        return Collections.unmodifiableList(selection);
+    }
+
+    /**
+     * 复制条件和排序，替换查询的属性
+     */
+    QueryWrapper<T> withSelection(List<String> properties) {
+        QueryWrapper<T> copy = new QueryWrapper<>();
+        copy.conditions.addAll(conditions);
+        copy.orderBy.addAll(orderBy);
+        copy.fetches.addAll(fetches);
+        copy.selection.addAll(properties);
+        copy.cached = cached;
+        return copy;
+    }
+
+    public List<String> getFetches() {
+        return Collections.unmodifiableList(fetches);
+    }
+
+    boolean isCached() {
+        return cached;
+    }
+
+    /**
+     * 查询形状：条件的属性与操作符、排序，不含参数值；形状相同的查询共用同一条 SQL
+     */
+    String getShape() {
+        if (shape == null) {
+            StringBuilder key = new StringBuilder();
+            for (Condition condition : conditions) {
+                key.append(condition.getProperty()).append(' ');
+                if (condition.isNullCheck()) {
+                    key.append("NULL");
+                } else {
+                    key.append(condition.getType());
+                    if (condition.getType() == ConditionType.IN) {
+                        key.append(condition.getPlaceholderCount());
+                    }
+                }
+                key.append(';');
+            }
+            key.append('|');
+            for (Order order : orderBy) {
+                key.append(order).append(';');
+            }
+            key.append('|');
+            for (String property : selection) {
+                key.append(property).append(';');
+            }
+            shape = key.toString();
+        }
+        return shape;
     }
-}
\ No newline at end of file
+}
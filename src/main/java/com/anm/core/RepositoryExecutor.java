@@ -0,0 +1,141 @@
+package com.anm.core;
+
+// RepositoryExecutor.java
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 后台执行查询的线程池
+ * 每个任务在自己的线程上从 SessionManager 借用连接；同时执行的任务数不超过连接池大小，
+ * 多出的任务排队等待，不会因借不到连接而超时
+ * 运行在支持虚拟线程的 JDK 上时默认每个任务一个虚拟线程
+ */
+public final class RepositoryExecutor {
+    private static final int DEFAULT_MAX_CONCURRENCY = 10;
+    private static final ThreadLocal<Boolean> WORKER = new ThreadLocal<>();
+
+    private static volatile ExecutorService executor;
+    private static volatile Semaphore limiter;
+    private static volatile int maxConcurrency;
+
+    private RepositoryExecutor() {
+    }
+
+    public static void setExecutor(ExecutorService executor) {
+        RepositoryExecutor.executor = executor;
+    }
+
+    public static ExecutorService getExecutor() {
+        ExecutorService current = executor;
+        if (current == null) {
+            synchronized (RepositoryExecutor.class) {
+                current = executor;
+                if (current == null) {
+                    current = newDefaultExecutor();
+                    executor = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 同时执行的任务数上限，0 表示使用 ConnectionPool 的 maxSize
+     */
+    public static synchronized void setMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency < 0) {
+            throw new IllegalArgumentException("maxConcurrency must not be negative: " + maxConcurrency);
+        }
+        RepositoryExecutor.maxConcurrency = maxConcurrency;
+        RepositoryExecutor.limiter = null;
+    }
+
+    /**
+     * 在后台执行，结果或异常（不包装）通过返回的 CompletableFuture 传递
+     * 已在后台任务中时直接在当前线程执行，避免占用许可的任务再等待许可
+     */
+    static <V> CompletableFuture<V> submit(Callable<V> task) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        if (Boolean.TRUE.equals(WORKER.get())) {
+            run(task, future);
+            return future;
+        }
+        Semaphore permits = getLimiter();
+        getExecutor().execute(() -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(e);
+                return;
+            }
+            WORKER.set(Boolean.TRUE);
+            try {
+                if (!future.isDone()) {
+                    run(task, future);
+                }
+            } finally {
+                WORKER.remove();
+                permits.release();
+            }
+        });
+        return future;
+    }
+
+    private static <V> void run(Callable<V> task, CompletableFuture<V> future) {
+        try {
+            future.complete(task.call());
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static Semaphore getLimiter() {
+        Semaphore current = limiter;
+        if (current == null) {
+            synchronized (RepositoryExecutor.class) {
+                current = limiter;
+                if (current == null) {
+                    int permits = maxConcurrency;
+                    if (permits == 0) {
+                        DataSource dataSource = SessionManager.getDataSource();
+                        permits = dataSource instanceof ConnectionPool
+                                ? ((ConnectionPool) dataSource).getMaxSize()
+                                : DEFAULT_MAX_CONCURRENCY;
+                    }
+                    current = new Semaphore(permits, true);
+                    limiter = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private static ExecutorService newDefaultExecutor() {
+        try {
+            // JDK 21+
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // 不支持虚拟线程，使用平台线程池
+        }
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "repository-worker-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
@@ -0,0 +1,81 @@
+package com.anm.core;
+
+// ResultSetCursor.java
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 游标
+ * 逐行映射结果集，读完或关闭时释放语句和连接
+ * @param <T>
+ */
+final class ResultSetCursor<T> extends Spliterators.AbstractSpliterator<T> implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(ResultSetCursor.class.getName());
+
+    private final Connection connection;
+    private final boolean sessionBound;
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+    private final RowMapper<T> mapper;
+    private boolean closed;
+
+    /**
+     * @param sessionBound 连接是否来自 SessionManager 当前线程的会话；否则关闭时直接归还连接
+     */
+    ResultSetCursor(Connection connection, boolean sessionBound, PreparedStatement statement, ResultSet resultSet, RowMapper<T> mapper) {
+        super(Long.MAX_VALUE, ORDERED | NONNULL);
+        this.connection = connection;
+        this.sessionBound = sessionBound;
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (closed) {
+            return false;
+        }
+        try {
+            if (!resultSet.next()) {
+                close();
+                return false;
+            }
+            action.accept(mapper.map(resultSet));
+            return true;
+        } catch (SQLException e) {
+            close();
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            resultSet.close();
+            statement.close();
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to close cursor", e);
+        } finally {
+            try {
+                if (sessionBound) {
+                    SessionManager.close();
+                } else {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                LOGGER.log(Level.WARNING, "Failed to release cursor connection", e);
+            }
+        }
+    }
+}
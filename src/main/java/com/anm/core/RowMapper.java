@@ -0,0 +1,370 @@
+package com.anm.core;
+
+// RowMapper.java
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 行映射
+ * 查询按固定顺序列出列，映射时按列序号取值，属性访问器预先绑定
+ * @param <T>
+ */
+final class RowMapper<T> {
+    private final EntityMetadata metadata;
+    private final PropertyMetadata[] columns;
+    private final PropertyMetadata[] properties;
+    private final int[] indexes;
+    private final PropertyMetadata[] foreignKeys;
+    private final int[] foreignKeyIndexes;
+    private final List<String> joined;
+    private final Join[] joins;
+    private final int columnCount;
+    // 主表外键在前，其后依次是各关联表的外键
+    private final int groupCount;
+
+    /**
+     * @param relations 已关联查询的关系路径，如 role、dept、dept.company，顺序与 SELECT 中关联表的顺序一致，父级在前
+     * @param selection 只查询的属性路径，如 name、role.name；为空时查询全部列，主键总是包含在内
+     */
+    RowMapper(EntityMetadata metadata, List<String> relations, List<String> selection) {
+        this.metadata = metadata;
+        int index = 1;
+        List<PropertyMetadata> selected = new ArrayList<>();
+        List<PropertyMetadata> scalar = new ArrayList<>();
+        List<Integer> scalarIndexes = new ArrayList<>();
+        List<PropertyMetadata> stubs = new ArrayList<>();
+        List<Integer> stubIndexes = new ArrayList<>();
+        for (PropertyMetadata property : metadata.getProperties()) {
+            if (!selection.isEmpty() && !property.isId() && !selection.contains(property.getName())) {
+                continue;
+            }
+            selected.add(property);
+            if (!property.isRelation()) {
+                scalar.add(property);
+                scalarIndexes.add(index);
+            } else if (!relations.contains(property.getName())) {
+                stubs.add(property);
+                stubIndexes.add(index);
+            }
+            index++;
+        }
+        for (String path : selection) {
+            if (path.indexOf('.') < 0 && metadata.getProperty(path) == null) {
+                throw new RuntimeException("No such field: " + path);
+            }
+        }
+        this.columns = selected.toArray(new PropertyMetadata[0]);
+        this.properties = scalar.toArray(new PropertyMetadata[0]);
+        this.indexes = toArray(scalarIndexes);
+        this.foreignKeys = stubs.toArray(new PropertyMetadata[0]);
+        this.foreignKeyIndexes = toArray(stubIndexes);
+
+        int group = foreignKeys.length;
+        List<String> mapped = new ArrayList<>();
+        List<Join> joinList = new ArrayList<>();
+        for (String path : relations) {
+            int dot = path.lastIndexOf('.');
+            int parent = dot < 0 ? -1 : mapped.indexOf(path.substring(0, dot));
+            if (dot > 0 && parent < 0) {
+                // 父级只用于过滤或排序，子级也不映射
+                continue;
+            }
+            EntityMetadata owner = parent < 0 ? metadata : joinList.get(parent).metadata;
+            Join join = new Join(path, owner.getRelation(path.substring(dot + 1)), parent, index, group,
+                    relations, selection);
+            if (join.columns.length == 0) {
+                // 只用于过滤或排序的关联表
+                continue;
+            }
+            mapped.add(path);
+            joinList.add(join);
+            index += join.columns.length;
+            group += join.foreignKeys.length;
+        }
+        for (Join join : joinList) {
+            for (String child : join.deferred) {
+                if (!mapped.contains(child)) {
+                    // 子级关系既没有查询外键也没有映射，不能放入实体表
+                    join.complete = false;
+                }
+            }
+        }
+        this.joined = mapped;
+        this.joins = joinList.toArray(new Join[0]);
+        this.columnCount = index - 1;
+        this.groupCount = group;
+    }
+
+    /**
+     * 追加 SELECT 列表，列顺序与映射时的列序号对应
+     * @param joinAliases 关系路径到关联表别名
+     */
+    void appendColumns(StringBuilder sql, String alias, Map<String, String> joinAliases) {
+        for (PropertyMetadata property : columns) {
+            sql.append(alias).append('.').append(property.getColumnName()).append(", ");
+        }
+        for (Join join : joins) {
+            String joinAlias = joinAliases.get(join.path);
+            for (PropertyMetadata property : join.columns) {
+                sql.append(joinAlias).append('.').append(property.getColumnName()).append(", ");
+            }
+        }
+        sql.setLength(sql.length() - 2);
+    }
+
+    int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * 关系是否已通过 JOIN 映射
+     */
+    boolean isJoined(String relation) {
+        return joined.contains(relation);
+    }
+
+    /**
+     * 映射流式读取的一行，不记录快照：事务中逐行读取时会话占用的内存不随行数增长，update 这些实体时写入全部列
+     */
+    T map(ResultSet resultSet) throws SQLException {
+        return map(resultSet, null, false);
+    }
+
+    /**
+     * @param groups 与 foreignKeys 对应，同一个关系的 Lazy 引用放入同一组一起加载；为 null 时各自加载
+     * @param snapshot 是否记录快照
+     */
+    @SuppressWarnings("unchecked")
+    private T map(ResultSet resultSet, Lazy.Group[] groups, boolean snapshot) throws SQLException {
+        Object entity = metadata.newInstance();
+        for (int i = 0; i < properties.length; i++) {
+            PropertyMetadata property = properties[i];
+            property.set(entity, property.convert(resultSet.getObject(indexes[i])));
+        }
+        for (int i = 0; i < foreignKeys.length; i++) {
+            Object foreignKey = resultSet.getObject(foreignKeyIndexes[i]);
+            if (foreignKey != null) {
+                PropertyMetadata relation = foreignKeys[i];
+                if (relation.isLazy()) {
+                    relation.set(entity, reference(relation.getRelationMetadata(), foreignKey, groups != null ? groups[i] : null));
+                } else {
+                    relation.set(entity, stub(relation.getRelationMetadata(), foreignKey, snapshot));
+                }
+            }
+        }
+        if (joins.length > 0) {
+            mapJoins(resultSet, entity, groups, snapshot);
+        }
+        if (snapshot) {
+            Snapshots.take(metadata, entity);
+        }
+        return (T) entity;
+    }
+
+    /**
+     * 按路径逐级挂到父实体上；新建的关联实体在子级都挂上之后再记录快照，外键列才是完整的
+     */
+    private void mapJoins(ResultSet resultSet, Object entity, Lazy.Group[] groups, boolean snapshot) throws SQLException {
+        Object[] related = new Object[joins.length];
+        Object[] created = new Object[joins.length];
+        for (int i = 0; i < joins.length; i++) {
+            Join join = joins[i];
+            Object owner = join.parent < 0 ? entity : related[join.parent];
+            if (owner == null) {
+                // 父级 LEFT JOIN 未匹配
+                continue;
+            }
+            related[i] = join.map(resultSet, created, i, groups, snapshot);
+            join.relation.set(owner, related[i]);
+        }
+        if (!snapshot) {
+            return;
+        }
+        for (int i = 0; i < joins.length; i++) {
+            if (created[i] != null) {
+                Snapshots.take(joins[i].metadata, created[i]);
+            }
+        }
+    }
+
+    List<T> mapAll(ResultSet resultSet) throws SQLException {
+        Lazy.Group[] groups = new Lazy.Group[groupCount];
+        for (int i = 0; i < foreignKeys.length; i++) {
+            if (foreignKeys[i].isLazy()) {
+                groups[i] = new Lazy.Group(foreignKeys[i].getRelationMetadata());
+            }
+        }
+        for (Join join : joins) {
+            for (int i = 0; i < join.foreignKeys.length; i++) {
+                if (join.foreignKeys[i].isLazy()) {
+                    groups[join.firstGroup + i] = new Lazy.Group(join.foreignKeys[i].getRelationMetadata());
+                }
+            }
+        }
+        List<T> list = new ArrayList<>();
+        while (resultSet.next()) {
+            list.add(map(resultSet, groups, true));
+        }
+        return list;
+    }
+
+    /**
+     * 未关联查询的多对一关系只有外键，放一个只有主键、其他属性为 null 的实例，而不是 null：
+     * update 写回全部列时外键保持不变，fetch() 按它的主键批量加载；外键为 NULL 时关系仍为 null
+     * 事务中已加载过的直接复用
+     */
+    private static Object stub(EntityMetadata related, Object foreignKey, boolean snapshot) {
+        PropertyMetadata idProperty = related.getIdProperty();
+        Object id = idProperty.convert(foreignKey);
+        Map<Object, Object> identities = SessionManager.identityMap(related.getEntityClass());
+        if (identities != null) {
+            Object known = identities.get(id);
+            if (known != null) {
+                return known;
+            }
+        }
+        Object stub = related.newInstance();
+        idProperty.set(stub, id);
+        if (snapshot) {
+            Snapshots.take(related, stub);
+        }
+        return stub;
+    }
+
+    /**
+     * Lazy 关系的引用，事务中已加载过的直接使用
+     */
+    private static Lazy<Object> reference(EntityMetadata related, Object foreignKey, Lazy.Group group) {
+        Object id = related.getIdProperty().convert(foreignKey);
+        Map<Object, Object> identities = SessionManager.identityMap(related.getEntityClass());
+        if (identities != null) {
+            Object known = identities.get(id);
+            if (known != null) {
+                return Lazy.of(known);
+            }
+        }
+        return Lazy.pending(id, group != null ? group : new Lazy.Group(related));
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * 关联表的列，从 firstIndex 开始连续排列，主键在前，外键在后
+     */
+    private static final class Join {
+        private final String path;
+        private final PropertyMetadata relation;
+        // 父级在 joins 中的下标，-1 表示主表
+        private final int parent;
+        private final EntityMetadata metadata;
+        private final PropertyMetadata[] properties;
+        // 未关联查询的多对一关系，与主表一样放只有主键的实例或 Lazy 引用
+        private final PropertyMetadata[] foreignKeys;
+        private final PropertyMetadata[] columns;
+        private final int firstIndex;
+        // foreignKeys 在 Lazy 分组中的起始下标
+        private final int firstGroup;
+        // 交给子级关联映射的关系路径
+        private final List<String> deferred = new ArrayList<>();
+        // 查询了全部列，可以放入事务的实体表
+        private boolean complete;
+
+        private Join(String path, PropertyMetadata relation, int parent, int firstIndex, int firstGroup,
+                     List<String> relations, List<String> selection) {
+            this.path = path;
+            this.relation = relation;
+            this.parent = parent;
+            this.metadata = relation.getRelationMetadata();
+            this.firstIndex = firstIndex;
+            this.firstGroup = firstGroup;
+            String prefix = path + ".";
+            List<PropertyMetadata> scalar = new ArrayList<>();
+            List<PropertyMetadata> stubs = new ArrayList<>();
+            boolean all = true;
+            for (PropertyMetadata property : metadata.getColumnProperties()) {
+                String propertyPath = prefix + property.getName();
+                if (property.isRelation() && relations.contains(propertyPath)) {
+                    deferred.add(propertyPath);
+                } else if (!selection.isEmpty() && !selection.contains(propertyPath)) {
+                    all = false;
+                } else if (property.isRelation()) {
+                    stubs.add(property);
+                } else {
+                    scalar.add(property);
+                }
+            }
+            // 选择了本级或更深一级的属性时都需要主键，以便挂上子级
+            boolean needed = selection.isEmpty();
+            for (String selected : selection) {
+                if (selected.startsWith(prefix)) {
+                    String rest = selected.substring(prefix.length());
+                    if (rest.indexOf('.') < 0 && metadata.getProperty(rest) == null) {
+                        throw new RuntimeException("No such field: " + selected);
+                    }
+                    needed = true;
+                }
+            }
+            if (needed) {
+                scalar.add(0, metadata.getIdProperty());
+            }
+            this.properties = scalar.toArray(new PropertyMetadata[0]);
+            this.foreignKeys = stubs.toArray(new PropertyMetadata[0]);
+            scalar.addAll(stubs);
+            this.columns = scalar.toArray(new PropertyMetadata[0]);
+            this.complete = all;
+        }
+
+        /**
+         * @param created 新建（不是复用）的实体记在 created[slot]
+         */
+        private Object map(ResultSet resultSet, Object[] created, int slot, Lazy.Group[] groups, boolean snapshot)
+                throws SQLException {
+            Object id = resultSet.getObject(firstIndex);
+            if (id == null) {
+                // LEFT JOIN 未匹配
+                return null;
+            }
+            id = properties[0].convert(id);
+            // 事务中已加载过的关联实体直接复用
+            Map<Object, Object> identities = SessionManager.identityMap(metadata.getEntityClass());
+            if (identities != null) {
+                Object known = identities.get(id);
+                if (known != null) {
+                    return known;
+                }
+            }
+            Object foreignEntity = metadata.newInstance();
+            properties[0].set(foreignEntity, id);
+            for (int i = 1; i < properties.length; i++) {
+                PropertyMetadata property = properties[i];
+                property.set(foreignEntity, property.convert(resultSet.getObject(firstIndex + i)));
+            }
+            for (int i = 0; i < foreignKeys.length; i++) {
+                Object foreignKey = resultSet.getObject(firstIndex + properties.length + i);
+                if (foreignKey != null) {
+                    PropertyMetadata foreign = foreignKeys[i];
+                    if (foreign.isLazy()) {
+                        foreign.set(foreignEntity, reference(foreign.getRelationMetadata(), foreignKey,
+                                groups != null ? groups[firstGroup + i] : null));
+                    } else {
+                        foreign.set(foreignEntity, stub(foreign.getRelationMetadata(), foreignKey, snapshot));
+                    }
+                }
+            }
+            if (identities != null && complete) {
+                identities.put(id, foreignEntity);
+            }
+            created[slot] = foreignEntity;
+            return foreignEntity;
+        }
+    }
+}
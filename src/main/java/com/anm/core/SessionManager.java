@@ -1,13 +1,26 @@
 package com.anm.core;
 
 // SessionManager.java
+import javax.sql.DataSource;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * 数据库连接
+ * 连接从连接池借出并绑定到当前线程，事务期间保持绑定直到提交或回滚
+ * 配置了只读副本时，事务外的查询轮询分配到副本；写入、事务内的查询和 readFromPrimary 中的查询走主库
+ * 借不到连接的副本暂时摘除，retryInterval 之后再尝试；全部副本不可用时查询回到主库
  */
 public class SessionManager {
     private static final String URL = "jdbc:mysql://gz-cynosdbmysql-grp-mh2itlkp.sql.tencentcdb.com:29335/aaaaa?nullCatalogMeansCurrent=true&useUnicode=true&serverTimezone=GMT%2b8&characterEncoding=utf-8&useSSL=true";
@@ -15,23 +28,382 @@ public class SessionManager {
     private static final String PASSWORD = "123456mysql";
     private static final Logger LOGGER = Logger.getLogger(SessionManager.class.getName());
 
-    private static ThreadLocal<Connection> connectionHolder = new ThreadLocal<>();
+    private static volatile DataSource dataSource;
+    private static volatile Dialect dialect;
+    private static volatile Dialect detectedDialect;
+
+    private static final ThreadLocal<Session> sessionHolder = new ThreadLocal<>();
+
+    private static volatile List<Replica> replicas = Collections.emptyList();
+    private static final AtomicInteger replicaCursor = new AtomicInteger();
+    private static volatile long replicaRetryIntervalMillis = TimeUnit.SECONDS.toMillis(30);
+    private static volatile long readYourWritesWindowMillis;
+    // 大于 0 时当前线程的查询走主库
+    private static final ThreadLocal<int[]> primaryReads = ThreadLocal.withInitial(() -> new int[1]);
+    // 当前线程最后一次归还主库写连接的时间
+    private static final ThreadLocal<long[]> lastWrite = ThreadLocal.withInitial(() -> new long[1]);
+    // 分片路由：不为 null 时当前线程的连接都取自该数据源
+    private static final ThreadLocal<DataSource> route = new ThreadLocal<>();
+
+    public static void setDataSource(DataSource dataSource) {
+        SessionManager.dataSource = dataSource;
+        SessionManager.detectedDialect = null;
+    }
+
+    /**
+     * 只读副本，替换之前的配置；不传参数表示不使用副本
+     */
+    public static void setReplicas(DataSource... replicas) {
+        List<Replica> list = new ArrayList<>(replicas.length);
+        for (DataSource replica : replicas) {
+            list.add(new Replica(replica));
+        }
+        SessionManager.replicas = Collections.unmodifiableList(list);
+    }
+
+    public static List<DataSource> getReplicas() {
+        List<DataSource> list = new ArrayList<>(replicas.size());
+        for (Replica replica : replicas) {
+            list.add(replica.dataSource);
+        }
+        return list;
+    }
+
+    /**
+     * 当前可用（未被摘除）的副本数
+     */
+    public static int getHealthyReplicaCount() {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (Replica replica : replicas) {
+            if (replica.downUntil <= now) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 副本借用连接失败后摘除的时长，默认 30 秒
+     */
+    public static void setReplicaRetryInterval(long millis) {
+        replicaRetryIntervalMillis = millis;
+    }
+
+    /**
+     * 当前线程写入后的 millis 毫秒内查询走主库，用于副本有复制延迟时读到自己的写入；默认 0 不启用
+     */
+    public static void setReadYourWritesWindow(long millis) {
+        readYourWritesWindowMillis = millis;
+    }
+
+    /**
+     * 在 task 中的查询走主库，用于需要读到刚写入数据的单次调用
+     */
+    public static <V> V readFromPrimary(Callable<V> task) throws Exception {
+        int[] depth = primaryReads.get();
+        depth[0]++;
+        try {
+            return task.call();
+        } finally {
+            depth[0]--;
+        }
+    }
+
+    /**
+     * 包装交给其他线程执行的查询，带上当前线程的主库固定、最后写入时间和分片路由
+     */
+    static <V> Callable<V> inheritRouting(Callable<V> task) {
+        boolean primary = primaryReads.get()[0] > 0;
+        long written = lastWrite.get()[0];
+        DataSource target = route.get();
+        return () -> {
+            int[] depth = primaryReads.get();
+            long[] last = lastWrite.get();
+            long previous = last[0];
+            if (primary) {
+                depth[0]++;
+            }
+            last[0] = Math.max(previous, written);
+            try {
+                return target != null ? onDataSource(target, task) : task.call();
+            } finally {
+                if (primary) {
+                    depth[0]--;
+                }
+                last[0] = previous;
+            }
+        };
+    }
+
+    /**
+     * 在 task 中借用的连接都取自 target，不使用副本；用于分片表
+     * 当前线程已借用连接（如在事务中）时不能切换
+     */
+    static <V> V onDataSource(DataSource target, Callable<V> task) throws SQLException {
+        if (hasSession()) {
+            throw new IllegalStateException("Cannot switch data source while a connection is bound to the current thread");
+        }
+        DataSource previous = route.get();
+        route.set(target);
+        try {
+            return task.call();
+        } catch (SQLException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException(e);
+        } finally {
+            if (previous == null) {
+                route.remove();
+            } else {
+                route.set(previous);
+            }
+        }
+    }
+
+    /**
+     * 指定方言；未指定时根据第一次使用的连接 URL 推断
+     */
+    public static void setDialect(Dialect dialect) {
+        SessionManager.dialect = dialect;
+    }
+
+    static Dialect getDialect(Connection connection) throws SQLException {
+        Dialect current = dialect != null ? dialect : detectedDialect;
+        if (current == null) {
+            current = Dialect.of(connection);
+            detectedDialect = current;
+        }
+        return current;
+    }
+
+    public static DataSource getDataSource() {
+        DataSource current = dataSource;
+        if (current == null) {
+            synchronized (SessionManager.class) {
+                current = dataSource;
+                if (current == null) {
+                    current = new ConnectionPool(URL, USER, PASSWORD);
+                    dataSource = current;
+                }
+            }
+        }
+        return current;
+    }
 
     public static Connection getConnection() throws SQLException {
-        if (connectionHolder.get() == null || connectionHolder.get().isClosed()) {
-            Connection connection = DriverManager.getConnection(URL, USER, PASSWORD);
-            connectionHolder.set(connection);
-            LOGGER.info("Connection established: " + connection.toString());
+        return borrow(false);
+    }
+
+    /**
+     * 查询用的连接：当前线程已借用主库连接（如事务中）时复用它，否则按副本配置选择
+     * 与 close(Connection) 成对调用
+     */
+    static Connection getReadConnection() throws SQLException {
+        if (!hasSession() && route.get() == null) {
+            Connection replica = borrowReplica();
+            if (replica != null) {
+                return replica;
+            }
         }
-        return connectionHolder.get();
+        return borrow(true);
     }
 
-    public static void close() throws SQLException {
-        Connection connection = connectionHolder.get();
-        if (connection != null && !connection.isClosed()) {
-            LOGGER.info("Closing connection: " + connection.toString());
+    /**
+     * 不绑定到线程的查询连接，用于流式查询；由调用方直接关闭
+     */
+    static Connection openReadConnection() throws SQLException {
+        DataSource target = route.get();
+        if (target != null) {
+            return target.getConnection();
+        }
+        Connection replica = borrowReplica();
+        return replica != null ? replica : getDataSource().getConnection();
+    }
+
+    /**
+     * 归还 getReadConnection() 借出的连接
+     */
+    static void close(Connection connection) throws SQLException {
+        Session session = sessionHolder.get();
+        if (session != null && session.connection == connection) {
+            close();
+        } else {
             connection.close();
-            connectionHolder.remove();
+        }
+    }
+
+    private static Connection borrow(boolean read) throws SQLException {
+        Session session = sessionHolder.get();
+        if (session == null || session.connection.isClosed()) {
+            DataSource target = route.get();
+            session = new Session((target != null ? target : getDataSource()).getConnection());
+            sessionHolder.set(session);
+            LOGGER.fine("Connection borrowed: " + session.connection);
+        }
+        if (!read) {
+            session.written = true;
+        }
+        session.depth++;
+        return session.connection;
+    }
+
+    private static boolean hasSession() throws SQLException {
+        Session session = sessionHolder.get();
+        return session != null && !session.connection.isClosed();
+    }
+
+    /**
+     * 轮询选择可用的副本；没有配置、已固定到主库或全部不可用时返回 null
+     */
+    private static Connection borrowReplica() {
+        List<Replica> current = replicas;
+        if (current.isEmpty() || primaryReads.get()[0] > 0) {
+            return null;
+        }
+        long window = readYourWritesWindowMillis;
+        long now = System.currentTimeMillis();
+        if (window > 0 && now - lastWrite.get()[0] < window) {
+            return null;
+        }
+        int start = replicaCursor.getAndIncrement();
+        for (int i = 0; i < current.size(); i++) {
+            Replica replica = current.get(Math.floorMod(start + i, current.size()));
+            if (replica.downUntil > now) {
+                continue;
+            }
+            try {
+                return replica.dataSource.getConnection();
+            } catch (SQLException e) {
+                replica.downUntil = now + replicaRetryIntervalMillis;
+                LOGGER.log(Level.WARNING, "Replica unavailable, removed for " + replicaRetryIntervalMillis + "ms: "
+                        + replica.dataSource, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 与 getConnection() 成对调用；最外层调用归还连接，事务中的连接由 TransactionManager 归还
+     */
+    public static void close() throws SQLException {
+        Session session = sessionHolder.get();
+        if (session == null) {
+            return;
+        }
+        if (session.depth > 0) {
+            session.depth--;
+        }
+        if (session.depth == 0 && !session.transactional) {
+            release(session);
+        }
+    }
+
+    public static boolean isTransactionActive() {
+        Session session = sessionHolder.get();
+        return session != null && session.transactional;
+    }
+
+    /**
+     * 当前事务结束（提交或回滚）后执行；不在事务中时立即执行
+     */
+    static void afterCompletion(Runnable action) {
+        Session session = sessionHolder.get();
+        if (session != null && session.transactional) {
+            session.afterCompletion.add(action);
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * 当前事务中某个实体类已加载的实例，按主键索引；不在事务中时返回 null
+     * 事务结束时随会话一起丢弃
+     */
+    static Map<Object, Object> identityMap(Class<?> entityClass) {
+        Session session = sessionHolder.get();
+        if (session == null || !session.transactional) {
+            return null;
+        }
+        return session.identities.computeIfAbsent(entityClass, type -> new HashMap<>());
+    }
+
+    /**
+     * 当前事务中实体的快照，按对象身份索引；不在事务中时返回 null
+     * 事务结束时随会话一起丢弃，回滚后不会留下与数据库不一致的快照
+     */
+    static Map<Object, Object[]> snapshots() {
+        Session session = sessionHolder.get();
+        if (session == null || !session.transactional) {
+            return null;
+        }
+        return session.snapshots;
+    }
+
+    static void beginTransaction() throws SQLException {
+        Connection connection = getConnection();
+        try {
+            connection.setAutoCommit(false);
+            sessionHolder.get().transactional = true;
+        } finally {
+            close();
+        }
+    }
+
+    static void endTransaction() throws SQLException {
+        Session session = sessionHolder.get();
+        if (session == null) {
+            return;
+        }
+        session.transactional = false;
+        try {
+            if (!session.connection.isClosed()) {
+                session.connection.setAutoCommit(true);
+            }
+        } finally {
+            try {
+                release(session);
+            } finally {
+                for (Runnable action : session.afterCompletion) {
+                    action.run();
+                }
+            }
+        }
+    }
+
+    private static void release(Session session) throws SQLException {
+        sessionHolder.remove();
+        if (session.written) {
+            lastWrite.get()[0] = System.currentTimeMillis();
+        }
+        if (!session.connection.isClosed()) {
+            LOGGER.fine("Returning connection: " + session.connection);
+            session.connection.close();
+        }
+    }
+
+    private static final class Session {
+        private final Connection connection;
+        private int depth;
+        private boolean transactional;
+        // 借用过写连接（非查询），归还时记录写入时间
+        private boolean written;
+        private final List<Runnable> afterCompletion = new ArrayList<>();
+        private final Map<Class<?>, Map<Object, Object>> identities = new HashMap<>();
+        private final Map<Object, Object[]> snapshots = new IdentityHashMap<>();
+
+        private Session(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    private static final class Replica {
+        private final DataSource dataSource;
+        // 摘除到该时间（毫秒），之前不分配查询
+        private volatile long downUntil;
+
+        private Replica(DataSource dataSource) {
+            this.dataSource = dataSource;
         }
     }
 }
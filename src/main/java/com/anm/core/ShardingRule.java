@@ -0,0 +1,150 @@
+package com.anm.core;
+
+// ShardingRule.java
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * 水平分片规则：一张逻辑表按分片键分布在多个库中，各库表结构相同
+ * 用 register 绑定到实体类后，该实体的 Repository 按分片键把写入和带分片键条件的查询路由到单个分片，
+ * 其他查询并行发往全部分片后合并
+ * 分片表的操作不参与 TransactionManager 事务
+ * 各分片的自增主键互相重复，插入（包括 upsert 和 bulkLoad）的实体必须指定主键，如取自全局的主键生成器，否则抛出异常
+ */
+public final class ShardingRule {
+    private static final ConcurrentMap<Class<?>, ShardingRule> RULES = new ConcurrentHashMap<>();
+
+    private final String property;
+    private final List<DataSource> shards;
+    private final ToIntFunction<Object> strategy;
+
+    private ShardingRule(String property, DataSource[] shards, ToIntFunction<Object> strategy) {
+        if (shards.length == 0) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.property = property;
+        this.shards = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(shards)));
+        this.strategy = strategy;
+    }
+
+    /**
+     * 按分片键取模：数值取 key % n，其他类型取 hashCode() % n
+     */
+    public static ShardingRule modulo(String property, DataSource... shards) {
+        int count = shards.length;
+        return new ShardingRule(property, shards, key -> key instanceof Number
+                ? (int) Math.floorMod(((Number) key).longValue(), (long) count)
+                : Math.floorMod(key.hashCode(), count));
+    }
+
+    /**
+     * 按分片键的数值范围：key &lt; upperBounds[0] 在第一个分片，依次类推，不小于最后一个上界的在最后一个分片
+     * @param upperBounds 递增的上界（不含），个数比分片数少一
+     */
+    public static ShardingRule range(String property, long[] upperBounds, DataSource... shards) {
+        if (upperBounds.length != shards.length - 1) {
+            throw new IllegalArgumentException("Expected " + (shards.length - 1) + " upper bounds for "
+                    + shards.length + " shards, got " + upperBounds.length);
+        }
+        long[] bounds = upperBounds.clone();
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] <= bounds[i - 1]) {
+                throw new IllegalArgumentException("Upper bounds must be increasing: " + Arrays.toString(bounds));
+            }
+        }
+        return new ShardingRule(property, shards, key -> {
+            if (!(key instanceof Number)) {
+                throw new RuntimeException("Range sharding key must be a number: " + key);
+            }
+            long value = ((Number) key).longValue();
+            for (int i = 0; i < bounds.length; i++) {
+                if (value < bounds[i]) {
+                    return i;
+                }
+            }
+            return bounds.length;
+        });
+    }
+
+    /**
+     * 为实体类设置分片规则，rule 为 null 时取消
+     */
+    public static void register(Class<?> entityClass, ShardingRule rule) {
+        if (rule == null) {
+            RULES.remove(entityClass);
+            return;
+        }
+        if (EntityMetadata.of(entityClass).getProperty(rule.property) == null) {
+            throw new RuntimeException("No such field: " + rule.property);
+        }
+        RULES.put(entityClass, rule);
+    }
+
+    static ShardingRule of(Class<?> entityClass) {
+        return RULES.isEmpty() ? null : RULES.get(entityClass);
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    public List<DataSource> getShards() {
+        return shards;
+    }
+
+    /**
+     * 分片键的值所在的分片
+     */
+    public DataSource shardOf(Object key) {
+        if (key == null) {
+            throw new RuntimeException("Sharding key " + property + " must not be null");
+        }
+        return shards.get(strategy.applyAsInt(key));
+    }
+
+    /**
+     * 查询需要访问的分片：条件中有分片键的等值或 IN 条件时只取命中的分片，否则为全部分片
+     */
+    List<DataSource> route(QueryWrapper<?> wrapper) {
+        Set<Integer> matched = null;
+        for (Condition condition : wrapper.getConditionList()) {
+            if (!condition.getProperty().equals(property)) {
+                continue;
+            }
+            Set<Integer> indexes = new TreeSet<>();
+            if (condition.getType() == ConditionType.EQ && condition.getValue() != null) {
+                indexes.add(strategy.applyAsInt(condition.getValue()));
+            } else if (condition.getType() == ConditionType.IN) {
+                for (Object value : (Collection<?>) condition.getValue()) {
+                    if (value != null) {
+                        indexes.add(strategy.applyAsInt(value));
+                    }
+                }
+            } else {
+                continue;
+            }
+            if (matched == null) {
+                matched = indexes;
+            } else {
+                matched.retainAll(indexes);
+            }
+        }
+        if (matched == null) {
+            return shards;
+        }
+        List<DataSource> routed = new ArrayList<>(matched.size());
+        for (int index : matched) {
+            routed.add(shards.get(index));
+        }
+        return routed;
+    }
+}
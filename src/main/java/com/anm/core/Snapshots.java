@@ -0,0 +1,60 @@
+package com.anm.core;
+
+// Snapshots.java
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 实体快照
+ * 记录事务中从数据库加载或写入时的列值，update 时对比出修改过的列
+ * 快照按对象身份保存在当前事务的会话中，提交或回滚时随会话一起丢弃；事务外不记录，update 写入全部列
+ */
+final class Snapshots {
+
+    private Snapshots() {
+    }
+
+    /**
+     * 记录除主键外各列的当前值；不在事务中时不做任何事
+     */
+    static void take(EntityMetadata metadata, Object entity) {
+        Map<Object, Object[]> snapshots = SessionManager.snapshots();
+        if (snapshots == null) {
+            return;
+        }
+        List<PropertyMetadata> properties = metadata.getColumnProperties();
+        Object[] values = new Object[properties.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = properties.get(i).getColumnValue(entity);
+        }
+        snapshots.put(entity, values);
+    }
+
+    static void remove(Object entity) {
+        Map<Object, Object[]> snapshots = SessionManager.snapshots();
+        if (snapshots != null) {
+            snapshots.remove(entity);
+        }
+    }
+
+    /**
+     * 与快照相比修改过的列，下标对应 getColumnProperties()；没有快照时返回 null
+     */
+    static BitSet dirty(EntityMetadata metadata, Object entity) {
+        Map<Object, Object[]> snapshots = SessionManager.snapshots();
+        Object[] values = snapshots != null ? snapshots.get(entity) : null;
+        if (values == null) {
+            return null;
+        }
+        List<PropertyMetadata> properties = metadata.getColumnProperties();
+        BitSet dirty = new BitSet(values.length);
+        for (int i = 0; i < values.length; i++) {
+            if (!Objects.equals(values[i], properties.get(i).getColumnValue(entity))) {
+                dirty.set(i);
+            }
+        }
+        return dirty;
+    }
+}
@@ -0,0 +1,277 @@
+package com.anm.core;
+
+// SqlBuilder.java
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 根据查询形状生成 SQL，关联表别名按首次出现的顺序分配
+ */
+final class SqlBuilder {
+    static final String ROOT_ALIAS = "t0";
+
+    private final EntityMetadata metadata;
+    private final QueryWrapper<?> wrapper;
+    // 关系路径（role、dept.company）到关联表别名
+    private final Map<String, String> joinAliases = new LinkedHashMap<>();
+    private final Map<String, EntityMetadata> joinMetadata = new HashMap<>();
+    private final StringBuilder joins = new StringBuilder();
+    private final List<String> selection;
+    private final String where;
+    private final String orderBy;
+
+    SqlBuilder(EntityMetadata metadata, QueryWrapper<?> wrapper) {
+        this.metadata = metadata;
+        this.wrapper = wrapper;
+        this.selection = new ArrayList<>(wrapper.getSelection());
+        this.where = buildWhere();
+        this.orderBy = buildOrderBy();
+        for (String path : selection) {
+            // 投影中的关联属性加入 JOIN
+            if (path.indexOf('.') > 0) {
+                column(path);
+            }
+        }
+    }
+
+    String select(boolean paged) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        newMapper().appendColumns(sql, ROOT_ALIAS, joinAliases);
+        appendFrom(sql);
+        sql.append(where).append(orderBy);
+        if (paged) {
+            sql.append(" LIMIT ? OFFSET ?");
+        }
+        return sql.toString();
+    }
+
+    String count() {
+        StringBuilder sql = new StringBuilder("SELECT COUNT(*)");
+        appendFrom(sql);
+        return sql.append(where).toString();
+    }
+
+    /**
+     * 用于估算行数的查询，不含排序和分页
+     */
+    String estimate() {
+        StringBuilder sql = new StringBuilder("SELECT 1");
+        appendFrom(sql);
+        return sql.append(where).toString();
+    }
+
+    String exists() {
+        StringBuilder sql = new StringBuilder("SELECT 1");
+        appendFrom(sql);
+        return sql.append(where).append(" LIMIT 1").toString();
+    }
+
+    /**
+     * 游标分页：按 orders 排序，afterCursor 时只取排在游标之后的记录，LIMIT 绑定为参数
+     */
+    String keyset(List<Order> orders, boolean afterCursor) {
+        // 先解析排序列，其中的关联属性可能追加 JOIN
+        List<String> columns = new ArrayList<>(orders.size());
+        for (Order order : orders) {
+            columns.add(column(order.getProperty()));
+            // 下一页的游标取自排序列，投影中必须包含
+            if (!selection.isEmpty() && !selection.contains(order.getProperty())) {
+                selection.add(order.getProperty());
+            }
+        }
+        StringBuilder sql = new StringBuilder("SELECT ");
+        newMapper().appendColumns(sql, ROOT_ALIAS, joinAliases);
+        appendFrom(sql);
+        sql.append(where);
+        if (afterCursor) {
+            sql.append(where.isEmpty() ? " WHERE " : " AND ");
+            appendKeysetPredicate(sql, orders, columns);
+        }
+        sql.append(" ORDER BY ");
+        for (int i = 0; i < orders.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append(columns.get(i)).append(' ').append(orders.get(i).getDirection());
+        }
+        return sql.append(" LIMIT ?").toString();
+    }
+
+    /**
+     * 排序方向一致时用行值比较 (a, b) > (?, ?)，便于走联合索引；方向不一致时展开为
+     * (a > ?) OR (a = ? AND b < ?)
+     */
+    private static void appendKeysetPredicate(StringBuilder sql, List<Order> orders, List<String> columns) {
+        if (isUniform(orders)) {
+            String operator = orders.get(0).isAscending() ? " > " : " < ";
+            if (columns.size() == 1) {
+                sql.append(columns.get(0)).append(operator).append('?');
+                return;
+            }
+            sql.append('(').append(String.join(", ", columns)).append(')').append(operator).append('(');
+            for (int i = 0; i < columns.size(); i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(')');
+            return;
+        }
+        sql.append('(');
+        for (int i = 0; i < orders.size(); i++) {
+            sql.append(i == 0 ? "(" : " OR (");
+            for (int j = 0; j < i; j++) {
+                sql.append(columns.get(j)).append(" = ? AND ");
+            }
+            sql.append(columns.get(i)).append(orders.get(i).isAscending() ? " > ?" : " < ?").append(')');
+        }
+        sql.append(')');
+    }
+
+    /**
+     * 游标分页的参数，顺序与 appendKeysetPredicate 生成的占位符一致
+     */
+    static void bindKeyset(List<Order> orders, Object[] values, List<Object> params) {
+        if (isUniform(orders)) {
+            for (Object value : values) {
+                params.add(value);
+            }
+            return;
+        }
+        for (int i = 0; i < values.length; i++) {
+            for (int j = 0; j <= i; j++) {
+                params.add(values[j]);
+            }
+        }
+    }
+
+    /**
+     * 游标分页的排序：查询的 orderBy 加上主键，保证排序键唯一
+     */
+    static List<Order> keysetOrders(EntityMetadata metadata, QueryWrapper<?> wrapper) {
+        List<Order> orders = new ArrayList<>(wrapper.getOrderByList());
+        String idName = metadata.getIdProperty().getName();
+        for (Order order : orders) {
+            if (order.getProperty().equals(idName)) {
+                return orders;
+            }
+        }
+        orders.add(new Order(idName, orders.isEmpty() || orders.get(orders.size() - 1).isAscending()));
+        return orders;
+    }
+
+    private static boolean isUniform(List<Order> orders) {
+        for (Order order : orders) {
+            if (order.isAscending() != orders.get(0).isAscending()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    RowMapper<?> newMapper() {
+        return new RowMapper<>(metadata, new ArrayList<>(joinAliases.keySet()), selection);
+    }
+
+    private void appendFrom(StringBuilder sql) {
+        sql.append(" FROM ").append(metadata.getTableName()).append(' ').append(ROOT_ALIAS).append(joins);
+    }
+
+    private String buildWhere() {
+        if (wrapper.getConditionList().isEmpty()) {
+            return "";
+        }
+        StringBuilder sql = new StringBuilder(" WHERE ");
+        for (Condition condition : wrapper.getConditionList()) {
+            String column = column(condition.getProperty());
+            if (condition.isNullCheck()) {
+                sql.append(column).append(" IS NULL");
+            } else if (condition.getType() == ConditionType.IN && condition.getPlaceholderCount() == 0) {
+                // 空列表不匹配任何行
+                sql.append("1 = 0");
+            } else {
+                sql.append(column);
+                switch (condition.getType()) {
+                    case LIKE:
+                        sql.append(" LIKE ?");
+                        break;
+                    case IN:
+                        int count = condition.getPlaceholderCount();
+                        sql.append(" IN (");
+                        for (int i = 0; i < count; i++) {
+                            sql.append(i == 0 ? "?" : ", ?");
+                        }
+                        sql.append(')');
+                        break;
+                    case GT:
+                        sql.append(" > ?");
+                        break;
+                    case LT:
+                        sql.append(" < ?");
+                        break;
+                    default:
+                        sql.append(" = ?");
+                        break;
+                }
+            }
+            sql.append(" AND ");
+        }
+        sql.setLength(sql.length() - 5);
+        return sql.toString();
+    }
+
+    private String buildOrderBy() {
+        if (wrapper.getOrderByList().isEmpty()) {
+            return "";
+        }
+        StringBuilder sql = new StringBuilder(" ORDER BY ");
+        for (Order order : wrapper.getOrderByList()) {
+            sql.append(column(order.getProperty())).append(' ').append(order.getDirection()).append(", ");
+        }
+        sql.setLength(sql.length() - 2);
+        return sql.toString();
+    }
+
+    /**
+     * 属性路径转换为带别名的列，路径上的每一级关系按需加入 LEFT JOIN，如 dept.company.name
+     */
+    String column(String path) {
+        int dot = path.lastIndexOf('.');
+        if (dot < 0) {
+            return ROOT_ALIAS + "." + columnName(metadata, path);
+        }
+        String relationPath = path.substring(0, dot);
+        String joinAlias = join(relationPath);
+        return joinAlias + "." + columnName(joinMetadata.get(relationPath), path.substring(dot + 1));
+    }
+
+    /**
+     * 关系路径对应的关联表别名，共同的前缀只 JOIN 一次，父级总是先于子级加入
+     */
+    private String join(String relationPath) {
+        String joinAlias = joinAliases.get(relationPath);
+        if (joinAlias != null) {
+            return joinAlias;
+        }
+        int dot = relationPath.lastIndexOf('.');
+        String parentAlias = ROOT_ALIAS;
+        EntityMetadata parentMetadata = metadata;
+        if (dot > 0) {
+            String parentPath = relationPath.substring(0, dot);
+            parentAlias = join(parentPath);
+            parentMetadata = joinMetadata.get(parentPath);
+        }
+        PropertyMetadata relation = parentMetadata.getRelation(relationPath.substring(dot + 1));
+        EntityMetadata related = relation.getRelationMetadata();
+        joinAlias = "t" + (joinAliases.size() + 1);
+        joinAliases.put(relationPath, joinAlias);
+        joinMetadata.put(relationPath, related);
+        joins.append(" LEFT JOIN ").append(related.getTableName()).append(' ').append(joinAlias)
+                .append(" ON ").append(parentAlias).append('.').append(relation.getColumnName())
+                .append(" = ").append(joinAlias).append('.').append(related.getIdProperty().getColumnName());
+        return joinAlias;
+    }
+
+    private static String columnName(EntityMetadata metadata, String name) {
+        PropertyMetadata property = metadata.getProperty(name);
+        return property != null ? property.getColumnName() : EntityMetadata.toColumnName(name);
+    }
+}
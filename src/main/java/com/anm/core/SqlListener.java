@@ -0,0 +1,26 @@
+package com.anm.core;
+
+// SqlListener.java
+
+/**
+ * SQL 执行监听，通过 SqlMetrics.addListener 注册
+ * 回调在执行语句的线程上同步调用，实现应尽量轻量
+ */
+public interface SqlListener {
+    /**
+     * 一条语句（或一批批量语句）执行结束
+     * @param sql 语句文本，同一形状的查询文本相同
+     * @param elapsedNanos 从准备语句到读完结果的耗时
+     * @param rows 返回或影响的行数，未知时为 -1
+     * @param success 是否成功
+     */
+    default void onStatement(String sql, long elapsedNanos, int rows, boolean success) {
+    }
+
+    /**
+     * 从连接池借到连接
+     * @param waitNanos 借用等待的耗时，包括新建物理连接和校验
+     */
+    default void onConnectionAcquired(long waitNanos) {
+    }
+}
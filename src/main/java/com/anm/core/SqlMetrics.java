@@ -0,0 +1,220 @@
+package com.anm.core;
+
+// SqlMetrics.java
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SQL 执行统计
+ * 按语句文本（即查询形状）统计次数、行数和耗时分布，另统计连接池借用等待；可注册到 JMX，也可添加 SqlListener
+ * SQL 文本只在 FINE 级别记录，或按 logSampleRate 每 N 条在 INFO 级别记录一条
+ */
+public final class SqlMetrics {
+    private static final Logger LOGGER = Logger.getLogger(SqlMetrics.class.getName());
+    private static final String OBJECT_NAME = "com.anm.core:type=SqlMetrics";
+    // 形状数超过上限后归入同一项，避免拼接 SQL 的调用方撑大统计表
+    private static final int MAX_SHAPES = 1024;
+    private static final String OTHER = "(other)";
+
+    private static final ConcurrentMap<String, StatementStats> STATEMENTS = new ConcurrentHashMap<>();
+    private static volatile StatementStats poolWait = new StatementStats("(pool wait)");
+    private static final List<SqlListener> LISTENERS = new CopyOnWriteArrayList<>();
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    private static volatile int logSampleRate;
+
+    private SqlMetrics() {
+    }
+
+    public static void addListener(SqlListener listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void removeListener(SqlListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * 每 rate 条语句在 INFO 级别记录一条 SQL 和耗时，0 表示不记录（默认）
+     */
+    public static void setLogSampleRate(int rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("rate must not be negative: " + rate);
+        }
+        logSampleRate = rate;
+    }
+
+    public static int getLogSampleRate() {
+        return logSampleRate;
+    }
+
+    /**
+     * 按总耗时从高到低排列
+     */
+    public static List<StatementStats> getStatements() {
+        List<StatementStats> list = new ArrayList<>(STATEMENTS.values());
+        list.sort(Comparator.comparingDouble(StatementStats::getTotalMillis).reversed());
+        return list;
+    }
+
+    public static StatementStats getStatement(String sql) {
+        return STATEMENTS.get(sql);
+    }
+
+    public static StatementStats getPoolWait() {
+        return poolWait;
+    }
+
+    public static void reset() {
+        STATEMENTS.clear();
+        poolWait = new StatementStats("(pool wait)");
+    }
+
+    /**
+     * 注册到平台 MBeanServer，重复调用无影响
+     */
+    public static void registerMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // 已注册
+        } catch (JMException e) {
+            throw new RuntimeException("Failed to register " + OBJECT_NAME, e);
+        }
+    }
+
+    public static void unregisterMBean() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            throw new RuntimeException("Failed to unregister " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * 开始计时，在 try-with-resources 中使用；成功时调用 success，未调用就关闭视为失败
+     */
+    static Timer start(String sql) {
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Executing SQL: " + sql);
+        }
+        return new Timer(sql, System.nanoTime());
+    }
+
+    static void recordPoolWait(long nanos) {
+        poolWait.record(nanos, -1, true);
+        for (SqlListener listener : LISTENERS) {
+            try {
+                listener.onConnectionAcquired(nanos);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "SqlListener failed", e);
+            }
+        }
+    }
+
+    private static void record(String sql, long nanos, int rows, boolean success) {
+        StatementStats stats = STATEMENTS.get(sql);
+        if (stats == null) {
+            String key = STATEMENTS.size() < MAX_SHAPES ? sql : OTHER;
+            stats = STATEMENTS.computeIfAbsent(key, StatementStats::new);
+        }
+        stats.record(nanos, rows, success);
+        int rate = logSampleRate;
+        if (rate > 0 && SEQUENCE.incrementAndGet() % rate == 0) {
+            LOGGER.info(String.format("SQL %.3fms, %d rows%s: %s", nanos / 1e6, rows, success ? "" : ", failed", sql));
+        }
+        for (SqlListener listener : LISTENERS) {
+            try {
+                listener.onStatement(sql, nanos, rows, success);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "SqlListener failed", e);
+            }
+        }
+    }
+
+    static final class Timer implements AutoCloseable {
+        private final String sql;
+        private final long start;
+        private int rows = -1;
+        private boolean success;
+
+        private Timer(String sql, long start) {
+            this.sql = sql;
+            this.start = start;
+        }
+
+        /**
+         * @param rows 返回或影响的行数，未知时为 -1
+         */
+        void success(int rows) {
+            this.rows = rows;
+            this.success = true;
+        }
+
+        @Override
+        public void close() {
+            record(sql, System.nanoTime() - start, rows, success);
+        }
+    }
+
+    private static final class Bean implements SqlMetricsMXBean {
+        @Override
+        public long getStatementCount() {
+            long total = 0;
+            for (StatementStats stats : STATEMENTS.values()) {
+                total += stats.getCount();
+            }
+            return total;
+        }
+
+        @Override
+        public long getErrorCount() {
+            long total = 0;
+            for (StatementStats stats : STATEMENTS.values()) {
+                total += stats.getErrorCount();
+            }
+            return total;
+        }
+
+        @Override
+        public List<StatementStats> getStatements() {
+            return SqlMetrics.getStatements();
+        }
+
+        @Override
+        public StatementStats getPoolWait() {
+            return SqlMetrics.getPoolWait();
+        }
+
+        @Override
+        public int getLogSampleRate() {
+            return SqlMetrics.getLogSampleRate();
+        }
+
+        @Override
+        public void setLogSampleRate(int rate) {
+            SqlMetrics.setLogSampleRate(rate);
+        }
+
+        @Override
+        public void reset() {
+            SqlMetrics.reset();
+        }
+    }
+}
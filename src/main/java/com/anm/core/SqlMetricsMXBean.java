@@ -0,0 +1,26 @@
+package com.anm.core;
+
+// SqlMetricsMXBean.java
+import java.util.List;
+
+/**
+ * SqlMetrics 的 JMX 接口，ObjectName 为 com.anm.core:type=SqlMetrics
+ */
+public interface SqlMetricsMXBean {
+    long getStatementCount();
+
+    long getErrorCount();
+
+    /**
+     * 按语句形状统计，按总耗时从高到低排列
+     */
+    List<StatementStats> getStatements();
+
+    StatementStats getPoolWait();
+
+    int getLogSampleRate();
+
+    void setLogSampleRate(int rate);
+
+    void reset();
+}
@@ -0,0 +1,73 @@
+package com.anm.core;
+
+// SqlTemplate.java
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 缓存的 SQL 文本及对应的行映射，参数按条件顺序绑定
+ */
+final class SqlTemplate {
+    private final String sql;
+    private final RowMapper<?> mapper;
+    private final List<Order> keysetOrders;
+
+    SqlTemplate(String sql, RowMapper<?> mapper) {
+        this(sql, mapper, null);
+    }
+
+    SqlTemplate(String sql, RowMapper<?> mapper, List<Order> keysetOrders) {
+        this.sql = sql;
+        this.mapper = mapper;
+        this.keysetOrders = keysetOrders;
+    }
+
+    String getSql() {
+        return sql;
+    }
+
+    RowMapper<?> getMapper() {
+        return mapper;
+    }
+
+    /**
+     * 游标分页实际使用的排序，包括补上的主键
+     */
+    List<Order> getKeysetOrders() {
+        return keysetOrders;
+    }
+
+    /**
+     * 占位符个数补齐到 2 的幂，列表长度不同的语句共用少量 SQL 文本
+     */
+    static int padPlaceholders(int count) {
+        return count <= 1 ? count : Integer.highestOneBit(count - 1) << 1;
+    }
+
+    /**
+     * 按条件顺序取参数值；IN 列表用最后一个值补齐到占位符个数
+     */
+    static List<Object> bind(QueryWrapper<?> wrapper) {
+        List<Object> params = new ArrayList<>(wrapper.getConditionList().size() + 2);
+        for (Condition condition : wrapper.getConditionList()) {
+            if (condition.isNullCheck()) {
+                continue;
+            }
+            if (condition.getType() == ConditionType.IN) {
+                Object last = null;
+                Collection<?> values = (Collection<?>) condition.getValue();
+                for (Object value : values) {
+                    params.add(value);
+                    last = value;
+                }
+                for (int i = values.size(); i < condition.getPlaceholderCount(); i++) {
+                    params.add(last);
+                }
+            } else {
+                params.add(condition.getValue());
+            }
+        }
+        return params;
+    }
+}
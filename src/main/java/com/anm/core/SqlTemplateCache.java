@@ -0,0 +1,189 @@
+package com.anm.core;
+
+// SqlTemplateCache.java
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * SQL 模板缓存
+ * 每个实体一份；查询按 QueryWrapper 的形状缓存，增删改的 SQL 只构建一次
+ */
+final class SqlTemplateCache {
+    // 每类查询最多缓存的形状数，超过后新形状不再缓存
+    private static final int MAX_TEMPLATES = 512;
+    private static final ConcurrentMap<Class<?>, SqlTemplateCache> CACHES = new ConcurrentHashMap<>();
+
+    private final EntityMetadata metadata;
+    private final ConcurrentMap<String, SqlTemplate> selects = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SqlTemplate> pagedSelects = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SqlTemplate> counts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SqlTemplate> exists = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SqlTemplate> estimates = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SqlTemplate> keysetFirst = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SqlTemplate> keysetNext = new ConcurrentHashMap<>();
+    private final String insertSql;
+    private final String insertWithIdSql;
+    private final String deleteByIdSql;
+    private final ConcurrentMap<Integer, String> deleteByIds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<BitSet, String> updates = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> upserts = new ConcurrentHashMap<>();
+
+    private SqlTemplateCache(EntityMetadata metadata) {
+        this.metadata = metadata;
+        String tableName = metadata.getTableName();
+        String idColumn = metadata.getIdProperty().getColumnName();
+
+        this.insertSql = buildInsert(false);
+        this.insertWithIdSql = buildInsert(true);
+
+        this.deleteByIdSql = "DELETE FROM " + tableName + " WHERE " + idColumn + " = ?";
+    }
+
+    static SqlTemplateCache of(EntityMetadata metadata) {
+        SqlTemplateCache cache = CACHES.get(metadata.getEntityClass());
+        return cache != null ? cache : CACHES.computeIfAbsent(metadata.getEntityClass(), k -> new SqlTemplateCache(metadata));
+    }
+
+    SqlTemplate select(QueryWrapper<?> wrapper, boolean paged) {
+        if (paged) {
+            return lookup(pagedSelects, wrapper, builder -> new SqlTemplate(builder.select(true), builder.newMapper()));
+        }
+        return lookup(selects, wrapper, builder -> new SqlTemplate(builder.select(false), builder.newMapper()));
+    }
+
+    SqlTemplate count(QueryWrapper<?> wrapper) {
+        return lookup(counts, wrapper, builder -> new SqlTemplate(builder.count(), null));
+    }
+
+    SqlTemplate exists(QueryWrapper<?> wrapper) {
+        return lookup(exists, wrapper, builder -> new SqlTemplate(builder.exists(), null));
+    }
+
+    SqlTemplate estimate(QueryWrapper<?> wrapper) {
+        return lookup(estimates, wrapper, builder -> new SqlTemplate(builder.estimate(), null));
+    }
+
+    SqlTemplate keyset(QueryWrapper<?> wrapper, boolean afterCursor) {
+        return lookup(afterCursor ? keysetNext : keysetFirst, wrapper, builder -> {
+            List<Order> orders = SqlBuilder.keysetOrders(metadata, wrapper);
+            String sql = builder.keyset(orders, afterCursor);
+            return new SqlTemplate(sql, builder.newMapper(), orders);
+        });
+    }
+
+    String insert() {
+        return insertSql;
+    }
+
+    /**
+     * 主键由调用方指定的 INSERT，主键是第一个参数
+     */
+    String insertWithId() {
+        return insertWithIdSql;
+    }
+
+    private String buildInsert(boolean withId) {
+        StringBuilder sql = new StringBuilder("INSERT INTO " + metadata.getTableName() + " (");
+        StringBuilder values = new StringBuilder("VALUES (");
+        if (withId) {
+            sql.append(metadata.getIdProperty().getColumnName()).append(", ");
+            values.append("?, ");
+        }
+        for (PropertyMetadata property : metadata.getColumnProperties()) {
+            sql.append(property.getColumnName()).append(", ");
+            values.append("?, ");
+        }
+        sql.delete(sql.length() - 2, sql.length()).append(") ");
+        values.delete(values.length() - 2, values.length()).append(")");
+        return sql.append(values).toString();
+    }
+
+    /**
+     * 更新 dirty 中各列的 UPDATE，下标对应 getColumnProperties()
+     */
+    String update(BitSet dirty) {
+        String sql = updates.get(dirty);
+        if (sql == null) {
+            List<PropertyMetadata> properties = metadata.getColumnProperties();
+            StringBuilder builder = new StringBuilder("UPDATE ").append(metadata.getTableName()).append(" SET ");
+            for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+                builder.append(properties.get(i).getColumnName()).append(" = ?, ");
+            }
+            builder.setLength(builder.length() - 2);
+            sql = builder.append(" WHERE ").append(metadata.getIdProperty().getColumnName()).append(" = ?").toString();
+            if (updates.size() < MAX_TEMPLATES) {
+                updates.putIfAbsent((BitSet) dirty.clone(), sql);
+            }
+        }
+        return sql;
+    }
+
+    /**
+     * 插入或更新，参数与 insert()、insertWithId() 相同；updates 是冲突时更新的列，下标对应 getColumnProperties()
+     */
+    String upsert(Dialect dialect, boolean withId, BitSet updates) {
+        String key = dialect.name() + ' ' + withId + ' ' + updates;
+        String sql = upserts.get(key);
+        if (sql == null) {
+            List<PropertyMetadata> properties = metadata.getColumnProperties();
+            List<String> columns = new ArrayList<>();
+            if (withId) {
+                columns.add(metadata.getIdProperty().getColumnName());
+            }
+            for (PropertyMetadata property : properties) {
+                columns.add(property.getColumnName());
+            }
+            List<String> keyColumns = new ArrayList<>();
+            for (PropertyMetadata property : metadata.getUniqueKey()) {
+                keyColumns.add(property.getColumnName());
+            }
+            List<String> updateColumns = new ArrayList<>();
+            for (int i = updates.nextSetBit(0); i >= 0; i = updates.nextSetBit(i + 1)) {
+                updateColumns.add(properties.get(i).getColumnName());
+            }
+            sql = dialect.upsert(metadata.getTableName(), metadata.getIdProperty().getColumnName(), columns, keyColumns, updateColumns);
+            if (upserts.size() < MAX_TEMPLATES) {
+                upserts.putIfAbsent(key, sql);
+            }
+        }
+        return sql;
+    }
+
+    String deleteById() {
+        return deleteByIdSql;
+    }
+
+    /**
+     * DELETE ... IN (...)，占位符个数见 SqlTemplate.padPlaceholders
+     */
+    String deleteByIds(int count) {
+        int placeholders = SqlTemplate.padPlaceholders(count);
+        String sql = deleteByIds.get(placeholders);
+        if (sql == null) {
+            StringBuilder builder = new StringBuilder("DELETE FROM ").append(metadata.getTableName())
+                    .append(" WHERE ").append(metadata.getIdProperty().getColumnName()).append(" IN (");
+            for (int i = 0; i < placeholders; i++) {
+                builder.append(i == 0 ? "?" : ", ?");
+            }
+            sql = builder.append(')').toString();
+            deleteByIds.putIfAbsent(placeholders, sql);
+        }
+        return sql;
+    }
+
+    private SqlTemplate lookup(ConcurrentMap<String, SqlTemplate> cache, QueryWrapper<?> wrapper, Function<SqlBuilder, SqlTemplate> factory) {
+        String shape = wrapper.getShape();
+        SqlTemplate template = cache.get(shape);
+        if (template == null) {
+            template = factory.apply(new SqlBuilder(metadata, wrapper));
+            if (cache.size() < MAX_TEMPLATES) {
+                cache.putIfAbsent(shape, template);
+            }
+        }
+        return template;
+    }
+}
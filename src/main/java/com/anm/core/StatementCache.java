@@ -0,0 +1,284 @@
+package com.anm.core;
+
+// StatementCache.java
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 语句缓存
+ * 每个物理连接一份，按 SQL 文本缓存 PreparedStatement，超出容量时淘汰最久未使用的
+ * 借出的语句 close() 时关闭结果集、清空参数、恢复修改过的语句设置后放回；无法恢复的设置不再缓存
+ * 同一条 SQL 正在使用时另建不缓存的语句
+ */
+final class StatementCache {
+    private static final Logger LOGGER = Logger.getLogger(StatementCache.class.getName());
+
+    private final Connection physical;
+    private final int maxSize;
+    private final Counters counters;
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    StatementCache(Connection physical, int maxSize, Counters counters) {
+        this.physical = physical;
+        this.maxSize = maxSize;
+        this.counters = counters;
+    }
+
+    /**
+     * 处理连接上的 prepareStatement 调用；不可缓存或正在使用时返回 null，由调用方直接交给物理连接
+     * @param owner 借出的连接代理，语句的 getConnection() 返回它
+     */
+    synchronized PreparedStatement prepare(Connection owner, Method method, Object[] args) throws Throwable {
+        String key = keyOf(method, args);
+        if (key == null) {
+            return null;
+        }
+        CacheEntry entry = entries.get(key);
+        if (entry != null && entry.statement.isClosed()) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry != null && entry.handler != null) {
+            counters.misses.incrementAndGet();
+            return null;
+        }
+        if (entry == null) {
+            counters.misses.incrementAndGet();
+            PreparedStatement statement;
+            try {
+                statement = (PreparedStatement) method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+            entry = new CacheEntry(key, statement);
+            entries.put(key, entry);
+            evictOverflow();
+        } else {
+            counters.hits.incrementAndGet();
+        }
+        entry.handler = new StatementHandler(entry, owner);
+        return (PreparedStatement) Proxy.newProxyInstance(StatementCache.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, entry.handler);
+    }
+
+    /**
+     * 连接归还时收回仍未关闭的语句
+     */
+    synchronized void releaseAll() {
+        for (CacheEntry entry : new ArrayList<>(entries.values())) {
+            if (entry.handler != null) {
+                entry.handler.giveBack();
+            }
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * 只缓存 prepareStatement(sql)、(sql, autoGeneratedKeys) 和只进只读的 (sql, type, concurrency)
+     */
+    private static String keyOf(Method method, Object[] args) {
+        if (!"prepareStatement".equals(method.getName()) || !(args[0] instanceof String)) {
+            return null;
+        }
+        Class<?>[] types = method.getParameterTypes();
+        if (types.length == 1) {
+            return (String) args[0];
+        }
+        if (types.length == 2 && types[1] == int.class) {
+            int keys = (Integer) args[1];
+            return keys == Statement.NO_GENERATED_KEYS ? (String) args[0] : args[0] + "\u0000keys";
+        }
+        if (types.length == 3 && (Integer) args[1] == ResultSet.TYPE_FORWARD_ONLY
+                && (Integer) args[2] == ResultSet.CONCUR_READ_ONLY) {
+            return (String) args[0];
+        }
+        return null;
+    }
+
+    private void evictOverflow() {
+        Iterator<Map.Entry<String, CacheEntry>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maxSize && iterator.hasNext()) {
+            CacheEntry eldest = iterator.next().getValue();
+            iterator.remove();
+            counters.evictions.incrementAndGet();
+            eldest.evicted = true;
+            // 正在使用的语句在放回时关闭
+            if (eldest.handler == null) {
+                closeQuietly(eldest.statement);
+            }
+        }
+    }
+
+    private synchronized void giveBack(CacheEntry entry, List<ResultSet> resultSets, Set<String> settings) {
+        entry.handler = null;
+        for (ResultSet resultSet : resultSets) {
+            try {
+                resultSet.close();
+            } catch (SQLException e) {
+                LOGGER.log(Level.FINE, "Failed to close result set", e);
+            }
+        }
+        if (entry.evicted) {
+            closeQuietly(entry.statement);
+            return;
+        }
+        PreparedStatement statement = entry.statement;
+        try {
+            statement.clearParameters();
+            statement.clearBatch();
+            statement.clearWarnings();
+            if (reset(statement, settings)) {
+                return;
+            }
+            LOGGER.fine("Statement settings cannot be reset, discarding it: " + settings);
+        } catch (SQLException e) {
+            LOGGER.log(Level.FINE, "Failed to reset statement, discarding it", e);
+        }
+        entries.remove(entry.key, entry);
+        closeQuietly(statement);
+    }
+
+    /**
+     * 把借出期间调用过的 Statement 设置恢复为 JDBC 的默认值
+     * @param settings 调用过的 setter 名称
+     * @return 有无法恢复的设置（如 setCursorName、setPoolable）时返回 false
+     */
+    private static boolean reset(PreparedStatement statement, Set<String> settings) throws SQLException {
+        for (String setting : settings) {
+            switch (setting) {
+                case "setFetchSize":
+                    statement.setFetchSize(0);
+                    break;
+                case "setMaxRows":
+                    statement.setMaxRows(0);
+                    break;
+                case "setLargeMaxRows":
+                    statement.setLargeMaxRows(0);
+                    break;
+                case "setMaxFieldSize":
+                    statement.setMaxFieldSize(0);
+                    break;
+                case "setQueryTimeout":
+                    statement.setQueryTimeout(0);
+                    break;
+                case "setFetchDirection":
+                    statement.setFetchDirection(ResultSet.FETCH_FORWARD);
+                    break;
+                case "setEscapeProcessing":
+                    statement.setEscapeProcessing(true);
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            LOGGER.log(Level.FINE, "Failed to close statement", e);
+        }
+    }
+
+    /**
+     * 连接池内所有连接共用的命中统计
+     */
+    static final class Counters {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+    }
+
+    private static final class CacheEntry {
+        private final String key;
+        private final PreparedStatement statement;
+        // 借出中的代理，为 null 表示空闲
+        private StatementHandler handler;
+        private boolean evicted;
+
+        private CacheEntry(String key, PreparedStatement statement) {
+            this.key = key;
+            this.statement = statement;
+        }
+    }
+
+    private final class StatementHandler implements InvocationHandler {
+        private final CacheEntry entry;
+        private final Connection owner;
+        private final List<ResultSet> resultSets = new ArrayList<>(1);
+        // 借出期间调用过的 Statement 级 setter，放回时恢复
+        private final Set<String> settings = new HashSet<>(4);
+        private boolean returned;
+
+        private StatementHandler(CacheEntry entry, Connection owner) {
+            this.entry = entry;
+            this.owner = owner;
+        }
+
+        private void giveBack() {
+            if (!returned) {
+                returned = true;
+                StatementCache.this.giveBack(entry, resultSets, settings);
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    giveBack();
+                    return null;
+                case "isClosed":
+                    return returned || entry.statement.isClosed();
+                case "getConnection":
+                    return owner;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Cached[" + entry.statement + "]";
+                default:
+                    break;
+            }
+            if (returned) {
+                throw new SQLException("Statement is closed");
+            }
+            if (method.getDeclaringClass() == Statement.class && method.getName().startsWith("set")) {
+                settings.add(method.getName());
+            }
+            Object result;
+            try {
+                result = method.invoke(entry.statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+            if (result instanceof ResultSet) {
+                resultSets.add((ResultSet) result);
+            }
+            return result;
+        }
+    }
+}
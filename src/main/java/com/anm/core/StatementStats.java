@@ -0,0 +1,146 @@
+package com.anm.core;
+
+// StatementStats.java
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一种语句形状的执行统计
+ * 耗时记入对数分桶的直方图，每个 2 的幂区间分 16 个桶，分位数的相对误差不超过 1/16，记录时不加锁
+ */
+public final class StatementStats {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final String sql;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    StatementStats(String sql) {
+        this.sql = sql;
+    }
+
+    void record(long nanos, int rowCount, boolean success) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        count.increment();
+        if (!success) {
+            errors.increment();
+        }
+        if (rowCount > 0) {
+            rows.add(rowCount);
+        }
+        totalNanos.add(nanos);
+        buckets.incrementAndGet(bucketOf(nanos));
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    /**
+     * 返回或影响的总行数
+     */
+    public long getRows() {
+        return rows.sum();
+    }
+
+    public double getTotalMillis() {
+        return toMillis(totalNanos.sum());
+    }
+
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : toMillis(totalNanos.sum()) / n;
+    }
+
+    public double getMaxMillis() {
+        return toMillis(maxNanos.get());
+    }
+
+    public double getP50Millis() {
+        return toMillis(percentileNanos(0.5));
+    }
+
+    public double getP99Millis() {
+        return toMillis(percentileNanos(0.99));
+    }
+
+    public double getP999Millis() {
+        return toMillis(percentileNanos(0.999));
+    }
+
+    /**
+     * 分位数，取所在桶的上界，不超过最大值
+     * @param quantile 0 到 1 之间
+     */
+    public long percentileNanos(double quantile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    private static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: count=%d, errors=%d, rows=%d, mean=%.3fms, p50=%.3fms, p99=%.3fms, p999=%.3fms, max=%.3fms",
+                sql, getCount(), getErrorCount(), getRows(), getMeanMillis(), getP50Millis(), getP99Millis(),
+                getP999Millis(), getMaxMillis());
+    }
+}
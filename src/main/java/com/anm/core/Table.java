@@ -9,4 +9,9 @@ import java.lang.annotation.Target;
 @Target(ElementType.TYPE)
 public @interface Table {
     String value();
+
+    /**
+     * upsert 判断冲突的属性，未指定时为主键；MySQL 按表上任一唯一键判断，不使用该设置
+     */
+    String[] uniqueKey() default {};
 }
@@ -7,19 +7,36 @@ import java.sql.SQLException;
 public class TransactionManager {
 
     public static void beginTransaction() throws SQLException {
-        Connection connection = SessionManager.getConnection();
-        connection.setAutoCommit(false);
+        SessionManager.beginTransaction();
     }
 
+    /**
+     * 没有进行中的事务时不做任何事，不借用连接
+     */
     public static void commit() throws SQLException {
+        if (!SessionManager.isTransactionActive()) {
+            return;
+        }
         Connection connection = SessionManager.getConnection();
-        connection.commit();
-        SessionManager.close();
+        try {
+            connection.commit();
+        } finally {
+            SessionManager.endTransaction();
+        }
     }
 
+    /**
+     * 没有进行中的事务时不做任何事，不借用连接
+     */
     public static void rollback() throws SQLException {
+        if (!SessionManager.isTransactionActive()) {
+            return;
+        }
         Connection connection = SessionManager.getConnection();
-        connection.rollback();
-        SessionManager.close();
+        try {
+            connection.rollback();
+        } finally {
+            SessionManager.endTransaction();
+        }
     }
 }
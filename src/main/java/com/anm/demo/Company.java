@@ -1,5 +1,6 @@
 package com.anm.demo;
 
+import com.anm.core.Cacheable;
 import com.anm.core.Id;
 import com.anm.core.Table;
 
@@ -8,6 +9,7 @@ import java.io.Serializable;
 /**
  * 公司
  */
+@Cacheable
 @Table("tb_company")
 public class Company implements Serializable {
     @Id
@@ -0,0 +1,83 @@
+package com.anm.core;
+
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import junit.framework.TestCase;
+
+import java.lang.reflect.Field;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * 生成的访问器和按列序号的行映射
+ */
+public class AccessorsTest extends TestCase {
+
+    public void testPublicAccessors() throws Exception {
+        Field field = User.class.getDeclaredField("age");
+        Function<Object, Object> getter = Accessors.getter(field);
+        BiConsumer<Object, Object> setter = Accessors.setter(field);
+        User user = (User) Accessors.constructor(User.class).get();
+        setter.accept(user, 30);
+        assertEquals(Integer.valueOf(30), user.getAge());
+        assertEquals(30, getter.apply(user));
+    }
+
+    public void testFieldsWithoutAccessors() throws Exception {
+        Field count = Hidden.class.getDeclaredField("count");
+        Field label = Hidden.class.getDeclaredField("label");
+        Hidden hidden = (Hidden) Accessors.constructor(Hidden.class).get();
+        // 基本类型的字段同样装箱读写
+        Accessors.setter(count).accept(hidden, 5);
+        Accessors.setter(label).accept(hidden, "five");
+        assertEquals(5, hidden.count);
+        assertEquals(5, Accessors.getter(count).apply(hidden));
+        assertEquals("five", Accessors.getter(label).apply(hidden));
+    }
+
+    public void testMissingDefaultConstructor() {
+        try {
+            Accessors.constructor(NoDefault.class);
+            fail("Expected a class without a default constructor to be rejected");
+        } catch (IllegalStateException e) {
+            assertEquals("No default constructor found in class NoDefault", e.getMessage());
+        }
+    }
+
+    public void testRowsAreMappedByColumnIndex() throws Exception {
+        ConnectionPool pool = TestDatabase.create(null, TestDatabase.ROLE_TABLE, TestDatabase.USER_TABLE);
+        TestDatabase.execute(pool, "INSERT INTO tb_role (name) VALUES ('admin')");
+        TestDatabase.execute(pool, "INSERT INTO tb_user (username, phone_number, age, role_id)"
+                + " VALUES ('alice', '123', 30, 1), ('bob', NULL, NULL, 1)");
+        SessionManager.setDataSource(pool);
+        try {
+            UserRepository repository = new UserRepository();
+            User alice = repository.selectById(1L).get();
+            assertEquals("alice", alice.getUsername());
+            assertEquals("123", alice.getPhoneNumber());
+            assertEquals(Integer.valueOf(30), alice.getAge());
+            User bob = repository.selectById(2L).get();
+            assertNull(bob.getPhoneNumber());
+            assertNull(bob.getAge());
+
+            User joined = repository.selectOne(new QueryWrapper<User>().eq("username", "alice").eq("role.name", "admin")).get();
+            assertEquals(Long.valueOf(1), joined.getRole().getId());
+            assertEquals("admin", joined.getRole().getName());
+        } finally {
+            pool.close();
+        }
+    }
+
+    static class Hidden {
+        private int count;
+        private String label;
+
+        private Hidden() {
+        }
+    }
+
+    public static class NoDefault {
+        public NoDefault(int value) {
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.anm.core;
+
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import junit.framework.TestCase;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步执行的并发上限、后台任务中再提交时直接执行，以及异常原样传递
+ */
+public class AsyncRepositoryTest extends TestCase {
+    private ConnectionPool pool;
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        pool = TestDatabase.create(null, TestDatabase.USER_TABLE);
+        TestDatabase.execute(pool, "INSERT INTO tb_user (username) VALUES ('alice'), ('bob')");
+        SessionManager.setDataSource(pool);
+        // 线程数多于许可数，并发由信号量限制
+        executor = Executors.newFixedThreadPool(8);
+        RepositoryExecutor.setExecutor(executor);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        RepositoryExecutor.setMaxConcurrency(0);
+        RepositoryExecutor.setExecutor(null);
+        executor.shutdownNow();
+        pool.close();
+    }
+
+    public void testConcurrencyIsLimited() throws Exception {
+        RepositoryExecutor.setMaxConcurrency(2);
+        assertEquals(2, maxRunning(8));
+    }
+
+    public void testDefaultLimitIsPoolSize() throws Exception {
+        pool.maxSize(3);
+        RepositoryExecutor.setMaxConcurrency(0);
+        assertEquals(3, maxRunning(9));
+    }
+
+    public void testNestedTaskRunsInline() throws Exception {
+        RepositoryExecutor.setMaxConcurrency(1);
+        CompletableFuture<Boolean> outer = AsyncRepository.supply(() -> {
+            Thread worker = Thread.currentThread();
+            // 唯一的许可已被外层任务占用，内层任务在当前线程执行
+            return AsyncRepository.supply(() -> Thread.currentThread() == worker).get(5, TimeUnit.SECONDS);
+        });
+        assertTrue(outer.get(5, TimeUnit.SECONDS));
+    }
+
+    public void testFailureCarriesOriginalException() throws Exception {
+        SQLException failure = new SQLException("boom");
+        try {
+            AsyncRepository.supply(() -> {
+                throw failure;
+            }).get(5, TimeUnit.SECONDS);
+            fail("Expected the task to fail");
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    public void testRepositoryMethods() throws Exception {
+        AsyncRepository<User> users = new AsyncRepository<>(new UserRepository());
+        User carol = new User();
+        carol.setUsername("carol");
+        assertEquals(Long.valueOf(3), users.insert(carol).get(5, TimeUnit.SECONDS).getId());
+        assertEquals("bob", users.selectById(2L).get(5, TimeUnit.SECONDS).get().getUsername());
+
+        List<Callable<Long>> counts = new ArrayList<>();
+        for (long id = 1; id <= 3; id++) {
+            long target = id;
+            counts.add(() -> TestDatabase.queryLong(pool, "SELECT id * 10 FROM tb_user WHERE id = " + target));
+        }
+        // 结果顺序与任务顺序一致
+        assertEquals(Arrays.asList(10L, 20L, 30L), AsyncRepository.parallel(counts).get(5, TimeUnit.SECONDS));
+    }
+
+    public void testNegativeConcurrency() {
+        try {
+            RepositoryExecutor.setMaxConcurrency(-1);
+            fail("Expected a negative limit to be rejected");
+        } catch (IllegalArgumentException e) {
+            // 上限不能为负数
+        }
+    }
+
+    /**
+     * 提交 count 个任务，返回同时执行的最大任务数
+     */
+    private static int maxRunning(int count) throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            futures.add(AsyncRepository.supply(() -> {
+                int now = running.incrementAndGet();
+                max.accumulateAndGet(now, Math::max);
+                Thread.sleep(30);
+                running.decrementAndGet();
+                return null;
+            }));
+        }
+        AsyncRepository.all(futures).get(10, TimeUnit.SECONDS);
+        return max.get();
+    }
+}
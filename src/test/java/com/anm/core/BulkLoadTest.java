@@ -0,0 +1,240 @@
+package com.anm.core;
+
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * bulkLoad：LOAD DATA 流的转义、MySQL 驱动路径（用代理模拟 Connector/J 的语句）和多值 INSERT 的退回
+ */
+public class BulkLoadTest extends TestCase {
+    private static final List<String> COLUMNS = Arrays.asList("id", "username", "age");
+
+    private ConnectionPool pool;
+
+    @Override
+    protected void setUp() throws SQLException {
+        pool = TestDatabase.create(null, TestDatabase.USER_TABLE);
+        SessionManager.setDataSource(pool);
+        SessionManager.setDialect(Dialect.H2);
+    }
+
+    @Override
+    protected void tearDown() {
+        SessionManager.setDialect(null);
+        pool.close();
+    }
+
+    public void testEscaping() throws IOException {
+        List<Object[]> rows = Arrays.asList(
+                new Object[]{1L, "tab\there", null},
+                new Object[]{2L, "line\nbreak\r\\slash\0", Boolean.TRUE},
+                new Object[]{null, "中文", new BigDecimal("1E+3")});
+        assertEquals("1\ttab\\there\t\\N\n"
+                        + "2\tline\\nbreak\\r\\\\slash\\0\t1\n"
+                        + "\\N\t中文\t1000\n",
+                read(new LoadDataStream(rows.iterator())));
+    }
+
+    public void testLargeInputSpansBuffers() throws IOException {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            rows.add(new Object[]{(long) i, "user-" + i + "-0123456789"});
+        }
+        LoadDataStream stream = new LoadDataStream(rows.iterator());
+        String text = read(stream);
+        assertEquals(20000, stream.getRowCount());
+        assertTrue(stream.isExhausted());
+        assertTrue(text.startsWith("0\tuser-0-0123456789\n"));
+        assertTrue(text.endsWith("19999\tuser-19999-0123456789\n"));
+        assertEquals(20000, text.split("\n").length);
+    }
+
+    public void testBinaryColumnsAreRejected() throws IOException {
+        try {
+            read(new LoadDataStream(Collections.singletonList(new Object[]{new byte[]{1}}).iterator()));
+            fail("Expected binary columns to be rejected");
+        } catch (RuntimeException e) {
+            // LOAD DATA 流不支持二进制列
+        }
+    }
+
+    public void testFallbackInsertAcrossStatements() throws Exception {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            User user = new User();
+            user.setUsername("user" + i);
+            user.setName(i == 0 ? "tab\tand\nnewline" : null);
+            users.add(user);
+        }
+        assertEquals(2500, new UserRepository().bulkLoad(users));
+        assertEquals(2500, TestDatabase.queryLong(pool, "SELECT COUNT(*) FROM tb_user"));
+        assertEquals("tab\tand\nnewline", TestDatabase.queryString(pool, "SELECT name FROM tb_user WHERE username = 'user0'"));
+    }
+
+    public void testFallbackInsertFailsOnDuplicateKey() throws Exception {
+        TestDatabase.execute(pool, "INSERT INTO tb_user (id, username) VALUES (1, 'existing')");
+        try (Connection connection = pool.getConnection()) {
+            Dialect.H2.bulkLoad(connection, "tb_user", COLUMNS,
+                    Collections.singletonList(new Object[]{1L, "duplicate", 1}).iterator());
+            fail("Expected the duplicate key to fail the INSERT");
+        } catch (SQLException e) {
+            // 与 LOAD DATA LOCAL 跳过冲突行不同
+        }
+    }
+
+    public void testMySqlWithoutLocalInfileFallsBackToInsert() throws SQLException {
+        try (Connection connection = pool.getConnection()) {
+            long loaded = Dialect.MYSQL.bulkLoad(connection, "tb_user", COLUMNS,
+                    Arrays.asList(new Object[]{null, "a", 1}, new Object[]{null, "b", 2}).iterator());
+            assertEquals(2, loaded);
+        }
+        assertEquals(2, TestDatabase.queryLong(pool, "SELECT COUNT(*) FROM tb_user"));
+    }
+
+    public void testMySqlStreamsThroughLocalInfile() throws SQLException {
+        FakeDriver driver = new FakeDriver();
+        long loaded = Dialect.MYSQL.bulkLoad(driver.connection(), "tb_user", COLUMNS,
+                Arrays.asList(new Object[]{null, "a\tb", 1}, new Object[]{7L, "c", null}).iterator());
+        assertEquals(2, loaded);
+        assertTrue(driver.sql, driver.sql.startsWith("LOAD DATA LOCAL INFILE 'stream' INTO TABLE tb_user"));
+        assertTrue(driver.sql, driver.sql.endsWith("(id, username, age)"));
+        assertEquals("\\N\ta\\tb\t1\n7\tc\t\\N\n", driver.content);
+        assertFalse(driver.aborted);
+    }
+
+    public void testFailureWhileStreamingAbortsConnection() {
+        FakeDriver driver = new FakeDriver();
+        Iterator<Object[]> rows = new Iterator<Object[]>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Object[] next() {
+                if (next++ == 3) {
+                    throw new IllegalStateException("source failed");
+                }
+                return new Object[]{null, "row", next};
+            }
+        };
+        try {
+            Dialect.MYSQL.bulkLoad(driver.connection(), "tb_user", COLUMNS, rows);
+            fail("Expected the source failure to propagate");
+        } catch (SQLException | RuntimeException e) {
+            assertTrue(driver.aborted);
+        }
+    }
+
+    public void testServerErrorAfterStreamKeepsConnection() {
+        FakeDriver driver = new FakeDriver();
+        driver.failure = new SQLException("Data too long");
+        try {
+            Dialect.MYSQL.bulkLoad(driver.connection(), "tb_user", COLUMNS,
+                    Collections.singletonList(new Object[]{null, "a", 1}).iterator());
+            fail("Expected the server error to propagate");
+        } catch (SQLException e) {
+            assertFalse(driver.aborted);
+        }
+    }
+
+    public void testPoolDiscardsAbortedConnection() throws SQLException {
+        pool.getConnection().close();
+        assertEquals(1, pool.getTotalConnections());
+        Connection connection = pool.getConnection();
+        Connection physical = connection.unwrap(Connection.class);
+        physical.abort(Runnable::run);
+        physical.close();
+        connection.close();
+        assertEquals(0, pool.getTotalConnections());
+    }
+
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = input.read(buffer, 0, buffer.length)) >= 0) {
+            output.write(buffer, 0, count);
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 与 Connector/J 的 JdbcStatement 一样提供 setLocalInfileInputStream
+     */
+    public interface LocalInfileStatement extends Statement {
+        void setLocalInfileInputStream(InputStream stream);
+    }
+
+    /**
+     * 执行 LOAD DATA 时读完输入流，行数即换行数
+     */
+    private static final class FakeDriver {
+        private String sql;
+        private String content;
+        private SQLException failure;
+        private boolean aborted;
+        private InputStream input;
+
+        private Connection connection() {
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "createStatement":
+                                return statement();
+                            case "unwrap":
+                                return proxy;
+                            case "abort":
+                                aborted = true;
+                                return null;
+                            case "close":
+                                return null;
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+
+        private Statement statement() {
+            return (Statement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{LocalInfileStatement.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "unwrap":
+                                return proxy;
+                            case "setLocalInfileInputStream":
+                                input = (InputStream) args[0];
+                                return null;
+                            case "executeLargeUpdate":
+                                sql = (String) args[0];
+                                content = read(input);
+                                if (failure != null) {
+                                    throw failure;
+                                }
+                                return (long) content.split("\n").length;
+                            case "close":
+                                return null;
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.anm.core;
+
+import junit.framework.TestCase;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+
+/**
+ * 连接池的借用超时、空闲回收和归还时的状态恢复，使用 H2 内存库
+ */
+public class ConnectionPoolTest extends TestCase {
+    private static int sequence;
+
+    private ConnectionPool pool;
+
+    @Override
+    protected void setUp() throws SQLException {
+        pool = new ConnectionPool("jdbc:h2:mem:pool" + (++sequence) + ";DB_CLOSE_DELAY=-1", "sa", "");
+        try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE t (id INT)");
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+        pool.close();
+    }
+
+    public void testBorrowTimeout() throws SQLException {
+        pool.maxSize(1).borrowTimeout(100);
+        try (Connection held = pool.getConnection()) {
+            long start = System.nanoTime();
+            try {
+                pool.getConnection();
+                fail("Expected a borrow timeout");
+            } catch (SQLTimeoutException e) {
+                assertTrue(System.nanoTime() - start >= 90_000_000L);
+            }
+            // 超时不影响已借出的连接
+            assertFalse(held.isClosed());
+        }
+        // 归还后可以再次借出
+        pool.getConnection().close();
+    }
+
+    public void testWaitingBorrowerGetsReturnedConnection() throws Exception {
+        pool.maxSize(1).borrowTimeout(5000);
+        Connection held = pool.getConnection();
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+                held.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        releaser.start();
+        pool.getConnection().close();
+        releaser.join();
+        assertEquals(1, pool.getTotalConnections());
+    }
+
+    public void testIdleEviction() throws Exception {
+        pool.idleTimeout(20);
+        pool.getConnection().close();
+        assertEquals(1, pool.getIdleConnections());
+        Thread.sleep(50);
+        pool.evictIdle();
+        assertEquals(0, pool.getIdleConnections());
+        assertEquals(0, pool.getTotalConnections());
+    }
+
+    public void testReleaseRollsBackAndRestoresAutoCommit() throws SQLException {
+        pool.maxSize(1);
+        try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            statement.executeUpdate("INSERT INTO t VALUES (1)");
+        }
+        try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM t")) {
+            assertTrue(connection.getAutoCommit());
+            resultSet.next();
+            assertEquals(0, resultSet.getInt(1));
+        }
+    }
+
+    public void testReturnedConnectionIsUnusable() throws SQLException {
+        Connection connection = pool.getConnection();
+        connection.close();
+        assertTrue(connection.isClosed());
+        try {
+            connection.createStatement();
+            fail("Expected the returned connection to be rejected");
+        } catch (SQLException e) {
+            // 已归还
+        }
+    }
+
+    public void testCommitAndRollbackWithoutTransactionDoNotBorrow() throws SQLException {
+        pool.idleTimeout(0);
+        pool.evictIdle();
+        assertEquals(0, pool.getTotalConnections());
+        SessionManager.setDataSource(pool);
+        TransactionManager.commit();
+        TransactionManager.rollback();
+        assertEquals(0, pool.getTotalConnections());
+    }
+}
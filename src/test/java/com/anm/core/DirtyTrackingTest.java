@@ -0,0 +1,101 @@
+package com.anm.core;
+
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 事务中加载的实体只更新修改过的列，快照随事务结束丢弃
+ */
+public class DirtyTrackingTest extends TestCase {
+    private ConnectionPool pool;
+    private UserRepository repository;
+    private final List<String> updates = new ArrayList<>();
+    private final SqlListener listener = new SqlListener() {
+        @Override
+        public void onStatement(String sql, long elapsedNanos, int rows, boolean success) {
+            if (sql.startsWith("UPDATE")) {
+                updates.add(sql);
+            }
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        pool = TestDatabase.create(null, TestDatabase.ROLE_TABLE, TestDatabase.USER_TABLE);
+        TestDatabase.execute(pool, "INSERT INTO tb_role (name) VALUES ('admin')");
+        TestDatabase.execute(pool, "INSERT INTO tb_user (username, password, name, age, role_id, city)"
+                + " VALUES ('alice', 'secret', 'Alice', 30, 1, 'gz')");
+        SessionManager.setDataSource(pool);
+        SessionManager.setDialect(Dialect.H2);
+        SqlMetrics.addListener(listener);
+        repository = new UserRepository();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TransactionManager.rollback();
+        SqlMetrics.removeListener(listener);
+        SessionManager.setDialect(null);
+        pool.close();
+    }
+
+    public void testTransactionUpdatesOnlyChangedColumns() throws Exception {
+        TransactionManager.beginTransaction();
+        User user = repository.selectById(1L).get();
+        user.setName("Bob");
+        repository.update(user);
+        // 写入后重新记录快照，再次修改只更新新改的列
+        user.setAge(31);
+        repository.update(user);
+        TransactionManager.commit();
+
+        assertEquals(2, updates.size());
+        assertEquals("UPDATE tb_user SET name = ? WHERE id = ?", updates.get(0));
+        assertEquals("UPDATE tb_user SET age = ? WHERE id = ?", updates.get(1));
+        assertEquals("Bob", TestDatabase.queryString(pool, "SELECT name FROM tb_user WHERE id = 1"));
+        assertEquals(31, TestDatabase.queryLong(pool, "SELECT age FROM tb_user WHERE id = 1"));
+        assertEquals("alice", TestDatabase.queryString(pool, "SELECT username FROM tb_user WHERE id = 1"));
+    }
+
+    public void testUnchangedEntityIsNotWritten() throws Exception {
+        TransactionManager.beginTransaction();
+        User user = repository.selectById(1L).get();
+        repository.update(user);
+        TransactionManager.commit();
+        assertTrue(updates.isEmpty());
+    }
+
+    public void testOutsideTransactionUpdatesAllColumns() throws Exception {
+        User user = repository.selectById(1L).get();
+        user.setName("Bob");
+        repository.update(user);
+
+        assertEquals(1, updates.size());
+        assertTrue(updates.get(0), updates.get(0).contains("username = ?"));
+        assertTrue(updates.get(0), updates.get(0).contains("role_id = ?"));
+        // 没有关联查询的 role 只有主键，全部列写回时外键不变
+        assertEquals(1, TestDatabase.queryLong(pool, "SELECT role_id FROM tb_user WHERE id = 1"));
+        assertEquals("Bob", TestDatabase.queryString(pool, "SELECT name FROM tb_user WHERE id = 1"));
+    }
+
+    public void testSnapshotsAreDiscardedOnRollback() throws Exception {
+        TransactionManager.beginTransaction();
+        User user = repository.selectById(1L).get();
+        user.setName("Bob");
+        repository.update(user);
+        TransactionManager.rollback();
+        assertEquals("Alice", TestDatabase.queryString(pool, "SELECT name FROM tb_user WHERE id = 1"));
+
+        // 回滚前写入后的快照已丢弃，同一个对象再次更新时写入全部列
+        TransactionManager.beginTransaction();
+        repository.update(user);
+        TransactionManager.commit();
+        assertEquals(2, updates.size());
+        assertTrue(updates.get(1), updates.get(1).contains("name = ?"));
+        assertEquals("Bob", TestDatabase.queryString(pool, "SELECT name FROM tb_user WHERE id = 1"));
+    }
+}
@@ -0,0 +1,206 @@
+package com.anm.core;
+
+import com.anm.demo.Role;
+import com.anm.demo.RoleRepository;
+import junit.framework.TestCase;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+/**
+ * 二级缓存的命中、写入后失效、过期和 LRU 淘汰
+ */
+public class EntityCacheTest extends TestCase {
+    private ConnectionPool pool;
+    private RoleRepository repository;
+    private EntityCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        pool = TestDatabase.create(null, TestDatabase.ROLE_TABLE,
+                "CREATE TABLE tb_tag (id BIGINT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(50))",
+                "CREATE TABLE tb_token (id BIGINT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(50))");
+        TestDatabase.execute(pool, "INSERT INTO tb_role (name) VALUES ('admin'), ('guest'), ('owner')");
+        TestDatabase.execute(pool, "INSERT INTO tb_tag (name) VALUES ('red'), ('green'), ('blue')");
+        TestDatabase.execute(pool, "INSERT INTO tb_token (name) VALUES ('a')");
+        SessionManager.setDataSource(pool);
+        repository = new RoleRepository();
+        cache = EntityCache.of(Role.class);
+        cache.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TransactionManager.rollback();
+        cache.clear();
+        EntityCache.of(Tag.class).clear();
+        pool.close();
+    }
+
+    public void testHitReturnsCopy() throws Exception {
+        long hits = cache.getHitCount();
+        Role first = repository.selectById(1L).get();
+        assertEquals(1, cache.size());
+        first.setName("changed");
+        Role second = repository.selectById(1L).get();
+        assertEquals(hits + 1, cache.getHitCount());
+        // 修改返回的对象不影响缓存
+        assertEquals("admin", second.getName());
+        assertNotSame(first, second);
+        assertNull(EntityCache.of(com.anm.demo.User.class));
+    }
+
+    public void testWritesInvalidate() throws Exception {
+        Role role = repository.selectById(1L).get();
+        repository.selectById(2L);
+        repository.selectById(3L);
+        role.setName("root");
+        repository.update(role);
+        assertEquals("root", repository.selectById(1L).get().getName());
+
+        repository.deleteById(2L);
+        assertFalse(repository.selectById(2L).isPresent());
+
+        Role owner = repository.selectById(3L).get();
+        owner.setName("boss");
+        repository.updateBatch(Arrays.asList(owner));
+        assertEquals("boss", repository.selectById(3L).get().getName());
+        repository.deleteByIds(Arrays.asList(3L));
+        assertFalse(repository.selectById(3L).isPresent());
+    }
+
+    public void testTransactionReadsAreNotCachedAndWritesInvalidateAfterCommit() throws Exception {
+        TransactionManager.beginTransaction();
+        Role role = repository.selectById(1L).get();
+        assertEquals(0, cache.size());
+        role.setName("root");
+        repository.update(role);
+        TransactionManager.commit();
+        assertEquals("root", repository.selectById(1L).get().getName());
+
+        // 事务提交前其他读者放入的旧值在事务结束时移出
+        TransactionManager.beginTransaction();
+        role.setName("rolled back");
+        repository.update(role);
+        cache.put(role, cache.version());
+        TransactionManager.rollback();
+        assertEquals(0, cache.size());
+        assertEquals("root", repository.selectById(1L).get().getName());
+    }
+
+    public void testResultReadBeforeInvalidationIsNotCached() throws Exception {
+        // 查询读到旧值之后、放入缓存之前，另一个写入者更新了记录
+        SessionManager.setDataSource(afterFirstQuery(pool, () -> {
+            TestDatabase.execute(pool, "UPDATE tb_role SET name = 'changed' WHERE id = 1");
+            cache.invalidate(1L);
+            return null;
+        }));
+        assertEquals("admin", repository.selectById(1L).get().getName());
+        assertEquals(0, cache.size());
+        assertEquals("changed", repository.selectById(1L).get().getName());
+        assertEquals(1, cache.size());
+
+        SessionManager.setDataSource(afterFirstQuery(pool, () -> {
+            cache.invalidate(2L);
+            return null;
+        }));
+        assertEquals(2, repository.selectByIds(Arrays.asList(2L, 3L)).size());
+        assertEquals(1, cache.size());
+        repository.selectByIds(Arrays.asList(2L, 3L));
+        assertEquals(3, cache.size());
+    }
+
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        BaseRepository<Tag> tags = new BaseRepository<Tag>() {
+        };
+        EntityCache tagCache = EntityCache.of(Tag.class);
+        tagCache.clear();
+        long evictions = tagCache.getEvictionCount();
+        tags.selectById(1L);
+        tags.selectById(2L);
+        // 访问 1 后 2 成为最久未使用的
+        tags.selectById(1L);
+        tags.selectById(3L);
+        assertEquals(2, tagCache.size());
+        assertEquals(evictions + 1, tagCache.getEvictionCount());
+        long hits = tagCache.getHitCount();
+        tags.selectById(1L);
+        assertEquals(hits + 1, tagCache.getHitCount());
+        long misses = tagCache.getMissCount();
+        tags.selectById(2L);
+        assertEquals(misses + 1, tagCache.getMissCount());
+    }
+
+    public void testExpiredEntryIsReloaded() throws Exception {
+        BaseRepository<Token> tokens = new BaseRepository<Token>() {
+        };
+        EntityCache tokenCache = EntityCache.of(Token.class);
+        tokens.selectById(1L);
+        TestDatabase.execute(pool, "UPDATE tb_token SET name = 'b' WHERE id = 1");
+        // 过期时间为 0，放入后即过期
+        long misses = tokenCache.getMissCount();
+        assertEquals("b", tokens.selectById(1L).get().name);
+        assertEquals(misses + 1, tokenCache.getMissCount());
+    }
+
+    /**
+     * 第一条查询执行后、读取结果前调用 hook
+     */
+    private static DataSource afterFirstQuery(DataSource target, Callable<?> hook) {
+        boolean[] done = new boolean[1];
+        return (DataSource) Proxy.newProxyInstance(EntityCacheTest.class.getClassLoader(), new Class<?>[]{DataSource.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(target, method, args);
+                    if (!(result instanceof Connection)) {
+                        return result;
+                    }
+                    return Proxy.newProxyInstance(EntityCacheTest.class.getClassLoader(), new Class<?>[]{Connection.class},
+                            (connectionProxy, connectionMethod, connectionArgs) -> {
+                                Object statement = invoke(result, connectionMethod, connectionArgs);
+                                if (!(statement instanceof PreparedStatement)) {
+                                    return statement;
+                                }
+                                return Proxy.newProxyInstance(EntityCacheTest.class.getClassLoader(),
+                                        new Class<?>[]{PreparedStatement.class},
+                                        (statementProxy, statementMethod, statementArgs) -> {
+                                            Object value = invoke(statement, statementMethod, statementArgs);
+                                            if (statementMethod.getName().equals("executeQuery") && !done[0]) {
+                                                done[0] = true;
+                                                hook.call();
+                                            }
+                                            return value;
+                                        });
+                            });
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    @Table("tb_tag")
+    @Cacheable(maxSize = 2)
+    public static class Tag {
+        @Id
+        public Long id;
+        public String name;
+    }
+
+    @Table("tb_token")
+    @Cacheable(timeToLive = 0)
+    public static class Token {
+        @Id
+        public Long id;
+        public String name;
+    }
+}
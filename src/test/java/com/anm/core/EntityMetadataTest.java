@@ -0,0 +1,78 @@
+package com.anm.core;
+
+import com.anm.demo.Role;
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import junit.framework.TestCase;
+
+/**
+ * 实体元数据只解析一次，列名、外键列和类型转换都取自元数据
+ */
+public class EntityMetadataTest extends TestCase {
+
+    public void testMetadataIsBuiltOnce() {
+        assertSame(EntityMetadata.of(User.class), EntityMetadata.of(User.class));
+        assertSame(EntityMetadata.of(Role.class), EntityMetadata.of(User.class).getRelation("role").getRelationMetadata());
+    }
+
+    public void testColumns() {
+        EntityMetadata metadata = EntityMetadata.of(User.class);
+        assertEquals("tb_user", metadata.getTableName());
+        assertEquals("id", metadata.getIdProperty().getColumnName());
+        assertEquals("phone_number", metadata.getProperty("phoneNumber").getColumnName());
+        PropertyMetadata role = metadata.getProperty("role");
+        assertTrue(role.isRelation());
+        assertEquals("role_id", role.getColumnName());
+        assertTrue(metadata.getRelations().contains(role));
+        assertFalse(metadata.getColumnProperties().contains(metadata.getIdProperty()));
+        assertEquals("phone_number", EntityMetadata.toColumnName("phoneNumber"));
+    }
+
+    public void testUnknownRelation() {
+        try {
+            EntityMetadata.of(User.class).getRelation("name");
+            fail("Expected a scalar property to be rejected as a relation");
+        } catch (RuntimeException e) {
+            assertEquals("No such field: name", e.getMessage());
+        }
+    }
+
+    public void testConvertAndColumnValue() throws Exception {
+        EntityMetadata metadata = EntityMetadata.of(User.class);
+        assertEquals(Long.valueOf(7), metadata.getIdProperty().convert(7));
+        assertEquals(Integer.valueOf(30), metadata.getProperty("age").convert(30L));
+        assertNull(metadata.getProperty("age").convert(null));
+
+        Role role = new Role();
+        role.setId(3L);
+        User user = new User();
+        user.setRole(role);
+        // 关系属性的列值是关联实体的主键
+        assertEquals(Long.valueOf(3), metadata.getProperty("role").getColumnValue(user));
+    }
+
+    public void testInsertAndUpdateUseMetadataColumns() throws Exception {
+        ConnectionPool pool = TestDatabase.create(null, TestDatabase.USER_TABLE);
+        SessionManager.setDataSource(pool);
+        try {
+            Role role = new Role();
+            role.setId(3L);
+            User user = new User();
+            user.setUsername("alice");
+            user.setPhoneNumber("123");
+            user.setRole(role);
+            new UserRepository().insert(user);
+            assertEquals(Long.valueOf(1), user.getId());
+            assertEquals("123", TestDatabase.queryString(pool, "SELECT phone_number FROM tb_user WHERE id = 1"));
+            assertEquals(3, TestDatabase.queryLong(pool, "SELECT role_id FROM tb_user WHERE id = 1"));
+
+            role.setId(4L);
+            user.setName("Alice");
+            new UserRepository().update(user);
+            assertEquals("Alice", TestDatabase.queryString(pool, "SELECT name FROM tb_user WHERE id = 1"));
+            assertEquals(4, TestDatabase.queryLong(pool, "SELECT role_id FROM tb_user WHERE id = 1"));
+        } finally {
+            pool.close();
+        }
+    }
+}
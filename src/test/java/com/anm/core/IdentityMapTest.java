@@ -0,0 +1,86 @@
+package com.anm.core;
+
+import com.anm.demo.Role;
+import com.anm.demo.RoleRepository;
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import junit.framework.TestCase;
+
+/**
+ * 事务中同一主键对应同一个实例，事务结束时丢弃
+ */
+public class IdentityMapTest extends TestCase {
+    private ConnectionPool pool;
+    private UserRepository repository;
+
+    @Override
+    protected void setUp() throws Exception {
+        pool = TestDatabase.create(null, TestDatabase.ROLE_TABLE, TestDatabase.USER_TABLE);
+        TestDatabase.execute(pool, "INSERT INTO tb_role (name) VALUES ('admin')");
+        TestDatabase.execute(pool, "INSERT INTO tb_user (username, name, role_id) VALUES ('alice', 'Alice', 1), ('bob', 'Bob', 1)");
+        SessionManager.setDataSource(pool);
+        EntityCache.of(Role.class).clear();
+        repository = new UserRepository();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TransactionManager.rollback();
+        EntityCache.of(Role.class).clear();
+        pool.close();
+    }
+
+    public void testSameInstanceWithinTransaction() throws Exception {
+        TransactionManager.beginTransaction();
+        User first = repository.selectById(1L).get();
+        // 其他连接的修改不会再读入
+        TestDatabase.execute(pool, "UPDATE tb_user SET name = 'Changed' WHERE id = 2");
+        TestDatabase.execute(pool, "UPDATE tb_user SET name = 'Changed' WHERE id = 1");
+        assertSame(first, repository.selectById(1L).get());
+        assertEquals("Alice", repository.selectById(1L).get().getName());
+        TransactionManager.commit();
+
+        assertNull(SessionManager.identityMap(User.class));
+        User outside = repository.selectById(1L).get();
+        assertNotSame(first, outside);
+        assertEquals("Changed", outside.getName());
+        assertNotSame(outside, repository.selectById(1L).get());
+    }
+
+    public void testJoinedRelationReusesLoadedInstance() throws Exception {
+        TransactionManager.beginTransaction();
+        Role role = new RoleRepository().selectById(1L).get();
+        User alice = repository.selectOne(new QueryWrapper<User>().eq("username", "alice").eq("role.name", "admin")).get();
+        User bob = repository.selectOne(new QueryWrapper<User>().eq("username", "bob").eq("role.name", "admin")).get();
+        assertSame(role, alice.getRole());
+        assertSame(role, bob.getRole());
+        TransactionManager.commit();
+    }
+
+    public void testWritesUpdateIdentityMap() throws Exception {
+        TransactionManager.beginTransaction();
+        User created = new User();
+        created.setUsername("carol");
+        repository.insert(created);
+        assertSame(created, repository.selectById(created.getId()).get());
+
+        repository.selectById(1L);
+        repository.deleteById(1L);
+        assertFalse(repository.selectById(1L).isPresent());
+        TransactionManager.commit();
+        assertEquals(2, TestDatabase.queryLong(pool, "SELECT COUNT(*) FROM tb_user"));
+    }
+
+    public void testDiscardedOnRollback() throws Exception {
+        TransactionManager.beginTransaction();
+        User user = repository.selectById(1L).get();
+        user.setName("Dirty");
+        TransactionManager.rollback();
+
+        TransactionManager.beginTransaction();
+        User reloaded = repository.selectById(1L).get();
+        assertNotSame(user, reloaded);
+        assertEquals("Alice", reloaded.getName());
+        TransactionManager.commit();
+    }
+}
@@ -0,0 +1,78 @@
+package com.anm.core;
+
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 批量插入按顺序回填生成的主键
+ */
+public class InsertBatchTest extends TestCase {
+    private ConnectionPool pool;
+    private UserRepository repository;
+
+    @Override
+    protected void setUp() throws Exception {
+        pool = TestDatabase.create("MySQL", TestDatabase.USER_TABLE);
+        // 先占用几个主键，使生成的主键与下标不同
+        TestDatabase.execute(pool, "INSERT INTO tb_user (username) VALUES ('a'), ('b'), ('c')");
+        SessionManager.setDataSource(pool);
+        SessionManager.setDialect(Dialect.H2);
+        repository = new UserRepository();
+    }
+
+    @Override
+    protected void tearDown() {
+        SessionManager.setDialect(null);
+        pool.close();
+    }
+
+    public void testGeneratedIdsAreBackfilledInOrder() throws Exception {
+        List<User> users = users(7);
+        // 批大小不整除总数，最后一批只有一条
+        assertEquals(7, repository.insertBatch(users, 3));
+        Set<Long> ids = new HashSet<>();
+        for (User user : users) {
+            assertNotNull(user.getId());
+            assertTrue(ids.add(user.getId()));
+            assertEquals(user.getUsername(),
+                    TestDatabase.queryString(pool, "SELECT username FROM tb_user WHERE id = " + user.getId()));
+        }
+        assertEquals(10, TestDatabase.queryLong(pool, "SELECT COUNT(*) FROM tb_user"));
+    }
+
+    public void testSingleBatch() throws Exception {
+        List<User> users = users(2);
+        assertEquals(2, repository.insertBatch(users));
+        assertEquals(Long.valueOf(4), users.get(0).getId());
+        assertEquals(Long.valueOf(5), users.get(1).getId());
+    }
+
+    public void testEmptyBatch() throws Exception {
+        assertEquals(0, repository.insertBatch(new ArrayList<>()));
+    }
+
+    public void testInvalidBatchSize() throws Exception {
+        try {
+            repository.insertBatch(users(1), 0);
+            fail("Expected an invalid batch size to be rejected");
+        } catch (IllegalArgumentException e) {
+            // 批大小必须为正数
+        }
+    }
+
+    private static List<User> users(int count) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            User user = new User();
+            user.setUsername("user" + i);
+            users.add(user);
+        }
+        return users;
+    }
+}
@@ -0,0 +1,114 @@
+package com.anm.core;
+
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import junit.framework.TestCase;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 游标分页逐页读完的结果与 OFFSET 查询的顺序一致，排序方向一致与不一致两种谓词都覆盖
+ */
+public class KeysetPageTest extends TestCase {
+    private ConnectionPool pool;
+    private UserRepository repository;
+
+    @Override
+    protected void setUp() throws Exception {
+        pool = TestDatabase.create(null, TestDatabase.USER_TABLE);
+        String[] cities = {"gz", "sz", "bj"};
+        for (int i = 0; i < 18; i++) {
+            // 年龄和城市都有大量重复，排序键只有加上主键才唯一
+            TestDatabase.execute(pool, "INSERT INTO tb_user (username, age, city) VALUES ('user" + i + "', "
+                    + (20 + i % 3 * 5) + ", '" + cities[i % 4 % 3] + "')");
+        }
+        SessionManager.setDataSource(pool);
+        SessionManager.setDialect(Dialect.H2);
+        repository = new UserRepository();
+    }
+
+    @Override
+    protected void tearDown() {
+        SessionManager.setDialect(null);
+        pool.close();
+    }
+
+    public void testUniformDirection() throws Exception {
+        assertTraversal(new QueryWrapper<User>().orderBy("age", "DESC"), 5,
+                new QueryWrapper<User>().orderBy("age", "DESC").orderBy("id", "DESC"));
+    }
+
+    public void testMixedDirections() throws Exception {
+        assertTraversal(new QueryWrapper<User>().orderBy("age", "ASC").orderBy("city", "DESC"), 4,
+                new QueryWrapper<User>().orderBy("age", "ASC").orderBy("city", "DESC").orderBy("id", "DESC"));
+    }
+
+    public void testWithCondition() throws Exception {
+        assertTraversal(new QueryWrapper<User>().gt("age", 20).orderBy("city", "ASC"), 3,
+                new QueryWrapper<User>().gt("age", 20).orderBy("city", "ASC").orderBy("id", "ASC"));
+    }
+
+    public void testLastFullPageHasNoCursor() throws Exception {
+        QueryWrapper<User> wrapper = new QueryWrapper<User>().orderBy("id", "ASC");
+        KeysetPage<User> first = repository.selectKeysetPage(wrapper, 9, null);
+        assertTrue(first.hasNext());
+        KeysetPage<User> second = repository.selectKeysetPage(wrapper, 9, first.getNextCursor());
+        assertEquals(9, second.getRecords().size());
+        assertFalse(second.hasNext());
+    }
+
+    public void testCursorRoundTrip() {
+        List<Object> values = Arrays.asList(null, 42L, 7, "城市", new BigDecimal("12.50"), 1.5, true,
+                Timestamp.valueOf("2024-01-02 03:04:05.123456789"), LocalDateTime.of(2024, 1, 2, 3, 4),
+                LocalDate.of(2024, 1, 2));
+        String cursor = KeysetCursor.encode(values);
+        assertTrue(cursor, cursor.matches("[A-Za-z0-9_-]+"));
+        assertEquals(values, Arrays.asList(KeysetCursor.decode(cursor, values.size())));
+    }
+
+    public void testCursorForAnotherOrderIsRejected() throws Exception {
+        String cursor = KeysetCursor.encode(Arrays.<Object>asList(20, 3L));
+        try {
+            repository.selectKeysetPage(new QueryWrapper<User>().orderBy("age", "ASC").orderBy("city", "ASC"), 5, cursor);
+            fail("Expected a cursor with a different number of keys to be rejected");
+        } catch (IllegalArgumentException e) {
+            // 排序列的个数不同
+        }
+        try {
+            KeysetCursor.decode("not a cursor", 2);
+            fail("Expected a malformed cursor to be rejected");
+        } catch (IllegalArgumentException e) {
+            // 无法解码
+        }
+    }
+
+    private void assertTraversal(QueryWrapper<User> wrapper, int size, QueryWrapper<User> expectedOrder) throws Exception {
+        List<Long> expected = ids(repository.selectList(expectedOrder));
+        List<Long> actual = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            KeysetPage<User> page = repository.selectKeysetPage(wrapper, size, cursor);
+            assertTrue(page.getRecords().size() <= size);
+            actual.addAll(ids(page.getRecords()));
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+        assertEquals(expected, actual);
+        assertEquals((expected.size() + size - 1) / size, pages);
+    }
+
+    private static List<Long> ids(List<User> users) {
+        List<Long> ids = new ArrayList<>();
+        for (User user : users) {
+            ids.add(user.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,77 @@
+package com.anm.core;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lazy 关系和 fetch() 按主键属性自身的类型批量加载，主键不是 Long 时也适用
+ */
+public class LazyRelationTest extends TestCase {
+    private ConnectionPool pool;
+    private BaseRepository<Product> repository;
+
+    @Override
+    protected void setUp() throws Exception {
+        pool = TestDatabase.create(null,
+                "CREATE TABLE tb_category (id INT PRIMARY KEY, name VARCHAR(50))",
+                "CREATE TABLE tb_product (id INT PRIMARY KEY, name VARCHAR(50), category_id INT, brand_id INT)");
+        TestDatabase.execute(pool, "INSERT INTO tb_category VALUES (1, 'book'), (2, 'toy')");
+        TestDatabase.execute(pool, "INSERT INTO tb_product VALUES (10, 'novel', 1, 2), (11, 'puzzle', 2, 2),"
+                + " (12, 'atlas', 1, NULL), (13, 'orphan', 7, 1)");
+        SessionManager.setDataSource(pool);
+        SessionManager.setDialect(Dialect.H2);
+        repository = new BaseRepository<Product>(Product.class) {
+        };
+    }
+
+    @Override
+    protected void tearDown() {
+        SessionManager.setDialect(null);
+        pool.close();
+    }
+
+    public void testLazyReferencesLoadTogether() throws Exception {
+        List<Product> products = repository.selectList(new QueryWrapper<Product>().orderBy("id", "ASC"));
+        Lazy<Category> first = products.get(0).category;
+        assertFalse(first.isLoaded());
+        assertEquals(Integer.valueOf(1), first.getId());
+        assertEquals("book", first.get().name);
+        // 同一次查询的其他引用已一起加载
+        assertTrue(products.get(1).category.isLoaded());
+        assertEquals("toy", products.get(1).category.get().name);
+        assertSame(first.get(), products.get(2).category.get());
+        assertNull(products.get(3).category.get());
+    }
+
+    public void testFetchWithIntegerKeys() throws Exception {
+        List<Product> products = repository.selectList(new QueryWrapper<Product>().orderBy("id", "ASC").fetch("brand"));
+        assertEquals("toy", products.get(0).brand.name);
+        assertSame(products.get(0).brand, products.get(1).brand);
+        assertNull(products.get(2).brand);
+        assertEquals("book", products.get(3).brand.name);
+    }
+
+    public void testSelectByIdsWithIntegerKeys() throws Exception {
+        BaseRepository<?> categories = BaseRepository.getRepositoryInstance(Category.class);
+        assertEquals(2, categories.selectByIds(Arrays.asList(1, 2, 3)).size());
+    }
+
+    @Table("tb_category")
+    public static class Category {
+        @Id
+        public Integer id;
+        public String name;
+    }
+
+    @Table("tb_product")
+    public static class Product {
+        @Id
+        public Integer id;
+        public String name;
+        public Lazy<Category> category;
+        // 同样指向 tb_category，用于 fetch()
+        public Category brand;
+    }
+}
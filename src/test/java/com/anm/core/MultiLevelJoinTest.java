@@ -0,0 +1,154 @@
+package com.anm.core;
+
+import com.anm.demo.Company;
+import com.anm.demo.Dept;
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * 多级关联路径合并为一次 JOIN 查询，逐级挂到父实体上
+ */
+public class MultiLevelJoinTest extends TestCase {
+    private ConnectionPool pool;
+    private BaseRepository<Employee> repository;
+
+    @Override
+    protected void setUp() throws Exception {
+        pool = TestDatabase.create(null,
+                "CREATE TABLE tb_company (id BIGINT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(50))",
+                "CREATE TABLE tb_dept (id BIGINT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(50), company_id BIGINT)",
+                "CREATE TABLE tb_employee (id BIGINT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(50), dept_id BIGINT)");
+        TestDatabase.execute(pool, "INSERT INTO tb_company (name) VALUES ('acme'), ('globex')");
+        TestDatabase.execute(pool, "INSERT INTO tb_dept (name, company_id) VALUES ('sales', 1), ('ops', 2), ('lab', NULL)");
+        TestDatabase.execute(pool, "INSERT INTO tb_employee (name, dept_id) VALUES ('ann', 1), ('ben', 2), ('cat', 1),"
+                + " ('dan', 3), ('eve', NULL)");
+        SessionManager.setDataSource(pool);
+        EntityCache.of(Company.class).clear();
+        repository = new BaseRepository<Employee>() {
+        };
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TransactionManager.rollback();
+        EntityCache.of(Company.class).clear();
+        pool.close();
+    }
+
+    public void testThreeLevelsHydrated() throws Exception {
+        List<Employee> employees = repository.selectList(new QueryWrapper<Employee>().eq("dept.company.name", "acme")
+                .orderBy("id", "ASC"));
+        assertEquals(2, employees.size());
+        Employee ann = employees.get(0);
+        assertEquals("ann", ann.name);
+        assertEquals("sales", ann.dept.getName());
+        assertEquals(Long.valueOf(1), ann.dept.getCompany().getId());
+        assertEquals("acme", ann.dept.getCompany().getName());
+        assertEquals("cat", employees.get(1).name);
+    }
+
+    public void testSharedPrefixJoinedOnce() {
+        QueryWrapper<Employee> wrapper = new QueryWrapper<Employee>().eq("dept.name", "sales")
+                .eq("dept.company.name", "acme").orderBy("dept.company.id", "DESC");
+        String sql = SqlTemplateCache.of(EntityMetadata.of(Employee.class)).select(wrapper, false).getSql();
+        assertEquals(sql, 2, sql.split(" LEFT JOIN ").length - 1);
+        assertTrue(sql, sql.contains(" LEFT JOIN tb_dept t1 ON t0.dept_id = t1.id LEFT JOIN tb_company t2 ON t1.company_id = t2.id"));
+    }
+
+    public void testUnmatchedParentsAreNull() throws Exception {
+        List<Employee> employees = repository.selectList(new QueryWrapper<Employee>().orderBy("dept.company.name", "ASC")
+                .orderBy("id", "ASC"));
+        assertEquals(5, employees.size());
+        for (Employee employee : employees) {
+            if (employee.name.equals("dan")) {
+                // 部门没有公司
+                assertEquals("lab", employee.dept.getName());
+                assertNull(employee.dept.getCompany());
+            } else if (employee.name.equals("eve")) {
+                // 没有部门时公司也不映射
+                assertNull(employee.dept);
+            } else {
+                assertNotNull(employee.dept.getCompany().getName());
+            }
+        }
+        assertEquals("ben", employees.get(employees.size() - 1).name);
+    }
+
+    public void testSelectAcrossLevels() throws Exception {
+        Employee ben = repository.selectOne(new QueryWrapper<Employee>().eq("name", "ben").select("dept.company.name")).get();
+        assertNull(ben.name);
+        assertEquals("globex", ben.dept.getCompany().getName());
+        assertNull(ben.dept.getName());
+
+        List<EmployeeView> views = repository.selectList(new QueryWrapper<Employee>().lt("id", 3).orderBy("id", "ASC"),
+                EmployeeView.class);
+        assertEquals("ann", views.get(0).name);
+        assertEquals("sales", views.get(0).deptName);
+        assertEquals("acme", views.get(0).deptCompanyName);
+        assertEquals("globex", views.get(1).deptCompanyName);
+    }
+
+    public void testJoinedInstancesReusedInTransaction() throws Exception {
+        TransactionManager.beginTransaction();
+        List<Employee> employees = repository.selectList(new QueryWrapper<Employee>().eq("dept.company.name", "acme"));
+        assertSame(employees.get(0).dept, employees.get(1).dept);
+        assertSame(employees.get(0).dept.getCompany(), employees.get(1).dept.getCompany());
+        TransactionManager.commit();
+    }
+
+    public void testJoinedEntityKeepsForeignKey() throws Exception {
+        Employee ann = repository.selectList(new QueryWrapper<Employee>().eq("dept.name", "sales")).get(0);
+        // 未关联查询的公司只有主键
+        assertEquals(Long.valueOf(1), ann.dept.getCompany().getId());
+        assertNull(ann.dept.getCompany().getName());
+
+        ann.dept.setName("marketing");
+        depts().update(ann.dept);
+        assertEquals("marketing", TestDatabase.queryString(pool, "SELECT name FROM tb_dept WHERE id = 1"));
+        assertEquals(1, TestDatabase.queryLong(pool, "SELECT company_id FROM tb_dept WHERE id = 1"));
+    }
+
+    public void testJoinedEntityInIdentityMapKeepsForeignKey() throws Exception {
+        TransactionManager.beginTransaction();
+        Employee ann = repository.selectList(new QueryWrapper<Employee>().eq("dept.name", "sales")).get(0);
+        Dept dept = depts().selectById(1L).get();
+        assertSame(ann.dept, dept);
+        assertEquals(Long.valueOf(1), dept.getCompany().getId());
+        dept.setName("marketing");
+        depts().update(dept);
+        TransactionManager.commit();
+        assertEquals(1, TestDatabase.queryLong(pool, "SELECT company_id FROM tb_dept WHERE id = 1"));
+    }
+
+    public void testJoinWithoutChildColumnsIsNotReused() throws Exception {
+        TransactionManager.beginTransaction();
+        // 公司只用于过滤，部门的 company_id 没有查询
+        Employee ann = repository.selectList(new QueryWrapper<Employee>().eq("dept.company.name", "acme")
+                .select("name", "dept.name").orderBy("id", "ASC")).get(0);
+        assertNull(ann.dept.getCompany());
+        Dept dept = depts().selectById(1L).get();
+        assertNotSame(ann.dept, dept);
+        assertEquals(Long.valueOf(1), dept.getCompany().getId());
+        TransactionManager.commit();
+    }
+
+    private BaseRepository<Dept> depts() {
+        return new BaseRepository<Dept>(Dept.class) {
+        };
+    }
+
+    @Table("tb_employee")
+    public static class Employee {
+        @Id
+        public Long id;
+        public String name;
+        public Dept dept;
+    }
+
+    public static class EmployeeView {
+        public String name;
+        public String deptName;
+        public String deptCompanyName;
+    }
+}
@@ -0,0 +1,96 @@
+package com.anm.core;
+
+import com.anm.demo.Role;
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * 只查询选择的列，以及按字段名映射到 DTO
+ */
+public class ProjectionTest extends TestCase {
+    private ConnectionPool pool;
+    private UserRepository repository;
+
+    @Override
+    protected void setUp() throws Exception {
+        pool = TestDatabase.create(null, TestDatabase.ROLE_TABLE, TestDatabase.USER_TABLE);
+        TestDatabase.execute(pool, "INSERT INTO tb_role (name) VALUES ('admin')");
+        TestDatabase.execute(pool, "INSERT INTO tb_user (username, password, name, age, role_id)"
+                + " VALUES ('alice', 'secret', 'Alice', 30, 1), ('bob', 'hidden', 'Bob', 25, NULL)");
+        SessionManager.setDataSource(pool);
+        EntityCache.of(Role.class).clear();
+        repository = new UserRepository();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        EntityCache.of(Role.class).clear();
+        pool.close();
+    }
+
+    public void testSelectedColumnsOnly() throws Exception {
+        QueryWrapper<User> wrapper = new QueryWrapper<User>().select("username", "role.name").orderBy("id", "ASC");
+        String sql = SqlTemplateCache.of(EntityMetadata.of(User.class)).select(wrapper, false).getSql();
+        assertTrue(sql, sql.startsWith("SELECT t0.id, t0.username, "));
+        assertTrue(sql, sql.contains(".name FROM tb_user t0 LEFT JOIN tb_role "));
+        assertFalse(sql, sql.contains("password"));
+        assertFalse(sql, sql.contains("age"));
+
+        List<User> users = repository.selectList(wrapper);
+        User alice = users.get(0);
+        assertEquals(Long.valueOf(1), alice.getId());
+        assertEquals("alice", alice.getUsername());
+        assertNull(alice.getPassword());
+        assertNull(alice.getAge());
+        assertEquals("admin", alice.getRole().getName());
+        // LEFT JOIN 未匹配
+        assertNull(users.get(1).getRole());
+    }
+
+    public void testUnknownProperty() throws Exception {
+        try {
+            repository.selectList(new QueryWrapper<User>().select("nickname"));
+            fail("Expected an unknown property to be rejected");
+        } catch (RuntimeException e) {
+            assertEquals("No such field: nickname", e.getMessage());
+        }
+    }
+
+    public void testDtoColumnsInferredFromFields() throws Exception {
+        List<UserSummary> summaries = repository.selectList(new QueryWrapper<User>().orderBy("id", "ASC"), UserSummary.class);
+        assertEquals(2, summaries.size());
+        UserSummary alice = summaries.get(0);
+        assertEquals("alice", alice.username);
+        assertEquals("admin", alice.roleName);
+        // 转换为 DTO 字段的类型
+        assertEquals(Long.valueOf(30), alice.age);
+        assertNull(alice.note);
+        assertNull(summaries.get(1).roleName);
+    }
+
+    public void testDtoWithExplicitSelection() throws Exception {
+        List<UserSummary> summaries = repository.selectList(new QueryWrapper<User>().eq("name", "Bob").select("username"),
+                UserSummary.class);
+        assertEquals(1, summaries.size());
+        assertEquals("bob", summaries.get(0).username);
+        assertNull(summaries.get(0).age);
+
+        try {
+            repository.selectList(new QueryWrapper<User>().select("password"), UserSummary.class);
+            fail("Expected a selected property without a DTO field to be rejected");
+        } catch (RuntimeException e) {
+            assertEquals("No such field: password in UserSummary", e.getMessage());
+        }
+    }
+
+    static class UserSummary {
+        private String username;
+        private String roleName;
+        private Long age;
+        // 不对应任何属性
+        private String note;
+    }
+}
@@ -0,0 +1,135 @@
+package com.anm.core;
+
+import com.anm.demo.Role;
+import com.anm.demo.RoleRepository;
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 查询结果缓存的命中与失效：通过 Repository 写入、写入关联的表、手动失效，以及事务中的写入
+ */
+public class QueryCacheTest extends TestCase {
+    private ConnectionPool pool;
+    private UserRepository users;
+    private int selects;
+    private final SqlListener listener = new SqlListener() {
+        @Override
+        public void onStatement(String sql, long elapsedNanos, int rows, boolean success) {
+            if (sql.startsWith("SELECT")) {
+                selects++;
+            }
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        pool = TestDatabase.create(null, TestDatabase.ROLE_TABLE, TestDatabase.USER_TABLE);
+        TestDatabase.execute(pool, "INSERT INTO tb_role (name) VALUES ('admin'), ('guest')");
+        TestDatabase.execute(pool, "INSERT INTO tb_user (username, age, role_id) VALUES ('alice', 30, 1), ('bob', 20, 2)");
+        SessionManager.setDataSource(pool);
+        SessionManager.setDialect(Dialect.H2);
+        QueryCache.clear();
+        EntityCache.of(Role.class).clear();
+        SqlMetrics.addListener(listener);
+        users = new UserRepository();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TransactionManager.rollback();
+        SqlMetrics.removeListener(listener);
+        QueryCache.clear();
+        EntityCache.of(Role.class).clear();
+        SessionManager.setDialect(null);
+        pool.close();
+    }
+
+    public void testRepeatedQueryIsServedFromCache() throws Exception {
+        List<User> first = users.selectList(cachedAll());
+        long hits = QueryCache.getHitCount();
+        int before = selects;
+        List<User> second = users.selectList(cachedAll());
+        assertEquals(hits + 1, QueryCache.getHitCount());
+        assertEquals(before, selects);
+        assertEquals(2, second.size());
+        // 返回的是副本，修改不影响缓存
+        assertNotSame(first.get(0), second.get(0));
+        second.get(0).setUsername("changed");
+        assertEquals("alice", users.selectList(cachedAll()).get(0).getUsername());
+    }
+
+    public void testUncachedQueryAlwaysReadsDatabase() throws Exception {
+        users.selectList(new QueryWrapper<>());
+        int before = selects;
+        users.selectList(new QueryWrapper<>());
+        assertEquals(before + 1, selects);
+        assertEquals(0, QueryCache.size());
+    }
+
+    public void testWriteThroughRepositoryInvalidates() throws Exception {
+        assertEquals(2, users.selectList(cachedAll()).size());
+        assertEquals(2, users.selectPage(1, 10, cachedAll()).getTotal());
+        User carol = new User();
+        carol.setUsername("carol");
+        users.insert(carol);
+        assertEquals(3, users.selectList(cachedAll()).size());
+        assertEquals(3, users.selectPage(1, 10, cachedAll()).getTotal());
+    }
+
+    public void testWriteToJoinedTableInvalidates() throws Exception {
+        QueryWrapper<User> admins = new QueryWrapper<User>().eq("role.name", "admin").cached();
+        assertEquals(1, users.selectList(admins).size());
+        Role guest = new RoleRepository().selectById(2L).get();
+        guest.setName("admin");
+        new RoleRepository().update(guest);
+        assertEquals(2, users.selectList(new QueryWrapper<User>().eq("role.name", "admin").cached()).size());
+    }
+
+    public void testManualInvalidation() throws Exception {
+        assertEquals(2, users.selectList(cachedAll()).size());
+        TestDatabase.execute(pool, "INSERT INTO tb_user (username) VALUES ('outside')");
+        // 不经过 Repository 的写入看不到
+        assertEquals(2, users.selectList(cachedAll()).size());
+        QueryCache.invalidate("TB_USER");
+        assertEquals(3, users.selectList(cachedAll()).size());
+    }
+
+    public void testTransactionBypassesCacheAndInvalidatesOnCommit() throws Exception {
+        assertEquals(2, users.selectList(cachedAll()).size());
+        TransactionManager.beginTransaction();
+        User carol = new User();
+        carol.setUsername("carol");
+        users.insert(carol);
+        // 事务中不读缓存，能看到自己未提交的写入
+        assertEquals(3, users.selectList(cachedAll()).size());
+        // 提交前其他线程的查询看不到未提交的写入，并把旧结果放回缓存
+        assertEquals(2, CompletableFuture.supplyAsync(() -> {
+            try {
+                return users.selectList(cachedAll()).size();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }).get().intValue());
+        TransactionManager.commit();
+        // 提交后再次失效，不会读到提交前放入的旧结果
+        assertEquals(3, users.selectList(cachedAll()).size());
+    }
+
+    public void testRollbackKeepsCachedResultValid() throws Exception {
+        assertEquals(2, users.selectList(cachedAll()).size());
+        TransactionManager.beginTransaction();
+        User carol = new User();
+        carol.setUsername("carol");
+        users.insert(carol);
+        TransactionManager.rollback();
+        assertEquals(2, users.selectList(cachedAll()).size());
+    }
+
+    private static QueryWrapper<User> cachedAll() {
+        return new QueryWrapper<User>().orderBy("id", "ASC").cached();
+    }
+}
@@ -0,0 +1,159 @@
+package com.anm.core;
+
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import junit.framework.TestCase;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 读写分离，主库和副本各是一个 H2 内存库；副本中的数据与主库不同，用来判断查询走了哪个库
+ */
+public class ReadWriteSplittingTest extends TestCase {
+    private static int sequence;
+
+    private ConnectionPool primary;
+    private ConnectionPool replica;
+    private final List<ConnectionPool> pools = new ArrayList<>();
+    private UserRepository repository;
+
+    @Override
+    protected void setUp() throws Exception {
+        primary = database("primary");
+        replica = database("replica");
+        SessionManager.setDataSource(primary);
+        SessionManager.setDialect(Dialect.H2);
+        SessionManager.setReplicas(replica);
+        repository = new UserRepository();
+    }
+
+    @Override
+    protected void tearDown() {
+        SessionManager.setReplicas();
+        SessionManager.setReadYourWritesWindow(0);
+        SessionManager.setDialect(null);
+        for (ConnectionPool pool : pools) {
+            pool.close();
+        }
+    }
+
+    public void testReadsGoToReplica() throws Exception {
+        assertEquals("replica", onlyUsername());
+        assertTrue(repository.exists(new QueryWrapper<User>().eq("username", "replica")));
+        assertEquals(1, repository.selectPage(1, 10, new QueryWrapper<>()).getTotal());
+    }
+
+    public void testWritesGoToPrimary() throws Exception {
+        repository.insert(user("written"));
+        assertEquals(1, count(primary, "written"));
+        assertEquals(0, count(replica, "written"));
+    }
+
+    public void testTransactionReadsFromPrimary() throws Exception {
+        TransactionManager.beginTransaction();
+        try {
+            assertEquals("primary", onlyUsername());
+        } finally {
+            TransactionManager.rollback();
+        }
+        assertEquals("replica", onlyUsername());
+    }
+
+    public void testReadFromPrimary() throws Exception {
+        assertEquals("primary", SessionManager.readFromPrimary(this::onlyUsername));
+        assertEquals("replica", onlyUsername());
+    }
+
+    public void testReadYourWritesWindow() throws Exception {
+        SessionManager.setReadYourWritesWindow(60000);
+        Long id = repository.insert(user("written")).getId();
+        Optional<User> written = repository.selectById(id);
+        assertTrue(written.isPresent());
+        assertEquals("written", written.get().getUsername());
+    }
+
+    public void testConcurrentCountFollowsCallerRouting() throws Exception {
+        repository.insert(user("written"));
+        // 主库 2 行，副本 1 行
+        assertEquals(1, concurrentTotal());
+        assertEquals(2, SessionManager.readFromPrimary(this::concurrentTotal).longValue());
+        SessionManager.setReadYourWritesWindow(60000);
+        repository.insert(user("again"));
+        assertEquals(3, concurrentTotal());
+    }
+
+    public void testRoundRobin() throws Exception {
+        ConnectionPool second = database("second");
+        execute(second, "UPDATE tb_user SET username = 'second'");
+        SessionManager.setReplicas(replica, second);
+        List<String> seen = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            seen.add(onlyUsername());
+        }
+        assertEquals(2, seen.stream().filter("replica"::equals).count());
+        assertEquals(2, seen.stream().filter("second"::equals).count());
+    }
+
+    public void testUnavailableReplicaIsRemoved() throws Exception {
+        ConnectionPool broken = database("broken");
+        broken.close();
+        SessionManager.setReplicas(broken, replica);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("replica", onlyUsername());
+        }
+        assertEquals(1, SessionManager.getHealthyReplicaCount());
+
+        // 全部副本不可用时回到主库
+        SessionManager.setReplicas(broken);
+        assertEquals("primary", onlyUsername());
+        assertEquals(0, SessionManager.getHealthyReplicaCount());
+    }
+
+    private long concurrentTotal() throws Exception {
+        return repository.selectPage(1, 10, new QueryWrapper<>(), CountStrategy.CONCURRENT).getTotal();
+    }
+
+    private String onlyUsername() throws Exception {
+        List<User> users = repository.selectList(new QueryWrapper<>());
+        assertEquals(1, users.size());
+        return users.get(0).getUsername();
+    }
+
+    private ConnectionPool database(String role) throws SQLException {
+        String name = role + (++sequence);
+        ConnectionPool pool = new ConnectionPool("jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+        pools.add(pool);
+        execute(pool, "CREATE TABLE tb_user (id BIGINT AUTO_INCREMENT PRIMARY KEY, username VARCHAR(50),"
+                + " password VARCHAR(50), phone_number VARCHAR(20), name VARCHAR(50), age INT, role_id BIGINT,"
+                + " city VARCHAR(50))");
+        execute(pool, "INSERT INTO tb_user (username) VALUES ('" + role + "')");
+        return pool;
+    }
+
+    private static User user(String username) {
+        User user = new User();
+        user.setUsername(username);
+        return user;
+    }
+
+    private static void execute(ConnectionPool pool, String sql) throws SQLException {
+        try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private static int count(ConnectionPool pool, String username) throws SQLException {
+        try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(
+                     "SELECT COUNT(*) FROM tb_user WHERE username = '" + username + "'")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.anm.core;
+
+import com.anm.demo.Role;
+import com.anm.demo.RoleRepository;
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * 未关联查询的多对一关系映射为只有主键的实例，fetch() 批量加载后替换为完整的实体
+ */
+public class RelationMappingTest extends TestCase {
+    private ConnectionPool pool;
+    private UserRepository repository;
+
+    @Override
+    protected void setUp() throws Exception {
+        pool = TestDatabase.create(null, TestDatabase.ROLE_TABLE, TestDatabase.USER_TABLE);
+        TestDatabase.execute(pool, "INSERT INTO tb_role (name) VALUES ('admin'), ('guest')");
+        TestDatabase.execute(pool, "INSERT INTO tb_user (username, role_id) VALUES ('alice', 1), ('bob', 2),"
+                + " ('carol', NULL), ('dave', 99), ('erin', 1)");
+        SessionManager.setDataSource(pool);
+        SessionManager.setDialect(Dialect.H2);
+        EntityCache.of(Role.class).clear();
+        repository = new UserRepository();
+    }
+
+    @Override
+    protected void tearDown() {
+        SessionManager.setDialect(null);
+        EntityCache.of(Role.class).clear();
+        pool.close();
+    }
+
+    public void testUnfetchedRelationHasOnlyId() throws Exception {
+        List<User> users = repository.selectList(new QueryWrapper<User>().orderBy("id", "ASC"));
+        Role role = users.get(0).getRole();
+        assertNotNull(role);
+        assertEquals(Long.valueOf(1), role.getId());
+        assertNull(role.getName());
+        // 外键为 NULL 时没有实例
+        assertNull(users.get(2).getRole());
+    }
+
+    public void testFetchReplacesIdOnlyInstances() throws Exception {
+        List<User> users = repository.selectList(new QueryWrapper<User>().orderBy("id", "ASC").fetch("role"));
+        assertEquals("admin", users.get(0).getRole().getName());
+        assertEquals("guest", users.get(1).getRole().getName());
+        assertNull(users.get(2).getRole());
+        // 外键指向的记录不存在
+        assertNull(users.get(3).getRole());
+        // 同一个外键共用一个实例
+        assertSame(users.get(0).getRole(), users.get(4).getRole());
+    }
+
+    public void testRelationsLoadThroughEntityRepository() {
+        assertTrue(BaseRepository.getRepositoryInstance(Role.class) instanceof RoleRepository);
+        assertSame(BaseRepository.getRepositoryInstance(Role.class), BaseRepository.getRepositoryInstance(Role.class));
+        // 没有对应的 Repository 子类时使用通用的实例
+        BaseRepository<?> generic = BaseRepository.getRepositoryInstance(Plain.class);
+        assertEquals(BaseRepository.class, generic.getClass().getSuperclass());
+    }
+
+    public void testTransactionReusesLoadedRelation() throws Exception {
+        TransactionManager.beginTransaction();
+        try {
+            Role role = new RoleRepository().selectById(1L).get();
+            User user = repository.selectById(1L).get();
+            assertSame(role, user.getRole());
+        } finally {
+            TransactionManager.rollback();
+        }
+    }
+
+    @Table("tb_plain")
+    public static class Plain {
+        @Id
+        public Long id;
+    }
+}
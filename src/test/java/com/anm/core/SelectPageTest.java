@@ -0,0 +1,155 @@
+package com.anm.core;
+
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import junit.framework.TestCase;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分页查询的各种总数策略
+ */
+public class SelectPageTest extends TestCase {
+    private ConnectionPool pool;
+    private UserRepository repository;
+
+    @Override
+    protected void setUp() throws Exception {
+        pool = TestDatabase.create(null, TestDatabase.USER_TABLE);
+        for (int i = 1; i <= 10; i++) {
+            TestDatabase.execute(pool, "INSERT INTO tb_user (username, age) VALUES ('user" + i + "', " + (i % 2) + ")");
+        }
+        SessionManager.setDataSource(pool);
+        SessionManager.setDialect(Dialect.H2);
+        CountCache.clear();
+        repository = new UserRepository();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TransactionManager.rollback();
+        CountCache.setTimeToLive(60, TimeUnit.SECONDS);
+        CountCache.clear();
+        SessionManager.setDialect(null);
+        pool.close();
+    }
+
+    public void testExact() throws Exception {
+        Page<User> page = repository.selectPage(2, 4, ordered());
+        assertEquals(10, page.getTotal());
+        assertEquals(4, page.getRecords().size());
+        assertEquals("user5", page.getRecords().get(0).getUsername());
+        assertTrue(page.hasNext());
+        assertFalse(repository.selectPage(3, 4, ordered()).hasNext());
+    }
+
+    public void testNoneFetchesOneExtraRow() throws Exception {
+        Page<User> page = repository.selectPage(1, 4, ordered(), CountStrategy.NONE);
+        assertEquals(-1, page.getTotal());
+        assertEquals(4, page.getRecords().size());
+        assertTrue(page.hasNext());
+        // 最后一页正好满页时没有下一页
+        page = repository.selectPage(2, 5, ordered(), CountStrategy.NONE);
+        assertEquals(5, page.getRecords().size());
+        assertEquals("user10", page.getRecords().get(4).getUsername());
+        assertFalse(page.hasNext());
+        page = repository.selectPage(3, 4, ordered(), CountStrategy.NONE);
+        assertEquals(2, page.getRecords().size());
+        assertFalse(page.hasNext());
+    }
+
+    public void testNoneTreatsPagesBelowOneAsFirstPage() throws Exception {
+        for (int current : new int[]{0, -1}) {
+            Page<User> page = repository.selectPage(current, 4, ordered(), CountStrategy.NONE);
+            assertEquals(1, page.getCurrent());
+            assertEquals(4, page.getRecords().size());
+            assertEquals("user1", page.getRecords().get(0).getUsername());
+            assertTrue(page.hasNext());
+        }
+    }
+
+    public void testCachedCountUntilExpired() throws Exception {
+        QueryWrapper<User> odd = new QueryWrapper<User>().eq("age", 1);
+        assertEquals(5, repository.selectPage(1, 2, odd, CountStrategy.CACHED).getTotal());
+        TestDatabase.execute(pool, "INSERT INTO tb_user (username, age) VALUES ('user11', 1)");
+        // 同一形状和参数在过期前返回缓存的总数
+        assertEquals(5, repository.selectPage(2, 2, new QueryWrapper<User>().eq("age", 1), CountStrategy.CACHED).getTotal());
+        // 参数不同是另一个条目
+        assertEquals(5, repository.selectPage(1, 2, new QueryWrapper<User>().eq("age", 0), CountStrategy.CACHED).getTotal());
+
+        CountCache.setTimeToLive(1, TimeUnit.MILLISECONDS);
+        CountCache.clear();
+        assertEquals(6, repository.selectPage(1, 2, odd, CountStrategy.CACHED).getTotal());
+        TestDatabase.execute(pool, "INSERT INTO tb_user (username, age) VALUES ('user12', 1)");
+        Thread.sleep(5);
+        assertEquals(7, repository.selectPage(1, 2, odd, CountStrategy.CACHED).getTotal());
+    }
+
+    public void testEstimatedFallsBackToExactCount() throws Exception {
+        // H2 没有行数估计
+        Page<User> page = repository.selectPage(1, 3, new QueryWrapper<User>().eq("age", 0), CountStrategy.ESTIMATED);
+        assertEquals(5, page.getTotal());
+        assertEquals(3, page.getRecords().size());
+    }
+
+    public void testMysqlEstimateMultipliesRowsAndFiltered() throws Exception {
+        List<String> explained = new ArrayList<>();
+        try (Connection connection = pool.getConnection()) {
+            // 用固定的结果代替 EXPLAIN 的输出
+            Connection explain = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        if (method.getName().equals("prepareStatement")) {
+                            explained.add((String) args[0]);
+                            args = new Object[]{"SELECT * FROM (VALUES (10, 50.0), (CAST(NULL AS INT), NULL), (4, NULL))"
+                                    + " AS t (\"rows\", \"filtered\") WHERE CAST(? AS INT) = 1"};
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getTargetException();
+                        }
+                    });
+            assertEquals(20, Dialect.MYSQL.estimateRows(explain, "SELECT 1 FROM tb_user WHERE age = ?", Arrays.<Object>asList(1)));
+        }
+        assertEquals(Arrays.asList("EXPLAIN SELECT 1 FROM tb_user WHERE age = ?"), explained);
+        assertEquals(-1, Dialect.H2.estimateRows(null, "SELECT 1", new ArrayList<>()));
+    }
+
+    public void testConcurrentCount() throws Exception {
+        Page<User> page = repository.selectPage(3, 3, ordered(), CountStrategy.CONCURRENT);
+        assertEquals(10, page.getTotal());
+        assertEquals(3, page.getRecords().size());
+        assertEquals("user7", page.getRecords().get(0).getUsername());
+
+        // 事务中在事务连接上统计，能看到未提交的行
+        TransactionManager.beginTransaction();
+        User user = new User();
+        user.setUsername("pending");
+        repository.insert(user);
+        assertEquals(11, repository.selectPage(1, 3, ordered(), CountStrategy.CONCURRENT).getTotal());
+        TransactionManager.rollback();
+    }
+
+    public void testConcurrentCountOnRoutedDataSource() throws Exception {
+        ConnectionPool other = TestDatabase.create(null, TestDatabase.USER_TABLE);
+        try {
+            TestDatabase.execute(other, "INSERT INTO tb_user (username) VALUES ('other')");
+            Page<User> page = SessionManager.onDataSource(other,
+                    () -> repository.selectPage(1, 3, ordered(), CountStrategy.CONCURRENT));
+            assertEquals(1, page.getTotal());
+            assertEquals("other", page.getRecords().get(0).getUsername());
+        } finally {
+            other.close();
+        }
+    }
+
+    private static QueryWrapper<User> ordered() {
+        return new QueryWrapper<User>().orderBy("id", "ASC");
+    }
+}
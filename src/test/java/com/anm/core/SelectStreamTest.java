@@ -0,0 +1,174 @@
+package com.anm.core;
+
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import junit.framework.TestCase;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 流式查询的 fetchSize，以及读完或提前关闭时归还连接
+ */
+public class SelectStreamTest extends TestCase {
+    private ConnectionPool pool;
+    private UserRepository repository;
+    private final List<Integer> fetchSizes = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        pool = TestDatabase.create(null, TestDatabase.USER_TABLE);
+        for (int i = 1; i <= 25; i++) {
+            TestDatabase.execute(pool, "INSERT INTO tb_user (username, age) VALUES ('user" + i + "', " + i + ")");
+        }
+        SessionManager.setDataSource(recording(pool));
+        repository = new UserRepository();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TransactionManager.rollback();
+        pool.close();
+    }
+
+    public void testStreamMapsEveryRowInOrder() throws Exception {
+        try (Stream<User> stream = repository.selectStream(new QueryWrapper<User>().gt("age", 5).orderBy("id", "ASC"))) {
+            List<Integer> ages = stream.map(User::getAge).collect(Collectors.toList());
+            assertEquals(20, ages.size());
+            assertEquals(Integer.valueOf(6), ages.get(0));
+            assertEquals(Integer.valueOf(25), ages.get(19));
+        }
+    }
+
+    public void testFetchSize() throws Exception {
+        repository.selectStream(new QueryWrapper<>()).close();
+        repository.selectStream(new QueryWrapper<>(), 7).close();
+        assertEquals(Dialect.H2.streamingFetchSize(), fetchSizes.get(0).intValue());
+        assertEquals(1000, fetchSizes.get(0).intValue());
+        assertEquals(7, fetchSizes.get(1).intValue());
+        // Connector/J 只在 Integer.MIN_VALUE 时逐行读取
+        assertEquals(Integer.MIN_VALUE, Dialect.MYSQL.streamingFetchSize());
+    }
+
+    public void testEarlyCloseReturnsConnection() throws Exception {
+        Stream<User> stream = repository.selectStream(new QueryWrapper<User>().orderBy("id", "ASC"));
+        Iterator<User> iterator = stream.iterator();
+        assertEquals("user1", iterator.next().getUsername());
+        assertEquals("user2", iterator.next().getUsername());
+        assertEquals(1, borrowed());
+        stream.close();
+        assertEquals(0, borrowed());
+        // 重复关闭无副作用
+        stream.close();
+        assertEquals(0, borrowed());
+    }
+
+    public void testExhaustedStreamReturnsConnection() throws Exception {
+        Iterator<User> iterator = repository.selectStream(new QueryWrapper<>()).iterator();
+        int count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        assertEquals(25, count);
+        assertEquals(0, borrowed());
+    }
+
+    public void testForEachCanQueryWhileIterating() throws Exception {
+        List<String> names = new ArrayList<>();
+        repository.forEach(new QueryWrapper<User>().lt("age", 4).orderBy("id", "ASC"), user -> {
+            try {
+                // 事务外游标使用独立的连接
+                names.add(repository.selectById(user.getId() + 10).get().getUsername());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertEquals(3, names.size());
+        assertEquals("user11", names.get(0));
+        assertEquals(0, borrowed());
+    }
+
+    public void testStreamInsideTransactionUsesTransactionConnection() throws Exception {
+        TransactionManager.beginTransaction();
+        User user = new User();
+        user.setUsername("pending");
+        repository.insert(user);
+        try (Stream<User> stream = repository.selectStream(new QueryWrapper<>())) {
+            assertEquals(26, stream.count());
+        }
+        // 关闭游标不结束事务
+        assertTrue(SessionManager.isTransactionActive());
+        TransactionManager.rollback();
+        assertEquals(25, TestDatabase.queryLong(pool, "SELECT COUNT(*) FROM tb_user"));
+        assertEquals(0, borrowed());
+    }
+
+    public void testStreamInsideTransactionTakesNoSnapshots() throws Exception {
+        TransactionManager.beginTransaction();
+        repository.selectById(1L);
+        int snapshots = SessionManager.snapshots().size();
+        List<User> users;
+        try (Stream<User> stream = repository.selectStream(new QueryWrapper<User>().gt("age", 1).orderBy("id", "ASC"))) {
+            users = stream.collect(Collectors.toList());
+        }
+        assertEquals(24, users.size());
+        assertEquals(snapshots, SessionManager.snapshots().size());
+
+        // 没有快照的实体写入全部列
+        User user = users.get(0);
+        user.setAge(99);
+        repository.update(user);
+        TransactionManager.commit();
+        assertEquals(99, TestDatabase.queryLong(pool, "SELECT age FROM tb_user WHERE id = 2"));
+        assertEquals("user2", TestDatabase.queryString(pool, "SELECT username FROM tb_user WHERE id = 2"));
+    }
+
+    private int borrowed() {
+        return pool.getTotalConnections() - pool.getIdleConnections();
+    }
+
+    /**
+     * 记录语句上设置的 fetchSize
+     */
+    private DataSource recording(DataSource target) {
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{DataSource.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(target, method, args);
+                    if (result instanceof Connection) {
+                        Connection connection = (Connection) result;
+                        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                                (connectionProxy, connectionMethod, connectionArgs) -> {
+                                    Object statement = invoke(connection, connectionMethod, connectionArgs);
+                                    if (!(statement instanceof PreparedStatement)) {
+                                        return statement;
+                                    }
+                                    return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                                            (statementProxy, statementMethod, statementArgs) -> {
+                                                if (statementMethod.getName().equals("setFetchSize")) {
+                                                    fetchSizes.add((Integer) statementArgs[0]);
+                                                }
+                                                return invoke(statement, statementMethod, statementArgs);
+                                            });
+                                });
+                    }
+                    return result;
+                });
+    }
+
+    private static Object invoke(Object target, java.lang.reflect.Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.anm.core;
+
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+
+/**
+ * 按主键取模分到两个 H2 内存库：写入路由、带分片键条件的查询只访问一个分片、跨分片的排序归并和分页
+ */
+public class ShardingTest extends TestCase {
+    private static final int USERS = 20;
+
+    private ConnectionPool shard0;
+    private ConnectionPool shard1;
+    private ConnectionPool unused;
+    private UserRepository repository;
+    private final List<User> users = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        shard0 = TestDatabase.create(null, TestDatabase.USER_TABLE);
+        shard1 = TestDatabase.create(null, TestDatabase.USER_TABLE);
+        // 默认数据源没有表，误访问时查询失败
+        unused = TestDatabase.create(null);
+        SessionManager.setDataSource(unused);
+        SessionManager.setDialect(Dialect.H2);
+        ShardingRule.register(User.class, ShardingRule.modulo("id", shard0, shard1));
+        repository = new UserRepository();
+        for (long id = 1; id <= USERS; id++) {
+            User user = new User();
+            user.setId(id);
+            user.setUsername("user" + id);
+            // 年龄有重复，排序时以主键区分
+            user.setAge((int) (id * 7 % 10));
+            users.add(user);
+        }
+        repository.insertBatch(users);
+    }
+
+    @Override
+    protected void tearDown() {
+        ShardingRule.register(User.class, null);
+        SessionManager.setDialect(null);
+        shard0.close();
+        shard1.close();
+        unused.close();
+    }
+
+    public void testWritesAreRoutedByKey() throws Exception {
+        assertEquals(USERS / 2, TestDatabase.queryLong(shard0, "SELECT COUNT(*) FROM tb_user WHERE MOD(id, 2) = 0"));
+        assertEquals(USERS / 2, TestDatabase.queryLong(shard0, "SELECT COUNT(*) FROM tb_user"));
+        assertEquals(USERS / 2, TestDatabase.queryLong(shard1, "SELECT COUNT(*) FROM tb_user WHERE MOD(id, 2) = 1"));
+        assertEquals(USERS / 2, TestDatabase.queryLong(shard1, "SELECT COUNT(*) FROM tb_user"));
+
+        User user = users.get(2);
+        user.setName("updated");
+        repository.update(user);
+        assertEquals("updated", TestDatabase.queryString(shard1, "SELECT name FROM tb_user WHERE id = 3"));
+
+        assertEquals(3, repository.deleteByIds(Arrays.asList(1L, 2L, 4L)));
+        assertEquals(USERS / 2 - 2, TestDatabase.queryLong(shard0, "SELECT COUNT(*) FROM tb_user"));
+        assertEquals(USERS / 2 - 1, TestDatabase.queryLong(shard1, "SELECT COUNT(*) FROM tb_user"));
+    }
+
+    public void testKeyConditionReadsOneShard() throws Exception {
+        // 另一个分片中放一条主键相同的记录，只有路由正确才读不到它
+        TestDatabase.execute(shard0, "INSERT INTO tb_user (id, username) VALUES (5, 'misplaced')");
+        assertEquals("user5", repository.selectById(5L).get().getUsername());
+        List<User> found = repository.selectList(new QueryWrapper<User>().in("id", Arrays.asList(5L, 7L)).orderBy("id", "ASC"));
+        assertEquals(Arrays.asList("user5", "user7"), usernames(found));
+    }
+
+    public void testMergeSortsAcrossShards() throws Exception {
+        List<User> all = repository.selectList(new QueryWrapper<User>().orderBy("age", "DESC").orderBy("id", "ASC"));
+        assertEquals(ids(sorted(users)), ids(all));
+        assertEquals(USERS, repository.selectPage(1, 5, new QueryWrapper<>()).getTotal());
+    }
+
+    public void testPagesAcrossShards() throws Exception {
+        List<Long> expected = ids(sorted(users));
+        QueryWrapper<User> wrapper = new QueryWrapper<User>().orderBy("age", "DESC").orderBy("id", "ASC");
+        for (int current = 1; current <= 4; current++) {
+            Page<User> page = repository.selectPage(current, 6, wrapper);
+            int from = (current - 1) * 6;
+            assertEquals(expected.subList(Math.min(from, USERS), Math.min(from + 6, USERS)), ids(page.getRecords()));
+            assertEquals(USERS, page.getTotal());
+        }
+    }
+
+    public void testPageWithProjectionStillMergesByOrderColumn() throws Exception {
+        List<User> page = repository.selectPage(2, 5, new QueryWrapper<User>().select("username")
+                .orderBy("age", "DESC").orderBy("id", "ASC")).getRecords();
+        assertEquals(ids(sorted(users)).subList(5, 10), ids(page));
+    }
+
+    public void testKeysetPagesAcrossShards() throws Exception {
+        QueryWrapper<User> wrapper = new QueryWrapper<User>().orderBy("age", "DESC");
+        List<Long> actual = new ArrayList<>();
+        String cursor = null;
+        do {
+            KeysetPage<User> page = repository.selectKeysetPage(wrapper, 7, cursor);
+            actual.addAll(ids(page.getRecords()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        List<User> expected = new ArrayList<>(users);
+        expected.sort(Comparator.comparing(User::getAge).thenComparing(User::getId).reversed());
+        assertEquals(ids(expected), actual);
+    }
+
+    public void testTransactionsAreRejected() throws Exception {
+        TransactionManager.beginTransaction();
+        try {
+            repository.selectList(new QueryWrapper<>());
+            fail("Expected sharded reads inside a transaction to be rejected");
+        } catch (IllegalStateException e) {
+            // 分片表不参与事务
+        } finally {
+            TransactionManager.rollback();
+        }
+    }
+
+    public void testInsertsWithoutIdAreRejected() throws Exception {
+        // 按年龄分片时各分片的自增主键会重复
+        ShardingRule.register(User.class, ShardingRule.modulo("age", shard0, shard1));
+        User user = new User();
+        user.setUsername("anonymous");
+        user.setAge(3);
+        assertRejected(() -> repository.insert(user));
+        assertRejected(() -> repository.insertBatch(Arrays.asList(users.get(0), user)));
+        assertRejected(() -> repository.upsert(user, "age"));
+        assertRejected(() -> repository.bulkLoad(Arrays.asList(user)));
+        assertEquals(USERS, TestDatabase.queryLong(shard0, "SELECT COUNT(*) FROM tb_user")
+                + TestDatabase.queryLong(shard1, "SELECT COUNT(*) FROM tb_user"));
+
+        user.setId(100L);
+        repository.insert(user);
+        assertEquals(1, TestDatabase.queryLong(shard1, "SELECT COUNT(*) FROM tb_user WHERE id = 100"));
+    }
+
+    private static void assertRejected(Callable<?> insert) throws Exception {
+        try {
+            insert.call();
+            fail("Expected an insert without id to be rejected");
+        } catch (RuntimeException e) {
+            assertEquals("Entities inserted into sharded table tb_user must have an id", e.getMessage());
+        }
+    }
+
+    private static List<User> sorted(List<User> users) {
+        List<User> copy = new ArrayList<>(users);
+        copy.sort(Comparator.comparing(User::getAge).reversed().thenComparing(User::getId));
+        return copy;
+    }
+
+    private static List<Long> ids(List<User> users) {
+        return users.stream().map(User::getId).collect(Collectors.toList());
+    }
+
+    private static List<String> usernames(List<User> users) {
+        return users.stream().map(User::getUsername).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,176 @@
+package com.anm.core;
+
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import junit.framework.TestCase;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 耗时直方图的分位数和 SqlListener 回调
+ */
+public class SqlMetricsTest extends TestCase {
+    private ConnectionPool pool;
+    private UserRepository repository;
+    private final List<String> events = new ArrayList<>();
+    private final AtomicInteger acquired = new AtomicInteger();
+    private final SqlListener listener = new SqlListener() {
+        @Override
+        public void onStatement(String sql, long elapsedNanos, int rows, boolean success) {
+            events.add(sql + " -> " + rows + (success ? "" : " failed"));
+        }
+
+        @Override
+        public void onConnectionAcquired(long waitNanos) {
+            acquired.incrementAndGet();
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        pool = TestDatabase.create(null, TestDatabase.ROLE_TABLE, TestDatabase.USER_TABLE);
+        TestDatabase.execute(pool, "INSERT INTO tb_user (username, name) VALUES ('alice', 'Alice'), ('bob', 'Bob')");
+        SessionManager.setDataSource(pool);
+        repository = new UserRepository();
+        SqlMetrics.reset();
+        SqlMetrics.addListener(listener);
+    }
+
+    @Override
+    protected void tearDown() {
+        SqlMetrics.removeListener(listener);
+        SqlMetrics.setLogSampleRate(0);
+        SqlMetrics.unregisterMBean();
+        SqlMetrics.reset();
+        pool.close();
+    }
+
+    public void testSmallValuesAreExact() {
+        StatementStats stats = new StatementStats("x");
+        assertEquals(0, stats.percentileNanos(0.5));
+        for (int i = 1; i <= 10; i++) {
+            stats.record(i, 1, true);
+        }
+        assertEquals(5, stats.percentileNanos(0.5));
+        assertEquals(10, stats.percentileNanos(0.99));
+        assertEquals(1, stats.percentileNanos(0));
+    }
+
+    public void testPercentileIsBucketUpperBoundCappedAtMax() {
+        StatementStats stats = new StatementStats("x");
+        for (int i = 0; i < 99; i++) {
+            stats.record(1000, 2, true);
+        }
+        stats.record(1_000_000, 2, false);
+        // 1000 落在 [992, 1023] 的桶里，误差不超过 1/16
+        assertEquals(1023, stats.percentileNanos(0.5));
+        assertEquals(1023, stats.percentileNanos(0.99));
+        assertEquals(1_000_000, stats.percentileNanos(0.999));
+        assertEquals(100, stats.getCount());
+        assertEquals(1, stats.getErrorCount());
+        assertEquals(200, stats.getRows());
+        assertEquals(1.0, stats.getMaxMillis(), 1e-9);
+        assertEquals((99 * 1000 + 1_000_000) / 100 / 1e6, stats.getMeanMillis(), 1e-9);
+    }
+
+    public void testRelativeErrorWithinOneSixteenth() {
+        for (long nanos = 17; nanos < 1L << 40; nanos = nanos * 3 + 1) {
+            StatementStats stats = new StatementStats("x");
+            stats.record(nanos, -1, true);
+            stats.record(nanos * 2, -1, true);
+            long p50 = stats.percentileNanos(0.5);
+            assertTrue(nanos + " -> " + p50, p50 >= nanos && p50 - nanos <= nanos / 16);
+        }
+    }
+
+    public void testNegativeElapsedIsRecordedAsZero() {
+        StatementStats stats = new StatementStats("x");
+        stats.record(-5, -1, true);
+        assertEquals(0, stats.percentileNanos(1));
+        assertEquals(0, stats.getRows());
+    }
+
+    public void testListenerSeesStatementsAndPoolWaits() throws Exception {
+        List<User> users = repository.selectList(new QueryWrapper<User>());
+        assertEquals(2, users.size());
+        assertEquals(1, events.size());
+        String sql = events.get(0).substring(0, events.get(0).indexOf(" -> "));
+        assertEquals(sql + " -> 2", events.get(0));
+        assertTrue(acquired.get() >= 1);
+
+        repository.deleteById(1L);
+        assertEquals(2, events.size());
+        assertTrue(events.get(1), events.get(1).startsWith("DELETE FROM tb_user "));
+        assertTrue(events.get(1), events.get(1).endsWith(" -> 1"));
+
+        StatementStats stats = SqlMetrics.getStatement(sql);
+        assertEquals(1, stats.getCount());
+        assertEquals(2, stats.getRows());
+        assertEquals(0, stats.getErrorCount());
+        assertTrue(SqlMetrics.getPoolWait().getCount() >= 2);
+    }
+
+    public void testFailedStatementIsReported() throws Exception {
+        TestDatabase.execute(pool, "DROP TABLE tb_user");
+        try {
+            repository.selectList(new QueryWrapper<User>());
+            fail("Expected the missing table to fail");
+        } catch (SQLException e) {
+            // 预期
+        }
+        assertEquals(1, events.size());
+        assertTrue(events.get(0), events.get(0).endsWith(" -> -1 failed"));
+        StatementStats stats = SqlMetrics.getStatements().get(0);
+        assertEquals(1, stats.getErrorCount());
+    }
+
+    public void testFailingListenerDoesNotBreakStatement() throws Exception {
+        SqlListener failing = new SqlListener() {
+            @Override
+            public void onStatement(String sql, long elapsedNanos, int rows, boolean success) {
+                throw new IllegalStateException("listener");
+            }
+        };
+        SqlMetrics.addListener(failing);
+        try {
+            assertEquals(2, repository.selectList(new QueryWrapper<User>()).size());
+        } finally {
+            SqlMetrics.removeListener(failing);
+        }
+        assertEquals(1, events.size());
+    }
+
+    public void testResetAndLogSampleRate() throws Exception {
+        repository.selectList(new QueryWrapper<User>());
+        assertEquals(1, SqlMetrics.getStatements().size());
+        SqlMetrics.reset();
+        assertTrue(SqlMetrics.getStatements().isEmpty());
+        assertEquals(0, SqlMetrics.getPoolWait().getCount());
+
+        SqlMetrics.setLogSampleRate(2);
+        assertEquals(2, SqlMetrics.getLogSampleRate());
+        try {
+            SqlMetrics.setLogSampleRate(-1);
+            fail("Expected a negative rate to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("rate must not be negative: -1", e.getMessage());
+        }
+    }
+
+    public void testMBean() throws Exception {
+        SqlMetrics.registerMBean();
+        SqlMetrics.registerMBean();
+        repository.selectList(new QueryWrapper<User>());
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.anm.core:type=SqlMetrics");
+        assertEquals(1L, server.getAttribute(name, "StatementCount"));
+        SqlMetrics.unregisterMBean();
+        assertFalse(server.isRegistered(name));
+    }
+}
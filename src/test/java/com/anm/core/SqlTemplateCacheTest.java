@@ -0,0 +1,122 @@
+package com.anm.core;
+
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按查询形状缓存 SQL：参数值不同的查询共用同一条语句，条件按顺序绑定
+ */
+public class SqlTemplateCacheTest extends TestCase {
+    private final SqlTemplateCache templates = SqlTemplateCache.of(EntityMetadata.of(User.class));
+
+    public void testSameShapeSharesTemplate() {
+        QueryWrapper<User> first = new QueryWrapper<User>().eq("name", "Alice").gt("age", 18).orderBy("id", "DESC");
+        QueryWrapper<User> second = new QueryWrapper<User>().eq("name", "Bob").gt("age", 40).orderBy("id", "DESC");
+        assertEquals(first.getShape(), second.getShape());
+        assertSame(templates.select(first, false), templates.select(second, false));
+        assertSame(templates.count(first), templates.count(second));
+        assertNotSame(templates.select(first, false), templates.select(first, true));
+    }
+
+    public void testShapeDependsOnOperatorsAndOrder() {
+        String shape = new QueryWrapper<User>().eq("age", 18).getShape();
+        assertFalse(shape.equals(new QueryWrapper<User>().gt("age", 18).getShape()));
+        assertFalse(shape.equals(new QueryWrapper<User>().eq("age", 18).orderBy("age", "ASC").getShape()));
+        // 与 null 比较生成 IS NULL，形状不同
+        assertFalse(shape.equals(new QueryWrapper<User>().eq("age", null).getShape()));
+    }
+
+    public void testInListsArePaddedToPowerOfTwo() {
+        QueryWrapper<User> three = new QueryWrapper<User>().in("id", Arrays.asList(1L, 2L, 3L));
+        QueryWrapper<User> four = new QueryWrapper<User>().in("id", Arrays.asList(1L, 2L, 3L, 4L));
+        assertEquals(three.getShape(), four.getShape());
+        assertTrue(templates.select(three, false).getSql(), templates.select(three, false).getSql().contains("IN (?, ?, ?, ?)"));
+        assertEquals(Arrays.<Object>asList(1L, 2L, 3L, 3L), SqlTemplate.bind(three));
+        assertFalse(three.getShape().equals(new QueryWrapper<User>().in("id", Arrays.asList(1L, 2L, 3L, 4L, 5L)).getShape()));
+    }
+
+    public void testNullCheckIsNotBound() {
+        QueryWrapper<User> wrapper = new QueryWrapper<User>().eq("name", "Alice").eq("age", null).lt("id", 9L);
+        String sql = templates.select(wrapper, false).getSql();
+        assertTrue(sql, sql.contains("t0.name = ? AND t0.age IS NULL AND t0.id < ?"));
+        assertEquals(Arrays.<Object>asList("Alice", 9L), SqlTemplate.bind(wrapper));
+    }
+
+    public void testConditionListKeepsEveryCondition() {
+        QueryWrapper<User> wrapper = new QueryWrapper<User>().gt("age", 18).lt("age", 60).gt("age", 20)
+                .orderBy("name", "asc");
+        List<Condition> conditions = wrapper.getConditionList();
+        assertEquals(3, conditions.size());
+        assertEquals(ConditionType.LT, conditions.get(1).getType());
+        assertEquals(20, conditions.get(2).getValue());
+        assertTrue(wrapper.getOrderByList().get(0).isAscending());
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testDeprecatedViews() {
+        QueryWrapper<User> wrapper = new QueryWrapper<User>().eq("name", "Alice").like("city", "on").gt("age", 18)
+                .gt("age", 20).lt("id", 9L).in("role.id", Arrays.asList(1L, 2L)).orderBy("age", "desc");
+        Map<String, Object> conditions = wrapper.getConditions();
+        assertEquals(Arrays.asList("name", "city LIKE", "age >", "id <", "role.id IN"), new ArrayList<>(conditions.keySet()));
+        assertEquals("%on%", conditions.get("city LIKE"));
+        // 同一个键只保留最后一个条件
+        assertEquals(20, conditions.get("age >"));
+        assertEquals(Arrays.asList(1L, 2L), conditions.get("role.id IN"));
+        assertEquals(Collections.singletonList("age DESC"), wrapper.getOrderBy());
+        assertTrue(wrapper.getJoins().isEmpty());
+    }
+
+    public void testUnknownDirection() {
+        try {
+            new QueryWrapper<User>().orderBy("id", "UP");
+            fail("Expected an unknown direction to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Unknown order direction: UP", e.getMessage());
+        }
+    }
+
+    public void testQueriesAgainstDatabase() throws Exception {
+        ConnectionPool pool = TestDatabase.create(null, TestDatabase.ROLE_TABLE, TestDatabase.USER_TABLE);
+        TestDatabase.execute(pool, "INSERT INTO tb_role (name) VALUES ('admin'), ('guest')");
+        TestDatabase.execute(pool, "INSERT INTO tb_user (username, name, age, role_id) VALUES"
+                + " ('alice', 'Alice', 30, 1), ('bob', 'Bob', NULL, 2), ('carol', 'Carol', 25, 1), ('dave', 'Dave', 41, 2)");
+        SessionManager.setDataSource(pool);
+        try {
+            UserRepository repository = new UserRepository();
+            // 没有条件时不生成 WHERE
+            assertEquals(4, repository.selectList(new QueryWrapper<>()).size());
+            assertEquals("bob", repository.selectOne(new QueryWrapper<User>().eq("age", null)).get().getUsername());
+
+            List<User> users = repository.selectList(new QueryWrapper<User>().gt("age", 20).lt("age", 40)
+                    .like("username", "a").orderBy("age", "DESC"));
+            assertEquals(2, users.size());
+            assertEquals("alice", users.get(0).getUsername());
+            assertEquals("carol", users.get(1).getUsername());
+
+            users = repository.selectList(new QueryWrapper<User>().in("id", Arrays.asList(1L, 2L, 4L))
+                    .eq("role.name", "guest").orderBy("id", "ASC"));
+            assertEquals(2, users.size());
+            assertEquals("bob", users.get(0).getUsername());
+            assertEquals("guest", users.get(1).getRole().getName());
+            assertTrue(repository.selectList(new QueryWrapper<User>().in("id", Collections.emptyList())).isEmpty());
+
+            assertTrue(repository.exists(new QueryWrapper<User>().eq("name", "Dave")));
+            assertFalse(repository.exists(new QueryWrapper<User>().eq("name", "Eve")));
+
+            // 不同页共用同一条语句，LIMIT/OFFSET 作为参数绑定
+            Page<User> page = repository.selectPage(2, 3, new QueryWrapper<User>().orderBy("id", "ASC"));
+            assertEquals(4, page.getTotal());
+            assertEquals(1, page.getRecords().size());
+            assertEquals("dave", page.getRecords().get(0).getUsername());
+        } finally {
+            pool.close();
+        }
+    }
+}
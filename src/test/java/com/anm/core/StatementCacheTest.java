@@ -0,0 +1,136 @@
+package com.anm.core;
+
+import junit.framework.TestCase;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 连接上的语句缓存：复用、正在使用时绕过、借出中被淘汰、放回时恢复设置
+ */
+public class StatementCacheTest extends TestCase {
+    private ConnectionPool pool;
+
+    @Override
+    protected void setUp() throws SQLException {
+        // 缓存大小只影响之后新建的连接，先设置再建表
+        pool = TestDatabase.create(null).maxSize(1).statementCacheSize(2);
+        TestDatabase.execute(pool, "CREATE TABLE t (id INT)");
+        TestDatabase.execute(pool, "INSERT INTO t VALUES (1), (2), (3)");
+    }
+
+    @Override
+    protected void tearDown() {
+        pool.close();
+    }
+
+    public void testReuseAcrossLeases() throws SQLException {
+        long hits = pool.getStatementCacheHits();
+        try (Connection connection = pool.getConnection()) {
+            assertEquals(3, count(connection.prepareStatement("SELECT id FROM t")));
+        }
+        try (Connection connection = pool.getConnection()) {
+            assertEquals(3, count(connection.prepareStatement("SELECT id FROM t")));
+        }
+        assertEquals(hits + 1, pool.getStatementCacheHits());
+    }
+
+    public void testInUseStatementIsBypassed() throws SQLException {
+        try (Connection connection = pool.getConnection()) {
+            PreparedStatement first = connection.prepareStatement("SELECT id FROM t WHERE id = ?");
+            long misses = pool.getStatementCacheMisses();
+            PreparedStatement second = connection.prepareStatement("SELECT id FROM t WHERE id = ?");
+            assertNotSame(first, second);
+            assertEquals(misses + 1, pool.getStatementCacheMisses());
+            // 两条语句的参数互不影响
+            first.setInt(1, 1);
+            second.setInt(1, 2);
+            assertEquals(1, count(first));
+            assertEquals(1, count(second));
+            assertSame(connection, second.getConnection());
+            second.close();
+            assertTrue(second.isClosed());
+            first.close();
+        }
+    }
+
+    public void testEvictionWhileLeased() throws SQLException {
+        try (Connection connection = pool.getConnection()) {
+            PreparedStatement leased = connection.prepareStatement("SELECT id FROM t");
+            long evictions = pool.getStatementCacheEvictions();
+            connection.prepareStatement("SELECT id FROM t WHERE id > 1").close();
+            connection.prepareStatement("SELECT id FROM t WHERE id > 2").close();
+            assertEquals(evictions + 1, pool.getStatementCacheEvictions());
+            // 被淘汰的语句在放回前仍可使用
+            assertEquals(3, count(leased));
+            leased.close();
+
+            long misses = pool.getStatementCacheMisses();
+            connection.prepareStatement("SELECT id FROM t").close();
+            assertEquals(misses + 1, pool.getStatementCacheMisses());
+        }
+    }
+
+    public void testSettingsAreResetOnGiveBack() throws SQLException {
+        try (Connection connection = pool.getConnection()) {
+            PreparedStatement statement = connection.prepareStatement("SELECT id FROM t");
+            // setFetchSize(0) 恢复为驱动的默认值
+            int defaultFetchSize = statement.getFetchSize();
+            statement.setMaxRows(2);
+            statement.setQueryTimeout(5);
+            statement.setFetchSize(1);
+            statement.setEscapeProcessing(false);
+            assertEquals(2, count(statement));
+            statement.close();
+
+            long hits = pool.getStatementCacheHits();
+            PreparedStatement reused = connection.prepareStatement("SELECT id FROM t");
+            assertEquals(hits + 1, pool.getStatementCacheHits());
+            assertEquals(0, reused.getMaxRows());
+            assertEquals(0, reused.getQueryTimeout());
+            assertEquals(defaultFetchSize, reused.getFetchSize());
+            assertEquals(3, count(reused));
+        }
+    }
+
+    public void testUnresettableSettingIsNotCached() throws SQLException {
+        try (Connection connection = pool.getConnection()) {
+            PreparedStatement statement = connection.prepareStatement("SELECT id FROM t");
+            statement.setPoolable(false);
+            statement.close();
+
+            long misses = pool.getStatementCacheMisses();
+            connection.prepareStatement("SELECT id FROM t").close();
+            assertEquals(misses + 1, pool.getStatementCacheMisses());
+        }
+    }
+
+    public void testUncachedStatementsReturnTheLease() throws SQLException {
+        try (Connection connection = pool.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                assertSame(connection, statement.getConnection());
+            }
+            try (CallableStatement call = connection.prepareCall("CALL 1")) {
+                assertSame(connection, call.getConnection());
+            }
+            try (PreparedStatement scrollable = connection.prepareStatement("SELECT id FROM t",
+                    ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY)) {
+                assertSame(connection, scrollable.getConnection());
+            }
+        }
+    }
+
+    private static int count(PreparedStatement statement) throws SQLException {
+        int rows = 0;
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                rows++;
+            }
+        }
+        return rows;
+    }
+}
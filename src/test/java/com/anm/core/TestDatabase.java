@@ -0,0 +1,58 @@
+package com.anm.core;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用的 H2 内存库
+ */
+final class TestDatabase {
+    static final String ROLE_TABLE = "CREATE TABLE tb_role (id BIGINT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(50))";
+    static final String USER_TABLE = "CREATE TABLE tb_user (id BIGINT AUTO_INCREMENT PRIMARY KEY, username VARCHAR(50),"
+            + " password VARCHAR(50), phone_number VARCHAR(20), name VARCHAR(50), age INT, role_id BIGINT,"
+            + " city VARCHAR(50))";
+
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+    private TestDatabase() {
+    }
+
+    /**
+     * 新建一个独立的内存库并执行建表语句
+     * @param mode H2 的兼容模式，如 MySQL，为 null 时使用 H2 自身的语法
+     */
+    static ConnectionPool create(String mode, String... ddl) throws SQLException {
+        String url = "jdbc:h2:mem:test" + SEQUENCE.incrementAndGet() + ";DB_CLOSE_DELAY=-1"
+                + (mode != null ? ";MODE=" + mode : "");
+        ConnectionPool pool = new ConnectionPool(url, "sa", "");
+        for (String sql : ddl) {
+            execute(pool, sql);
+        }
+        return pool;
+    }
+
+    static void execute(DataSource dataSource, String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    static long queryLong(DataSource dataSource, String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    static String queryString(DataSource dataSource, String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            return resultSet.next() ? resultSet.getString(1) : null;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.anm.core;
+
+import com.anm.demo.User;
+import com.anm.demo.UserRepository;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * 批量更新按修改的列分组，批量删除按块发送 IN 查询，都在同一连接上执行并参与事务
+ */
+public class UpdateBatchTest extends TestCase {
+    private ConnectionPool pool;
+    private UserRepository repository;
+    private final List<String> statements = new ArrayList<>();
+    private final SqlListener listener = new SqlListener() {
+        @Override
+        public void onStatement(String sql, long elapsedNanos, int rows, boolean success) {
+            if (sql.startsWith("UPDATE") || sql.startsWith("DELETE")) {
+                statements.add(sql);
+            }
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        pool = TestDatabase.create(null, TestDatabase.USER_TABLE);
+        for (int i = 1; i <= 25; i++) {
+            TestDatabase.execute(pool, "INSERT INTO tb_user (username, name, age) VALUES ('user" + i + "', 'name" + i + "', " + i + ")");
+        }
+        SessionManager.setDataSource(pool);
+        SessionManager.setDialect(Dialect.H2);
+        SqlMetrics.addListener(listener);
+        repository = new UserRepository();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TransactionManager.rollback();
+        SqlMetrics.removeListener(listener);
+        SessionManager.setDialect(null);
+        pool.close();
+    }
+
+    public void testUpdateBatchGroupsByChangedColumns() throws Exception {
+        TransactionManager.beginTransaction();
+        List<User> users = repository.selectList(new QueryWrapper<User>().lt("id", 7).orderBy("id", "ASC"));
+        for (int i = 0; i < 3; i++) {
+            users.get(i).setName("renamed" + i);
+        }
+        users.get(3).setAge(99);
+        users.get(4).setAge(98);
+        // users.get(5) 没有修改
+        assertEquals(5, repository.updateBatch(users, 2));
+        TransactionManager.commit();
+
+        assertEquals(2, new HashSet<>(statements).size());
+        assertTrue(statements.contains("UPDATE tb_user SET name = ? WHERE id = ?"));
+        assertTrue(statements.contains("UPDATE tb_user SET age = ? WHERE id = ?"));
+        assertEquals("renamed2", TestDatabase.queryString(pool, "SELECT name FROM tb_user WHERE id = 3"));
+        assertEquals(98, TestDatabase.queryLong(pool, "SELECT age FROM tb_user WHERE id = 5"));
+        assertEquals("name5", TestDatabase.queryString(pool, "SELECT name FROM tb_user WHERE id = 5"));
+    }
+
+    public void testUpdateBatchWithoutChangesRunsNothing() throws Exception {
+        TransactionManager.beginTransaction();
+        List<User> users = repository.selectList(new QueryWrapper<User>().lt("id", 4));
+        assertEquals(0, repository.updateBatch(users));
+        TransactionManager.commit();
+        assertTrue(statements.isEmpty());
+    }
+
+    public void testUpdateBatchOutsideTransactionWritesAllColumns() throws Exception {
+        List<User> users = repository.selectList(new QueryWrapper<User>().lt("id", 4));
+        for (User user : users) {
+            user.setCity("sz");
+        }
+        assertEquals(3, repository.updateBatch(users));
+        assertEquals(1, new HashSet<>(statements).size());
+        assertTrue(statements.get(0), statements.get(0).contains("username = ?"));
+        assertEquals(3, TestDatabase.queryLong(pool, "SELECT COUNT(*) FROM tb_user WHERE city = 'sz'"));
+    }
+
+    public void testDeleteByIdsInChunks() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for (long id = 1; id <= 23; id++) {
+            ids.add(id);
+        }
+        // 不存在的主键不计入删除的行数
+        ids.add(100L);
+        assertEquals(23, repository.deleteByIds(ids, 10));
+        assertEquals(3, statements.size());
+        assertEquals(2, TestDatabase.queryLong(pool, "SELECT COUNT(*) FROM tb_user"));
+    }
+
+    public void testDeleteByIdsRollsBackWithTransaction() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for (long id = 1; id <= 12; id++) {
+            ids.add(id);
+        }
+        TransactionManager.beginTransaction();
+        assertEquals(12, repository.deleteByIds(ids, 5));
+        TransactionManager.rollback();
+        assertEquals(25, TestDatabase.queryLong(pool, "SELECT COUNT(*) FROM tb_user"));
+    }
+
+    public void testInvalidChunkSize() throws Exception {
+        try {
+            repository.deleteByIds(new ArrayList<>(), 0);
+            fail("Expected an invalid chunk size to be rejected");
+        } catch (IllegalArgumentException e) {
+            // 块大小必须为正数
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.anm.core;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * upsert 和 upsertBatch 的冲突判断与主键回填：H2 的 MERGE 在内存库上执行，MySQL 和 PostgreSQL 检查生成的语句
+ */
+public class UpsertTest extends TestCase {
+    private ConnectionPool pool;
+    private BaseRepository<Item> items;
+    private BaseRepository<Tag> tags;
+
+    @Override
+    protected void setUp() throws Exception {
+        pool = TestDatabase.create(null,
+                "CREATE TABLE tb_item (id BIGINT AUTO_INCREMENT PRIMARY KEY, code VARCHAR(20) UNIQUE, name VARCHAR(50), qty INT)",
+                "CREATE TABLE tb_tag (id BIGINT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(50))");
+        TestDatabase.execute(pool, "INSERT INTO tb_item (code, name, qty) VALUES ('A', 'apple', 1), ('B', 'banana', 2)");
+        TestDatabase.execute(pool, "INSERT INTO tb_tag (name) VALUES ('red')");
+        SessionManager.setDataSource(pool);
+        SessionManager.setDialect(Dialect.H2);
+        items = new BaseRepository<Item>(Item.class) {
+        };
+        tags = new BaseRepository<Tag>(Tag.class) {
+        };
+    }
+
+    @Override
+    protected void tearDown() {
+        SessionManager.setDialect(null);
+        pool.close();
+    }
+
+    public void testInsertBackfillsId() throws Exception {
+        Item item = items.upsert(item("C", "cherry", 3), "qty");
+        assertEquals(Long.valueOf(3), item.id);
+        assertEquals("cherry", TestDatabase.queryString(pool, "SELECT name FROM tb_item WHERE id = 3"));
+    }
+
+    public void testConflictUpdatesOnlyListedPropertiesAndBackfillsId() throws Exception {
+        Item item = items.upsert(item("A", "apricot", 5), "qty");
+        assertEquals(Long.valueOf(1), item.id);
+        assertEquals(5, TestDatabase.queryLong(pool, "SELECT qty FROM tb_item WHERE id = 1"));
+        assertEquals("apple", TestDatabase.queryString(pool, "SELECT name FROM tb_item WHERE id = 1"));
+        assertEquals(2, TestDatabase.queryLong(pool, "SELECT COUNT(*) FROM tb_item"));
+    }
+
+    public void testConflictWithoutUpdatePropertiesKeepsRow() throws Exception {
+        Item item = items.upsert(item("B", "blueberry", 9));
+        assertEquals(Long.valueOf(2), item.id);
+        assertEquals("banana", TestDatabase.queryString(pool, "SELECT name FROM tb_item WHERE id = 2"));
+        assertEquals(2, TestDatabase.queryLong(pool, "SELECT qty FROM tb_item WHERE id = 2"));
+    }
+
+    public void testBatchBackfillsInsertedAndUpdatedIds() throws Exception {
+        List<Item> batch = Arrays.asList(item("D", "date", 4), item("A", "avocado", 7), item("E", "elder", 5),
+                item("B", "berry", 8));
+        items.upsertBatch(batch, 2, "name", "qty");
+        assertEquals(Long.valueOf(3), batch.get(0).id);
+        assertEquals(Long.valueOf(1), batch.get(1).id);
+        assertEquals(Long.valueOf(4), batch.get(2).id);
+        assertEquals(Long.valueOf(2), batch.get(3).id);
+        assertEquals("avocado", TestDatabase.queryString(pool, "SELECT name FROM tb_item WHERE id = 1"));
+        assertEquals(8, TestDatabase.queryLong(pool, "SELECT qty FROM tb_item WHERE id = 2"));
+        assertEquals(4, TestDatabase.queryLong(pool, "SELECT COUNT(*) FROM tb_item"));
+    }
+
+    public void testIdKeyedUpsert() throws Exception {
+        Tag existing = new Tag();
+        existing.id = 1L;
+        existing.name = "crimson";
+        // 没有主键的实体直接插入
+        Tag created = new Tag();
+        created.name = "green";
+        tags.upsertBatch(Arrays.asList(existing, created), "name");
+        assertEquals(Long.valueOf(1), existing.id);
+        assertEquals(Long.valueOf(2), created.id);
+        assertEquals("crimson", TestDatabase.queryString(pool, "SELECT name FROM tb_tag WHERE id = 1"));
+        assertEquals("green", TestDatabase.queryString(pool, "SELECT name FROM tb_tag WHERE id = 2"));
+
+        Tag withNewId = new Tag();
+        withNewId.id = 10L;
+        withNewId.name = "blue";
+        assertEquals(Long.valueOf(10), tags.upsert(withNewId, "name").id);
+        assertEquals("blue", TestDatabase.queryString(pool, "SELECT name FROM tb_tag WHERE id = 10"));
+    }
+
+    public void testUnknownOrIdPropertyIsRejected() throws Exception {
+        try {
+            items.upsert(item("A", "apple", 1), "color");
+            fail("Expected an unknown property to be rejected");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("No such field: "));
+        }
+        try {
+            items.upsertBatch(Collections.singletonList(item("A", "apple", 1)), "id");
+            fail("Expected the id column to be rejected");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Cannot update the id column: "));
+        }
+    }
+
+    public void testMysqlSql() {
+        // 更新的行通过 LAST_INSERT_ID(id) 返回主键
+        assertEquals("INSERT INTO tb_item (id, code, name) VALUES (?, ?, ?) AS new ON DUPLICATE KEY UPDATE"
+                        + " id = LAST_INSERT_ID(id), name = new.name",
+                Dialect.MYSQL.upsert("tb_item", "id", Arrays.asList("id", "code", "name"),
+                        Collections.singletonList("code"), Collections.singletonList("name")));
+        assertEquals("INSERT INTO tb_item (code) VALUES (?) AS new ON DUPLICATE KEY UPDATE id = LAST_INSERT_ID(id)",
+                Dialect.MYSQL.upsert("tb_item", "id", Collections.singletonList("code"),
+                        Collections.singletonList("code"), Collections.<String>emptyList()));
+    }
+
+    public void testPostgresqlSql() {
+        assertEquals("INSERT INTO tb_item (code, name) VALUES (?, ?) ON CONFLICT (code) DO UPDATE SET name = EXCLUDED.name",
+                Dialect.POSTGRESQL.upsert("tb_item", "id", Arrays.asList("code", "name"),
+                        Collections.singletonList("code"), Collections.singletonList("name")));
+        // 没有要更新的列时仍然更新冲突列，否则更新的行不返回主键
+        assertEquals("INSERT INTO tb_item (code, name) VALUES (?, ?) ON CONFLICT (code) DO UPDATE SET code = EXCLUDED.code",
+                Dialect.POSTGRESQL.upsert("tb_item", "id", Arrays.asList("code", "name"),
+                        Collections.singletonList("code"), Collections.<String>emptyList()));
+    }
+
+    private static Item item(String code, String name, int qty) {
+        Item item = new Item();
+        item.code = code;
+        item.name = name;
+        item.qty = qty;
+        return item;
+    }
+
+    @Table(value = "tb_item", uniqueKey = "code")
+    public static class Item {
+        @Id
+        public Long id;
+        public String code;
+        public String name;
+        public Integer qty;
+    }
+
+    @Table("tb_tag")
+    public static class Tag {
+        @Id
+        public Long id;
+        public String name;
+    }
+}